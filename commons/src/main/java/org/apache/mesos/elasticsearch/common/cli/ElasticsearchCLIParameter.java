@@ -24,6 +24,12 @@ public class ElasticsearchCLIParameter {
     public String getElasticsearchSettingsLocation() {
         return elasticsearchSettingsLocation;
     }
+    public void setElasticsearchSettingsLocation(String settingsLocation) throws IllegalArgumentException {
+        if (settingsLocation == null) {
+            throw new IllegalArgumentException("Settings location cannot be null. Use an empty location for the default settings.");
+        }
+        elasticsearchSettingsLocation = settingsLocation;
+    }
 
     public static final String ELASTICSEARCH_NODES = "--elasticsearchNodes";
     @Parameter(names = {ELASTICSEARCH_NODES}, description = "Number of elasticsearch instances.", validateValueWith = OddNumberOfNodes.class)
@@ -1,7 +1,9 @@
 package org.apache.mesos.elasticsearch.scheduler;
 
+import com.beust.jcommander.IParameterValidator;
 import com.beust.jcommander.JCommander;
 import com.beust.jcommander.Parameter;
+import com.beust.jcommander.ParameterException;
 import org.apache.log4j.Logger;
 import org.apache.mesos.Protos;
 import org.apache.mesos.elasticsearch.common.Discovery;
@@ -19,6 +21,7 @@ import java.net.InetSocketAddress;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 import java.util.stream.Collectors;
 
 import static java.util.Arrays.asList;
@@ -32,6 +35,14 @@ public class Configuration {
     public static final String ELASTICSEARCH_CPU = "--elasticsearchCpu";
     public static final String ELASTICSEARCH_RAM = "--elasticsearchRam";
     public static final String ELASTICSEARCH_DISK = "--elasticsearchDisk";
+    public static final String ELASTICSEARCH_MASTER_NODES = "--elasticsearchMasterNodes";
+    public static final String ELASTICSEARCH_MASTER_CPU = "--elasticsearchMasterCpu";
+    public static final String ELASTICSEARCH_MASTER_RAM = "--elasticsearchMasterRam";
+    public static final String ELASTICSEARCH_MASTER_DISK = "--elasticsearchMasterDisk";
+    public static final String ELASTICSEARCH_CLIENT_NODES = "--elasticsearchClientNodes";
+    public static final String ELASTICSEARCH_CLIENT_CPU = "--elasticsearchClientCpu";
+    public static final String ELASTICSEARCH_CLIENT_RAM = "--elasticsearchClientRam";
+    public static final String ELASTICSEARCH_CLIENT_DISK = "--elasticsearchClientDisk";
     // **** WEB UI
     public static final String WEB_UI_PORT = "--webUiPort";
     public static final String FRAMEWORK_NAME = "--frameworkName";
@@ -42,6 +53,21 @@ public class Configuration {
     public static final String FRAMEWORK_FAILOVER_TIMEOUT = "--frameworkFailoverTimeout";
     // DCOS Certification requirement 13
     public static final String FRAMEWORK_ROLE = "--frameworkRole";
+    public static final String FRAMEWORK_OFFER_REFUSE_SECONDS = "--frameworkOfferRefuseSeconds";
+    public static final String FRAMEWORK_RELAUNCH_GRACE_PERIOD = "--frameworkRelaunchGracePeriod";
+    public static final String FRAMEWORK_CONSTRAINTS = "--frameworkConstraints";
+    public static final String FRAMEWORK_AUTOSCALE_MIN_NODES = "--frameworkAutoscaleMinNodes";
+    public static final String FRAMEWORK_AUTOSCALE_MAX_NODES = "--frameworkAutoscaleMaxNodes";
+    public static final String FRAMEWORK_AUTOSCALE_STEP = "--frameworkAutoscaleStep";
+    public static final String FRAMEWORK_AUTOSCALE_UP_COOLDOWN = "--frameworkAutoscaleUpCooldown";
+    public static final String FRAMEWORK_AUTOSCALE_DOWN_COOLDOWN = "--frameworkAutoscaleDownCooldown";
+    public static final String FRAMEWORK_STATE_JOURNAL_DIR = "--frameworkStateJournalDir";
+    public static final String FRAMEWORK_STATE_BACKEND = "--frameworkStateBackend";
+    public static final String FRAMEWORK_STATE_DIR = "--frameworkStateDir";
+    public static final String FRAMEWORK_STATE_LATENCY = "--frameworkStateLatency";
+    public static final String STATE_BACKEND_ZOOKEEPER = "zookeeper";
+    public static final String STATE_BACKEND_FILE = "file";
+    public static final String STATE_BACKEND_MEMORY = "memory";
     public static final String EXECUTOR_IMAGE = "--elasticsearchDockerImage";
     public static final String EXECUTOR_BINARY = "--elasticsearchBinaryUrl";
     public static final String DEFAULT_EXECUTOR_IMAGE = "elasticsearch:latest";
@@ -64,6 +90,8 @@ public class Configuration {
     // **** External Volumes
     public static final String EXTERNAL_VOLUME_DRIVER = "--externalVolumeDriver";
     public static final String EXTERNAL_VOLUME_OPTIONS = "--externalVolumeOptions";
+    // **** Persistent Volumes
+    public static final String FRAMEWORK_USE_PERSISTENT_VOLUMES = "--frameworkUsePersistentVolumes";
 
     // **** ZOOKEEPER
     private final ZookeeperCLIParameter zookeeperCLI = new ZookeeperCLIParameter();
@@ -74,6 +102,22 @@ public class Configuration {
     private double mem = 256;
     @Parameter(names = {ELASTICSEARCH_DISK}, description = "The amount of Disk resource to allocate to the elasticsearch instance (MB).", validateValueWith = CLIValidators.PositiveDouble.class)
     private double disk = 1024;
+    @Parameter(names = {ELASTICSEARCH_MASTER_NODES}, description = "Number of dedicated master nodes, which hold no data. If 0, the data nodes are master eligible.")
+    private int masterNodes = 0;
+    @Parameter(names = {ELASTICSEARCH_MASTER_CPU}, description = "The amount of CPU resource to allocate to each dedicated master node.", validateValueWith = CLIValidators.PositiveDouble.class)
+    private double masterCpus = 0.5;
+    @Parameter(names = {ELASTICSEARCH_MASTER_RAM}, description = "The amount of ram resource to allocate to each dedicated master node (MB).", validateValueWith = CLIValidators.PositiveDouble.class)
+    private double masterMem = 512;
+    @Parameter(names = {ELASTICSEARCH_MASTER_DISK}, description = "The amount of Disk resource to allocate to each dedicated master node (MB).", validateValueWith = CLIValidators.PositiveDouble.class)
+    private double masterDisk = 256;
+    @Parameter(names = {ELASTICSEARCH_CLIENT_NODES}, description = "Number of client nodes, which hold no data and are not master eligible. They route requests and merge search results.")
+    private int clientNodes = 0;
+    @Parameter(names = {ELASTICSEARCH_CLIENT_CPU}, description = "The amount of CPU resource to allocate to each client node.", validateValueWith = CLIValidators.PositiveDouble.class)
+    private double clientCpus = 1.0;
+    @Parameter(names = {ELASTICSEARCH_CLIENT_RAM}, description = "The amount of ram resource to allocate to each client node (MB).", validateValueWith = CLIValidators.PositiveDouble.class)
+    private double clientMem = 1024;
+    @Parameter(names = {ELASTICSEARCH_CLIENT_DISK}, description = "The amount of Disk resource to allocate to each client node (MB).", validateValueWith = CLIValidators.PositiveDouble.class)
+    private double clientDisk = 256;
     @Parameter(names = {WEB_UI_PORT}, description = "TCP port for web ui interface.", validateValueWith = CLIValidators.PositiveInteger.class)
     private int webUiPort = 31100; // Default is more likely to work on a default Mesos installation
     @Parameter(names = {ELASTICSEARCH_PORTS}, description = "Override Mesos provided ES HTTP and transport ports. Format `HTTP_PORT,TRANSPORT_PORT` (comma delimited, both required).", validateWith = CLIValidators.NumericListOfSizeTwo.class)
@@ -91,6 +135,31 @@ public class Configuration {
     private double frameworkFailoverTimeout = 2592000; // Mesos will kill framework after 1 month if marathon does not restart.
     @Parameter(names = {FRAMEWORK_ROLE}, description = "Used to group frameworks for allocation decisions, depending on the allocation policy being used.", validateWith = CLIValidators.NotEmptyString.class)
     private String frameworkRole = "*"; // This is the default if none is passed to Mesos
+    @Parameter(names = {FRAMEWORK_OFFER_REFUSE_SECONDS}, description = "How long Mesos should wait before offering the resources of an unsuitable host again (s).", validateValueWith = CLIValidators.PositiveDouble.class)
+    private double frameworkOfferRefuseSeconds = 30;
+    @Parameter(names = {FRAMEWORK_RELAUNCH_GRACE_PERIOD}, description = "How long the replacement of a failed node waits for an offer from the host holding its data, before it is launched on any host (ms). 0 to launch on any host at once.")
+    private long frameworkRelaunchGracePeriod = 60000;
+    @Parameter(names = {FRAMEWORK_CONSTRAINTS}, description = "Placement constraints on slave attributes, in the format `field:OPERATOR[:value]` separated by semicolons. Operators are UNIQUE, CLUSTER, GROUP_BY and LIKE. E.g. `rack:GROUP_BY:3;zone:LIKE:us-east-1.*`. Nodes are made aware of UNIQUE and GROUP_BY attributes, so replicas are spread over them.")
+    private String frameworkConstraints = "";
+    private List<Constraint> constraints;
+    @Parameter(names = {FRAMEWORK_AUTOSCALE_MAX_NODES}, description = "The most nodes the autoscaler may scale the cluster to. Autoscaling is disabled if 0.")
+    private int frameworkAutoscaleMaxNodes = 0;
+    @Parameter(names = {FRAMEWORK_AUTOSCALE_MIN_NODES}, description = "The fewest nodes the autoscaler may scale the cluster to.", validateValueWith = CLIValidators.PositiveInteger.class)
+    private int frameworkAutoscaleMinNodes = 1;
+    @Parameter(names = {FRAMEWORK_AUTOSCALE_STEP}, description = "The number of nodes the autoscaler adds or removes at a time.", validateValueWith = CLIValidators.PositiveInteger.class)
+    private int frameworkAutoscaleStep = 1;
+    @Parameter(names = {FRAMEWORK_AUTOSCALE_UP_COOLDOWN}, description = "How long after resizing the cluster the autoscaler waits before adding nodes (ms).", validateValueWith = CLIValidators.PositiveLong.class)
+    private long frameworkAutoscaleUpCooldown = 300000;
+    @Parameter(names = {FRAMEWORK_AUTOSCALE_DOWN_COOLDOWN}, description = "How long after resizing the cluster the autoscaler waits before removing nodes (ms).", validateValueWith = CLIValidators.PositiveLong.class)
+    private long frameworkAutoscaleDownCooldown = 900000;
+    @Parameter(names = {FRAMEWORK_STATE_JOURNAL_DIR}, description = "Local directory in which to keep a copy of the framework state, so that a restarted scheduler does not have to wait for zookeeper. Disabled if empty.")
+    private String frameworkStateJournalDir = "";
+    @Parameter(names = {FRAMEWORK_STATE_BACKEND}, description = "Where to store the framework state: 'zookeeper', 'file' (single node development only) or 'memory' (testing only, lost on restart).", validateWith = StateBackendValidator.class)
+    private String frameworkStateBackend = STATE_BACKEND_ZOOKEEPER;
+    @Parameter(names = {FRAMEWORK_STATE_DIR}, description = "The directory in which to store the framework state. [FILE STATE BACKEND ONLY]", validateWith = CLIValidators.NotEmptyString.class)
+    private String frameworkStateDir = "elasticsearch-state";
+    @Parameter(names = {FRAMEWORK_STATE_LATENCY}, description = "Delay added to every state operation, to imitate a slow zookeeper (ms). [MEMORY STATE BACKEND ONLY]")
+    private long frameworkStateLatency = 0;
     @Parameter(names = {EXECUTOR_IMAGE}, description = "The elasticsearch docker image to use. E.g. 'elasticsearch:latest' [DOCKER MODE ONLY]", validateWith = CLIValidators.NotEmptyString.class)
     private String executorImage = DEFAULT_EXECUTOR_IMAGE;
     @Parameter(names = {EXECUTOR_BINARY}, description = "The elasticsearch binary to use (Must be tar.gz format). " +
@@ -116,6 +185,10 @@ public class Configuration {
     @Parameter(names = {EXTERNAL_VOLUME_OPTIONS}, description = "External volume driver options.")
     private String externalVolumeOption = "";
 
+    // **** Persistent Volumes
+    @Parameter(names = {FRAMEWORK_USE_PERSISTENT_VOLUMES}, arity = 1, description = "If true, each node reserves its resources and keeps its data on a Mesos persistent volume, so a restarted node recovers from local data. Requires a framework role and principal.")
+    private Boolean isFrameworkUsePersistentVolumes = false;
+
     // ****************** Runtime configuration **********************
     public Configuration(String... args) {
         final JCommander jCommander = new JCommander();
@@ -130,6 +203,24 @@ public class Configuration {
             jCommander.usage();
             throw ex;
         }
+        constraints = Collections.unmodifiableList(Constraint.parse(frameworkConstraints));
+        if (masterNodes < 0 || clientNodes < 0) {
+            throw new IllegalArgumentException(ELASTICSEARCH_MASTER_NODES + " and " + ELASTICSEARCH_CLIENT_NODES + " cannot be negative");
+        }
+        if (isFrameworkUsePersistentVolumes && (masterNodes > 0 || clientNodes > 0)) {
+            throw new IllegalArgumentException(FRAMEWORK_USE_PERSISTENT_VOLUMES + " can not be used with dedicated master or client nodes");
+        }
+        if (isAutoscale() && frameworkAutoscaleMinNodes > frameworkAutoscaleMaxNodes) {
+            throw new IllegalArgumentException(FRAMEWORK_AUTOSCALE_MIN_NODES + " cannot be more than " + FRAMEWORK_AUTOSCALE_MAX_NODES);
+        }
+        if (isFrameworkUsePersistentVolumes) {
+            if ("*".equals(frameworkRole) || frameworkPrincipal.isEmpty()) {
+                throw new IllegalArgumentException(FRAMEWORK_USE_PERSISTENT_VOLUMES + " requires " + FRAMEWORK_ROLE + " and " + FRAMEWORK_PRINCIPAL);
+            }
+            if (!externalVolumeDriver.isEmpty()) {
+                throw new IllegalArgumentException(FRAMEWORK_USE_PERSISTENT_VOLUMES + " can not be used with " + EXTERNAL_VOLUME_DRIVER);
+            }
+        }
     }
 
     public double getCpus() {
@@ -144,6 +235,38 @@ public class Configuration {
         return disk;
     }
 
+    public int getMasterNodes() {
+        return masterNodes;
+    }
+
+    public double getMasterCpus() {
+        return masterCpus;
+    }
+
+    public double getMasterMem() {
+        return masterMem;
+    }
+
+    public double getMasterDisk() {
+        return masterDisk;
+    }
+
+    public int getClientNodes() {
+        return clientNodes;
+    }
+
+    public double getClientCpus() {
+        return clientCpus;
+    }
+
+    public double getClientMem() {
+        return clientMem;
+    }
+
+    public double getClientDisk() {
+        return clientDisk;
+    }
+
     public int getElasticsearchNodes() {
         return elasticsearchCLI.getElasticsearchNodes();
     }
@@ -156,6 +279,10 @@ public class Configuration {
         return elasticsearchCLI.getElasticsearchSettingsLocation();
     }
 
+    public void setElasticsearchSettingsLocation(String settingsLocation) {
+        elasticsearchCLI.setElasticsearchSettingsLocation(settingsLocation);
+    }
+
     public String getElasticsearchClusterName() {
         return elasticsearchCLI.getElasticsearchClusterName();
     }
@@ -184,6 +311,70 @@ public class Configuration {
         return frameworkFailoverTimeout;
     }
 
+    public double getOfferRefuseSeconds() {
+        return frameworkOfferRefuseSeconds;
+    }
+
+    public long getRelaunchGracePeriod() {
+        return frameworkRelaunchGracePeriod;
+    }
+
+    public List<Constraint> getConstraints() {
+        return constraints;
+    }
+
+    public boolean isAutoscale() {
+        return frameworkAutoscaleMaxNodes > 0;
+    }
+
+    public int getAutoscaleMinNodes() {
+        return frameworkAutoscaleMinNodes;
+    }
+
+    public int getAutoscaleMaxNodes() {
+        return frameworkAutoscaleMaxNodes;
+    }
+
+    public int getAutoscaleStep() {
+        return frameworkAutoscaleStep;
+    }
+
+    public long getAutoscaleUpCooldown() {
+        return frameworkAutoscaleUpCooldown;
+    }
+
+    public long getAutoscaleDownCooldown() {
+        return frameworkAutoscaleDownCooldown;
+    }
+
+    /**
+     * @return the attributes that Elasticsearch should spread the copies of each shard over.
+     */
+    public List<String> getAwarenessAttributes() {
+        return getConstraints().stream()
+                .filter(constraint -> constraint.getOperator() == Constraint.Operator.UNIQUE || constraint.getOperator() == Constraint.Operator.GROUP_BY)
+                .map(Constraint::getField)
+                .filter(field -> !Constraint.HOSTNAME.equals(field)) // Every node has a host of its own already
+                .distinct()
+                .collect(Collectors.toList());
+    }
+
+    public String getFrameworkStateJournalDir() {
+        return frameworkStateJournalDir;
+    }
+
+    public String getFrameworkStateBackend() {
+        return frameworkStateBackend;
+    }
+
+    public String getFrameworkStateDir() {
+        return frameworkStateDir;
+    }
+
+    public long getFrameworkStateLatency() {
+        return frameworkStateLatency;
+    }
+
     public String getFrameworkRole() {
         return frameworkRole;
     }
@@ -192,6 +383,13 @@ public class Configuration {
         return executorImage;
     }
 
+    public void setExecutorImage(String executorImage) throws IllegalArgumentException {
+        if (executorImage == null || executorImage.isEmpty()) {
+            throw new IllegalArgumentException("Executor image cannot be empty");
+        }
+        this.executorImage = executorImage;
+    }
+
     public Boolean getExecutorForcePullImage() {
         return executorForcePullImage;
     }
@@ -279,6 +477,10 @@ public class Configuration {
         return externalVolumeDriver;
     }
 
+    public Boolean isFrameworkUsePersistentVolumes() {
+        return isFrameworkUsePersistentVolumes;
+    }
+
     public String getExternalVolumeOption() {
         return externalVolumeOption;
     }
@@ -297,6 +499,20 @@ public class Configuration {
     }
 
     public List<String> esArguments(ClusterState clusterState, Protos.DiscoveryInfo discoveryInfo, Protos.SlaveID slaveID) {
+        return esArguments(clusterState, discoveryInfo, slaveID, Collections.emptyMap());
+    }
+
+    /**
+     * @param attributes the attributes of the offer the node is launched on. See {@link Constraint#attributesOf}.
+     */
+    public List<String> esArguments(ClusterState clusterState, Protos.DiscoveryInfo discoveryInfo, Protos.SlaveID slaveID, Map<String, String> attributes) {
+        return esArguments(clusterState, discoveryInfo, slaveID, attributes, NodeGroup.data(this));
+    }
+
+    /**
+     * @param group the node group of the node, which sets its roles.
+     */
+    public List<String> esArguments(ClusterState clusterState, Protos.DiscoveryInfo discoveryInfo, Protos.SlaveID slaveID, Map<String, String> attributes, NodeGroup group) {
         List<String> args = new ArrayList<>();
         List<Protos.TaskInfo> taskList = clusterState.getTaskList();
         String hostAddress = "";
@@ -310,16 +526,19 @@ public class Configuration {
         args.add("--default.http.port=" + discoveryInfo.getPorts().getPorts(Discovery.CLIENT_PORT_INDEX).getNumber());
         args.add("--default.transport.tcp.port=" + discoveryInfo.getPorts().getPorts(Discovery.TRANSPORT_PORT_INDEX).getNumber());
         args.add("--default.cluster.name=" + getElasticsearchClusterName());
-        args.add("--default.node.master=true");
-        args.add("--default.node.data=true");
+        final String rolePrefix = group.isMaster() && group.isData() ? "--default." : "--"; // Dedicated roles cannot be overidden
+        args.add(rolePrefix + "node.master=" + group.isMaster());
+        args.add(rolePrefix + "node.data=" + group.isData());
         args.add("--default.node.local=false");
         args.add("--default.index.number_of_replicas=0");
         args.add("--default.index.auto_expand_replicas=0-all");
         if (!isFrameworkUseDocker()) {
-            String taskSpecificDataDir = taskSpecificHostDir(slaveID);
+            String taskSpecificDataDir = isFrameworkUsePersistentVolumes() ? PersistentVolumes.VOLUME_PATH : taskSpecificHostDir(slaveID);
             args.add("--path.home=" + HOST_PATH_HOME); // Cannot be overidden
             args.add("--default.path.data=" + taskSpecificDataDir);
             args.add("--path.conf=" + HOST_PATH_CONF); // Cannot be overidden
+        } else if (isFrameworkUsePersistentVolumes()) {
+            args.add("--path.data=" + PersistentVolumes.SANDBOX_IN_CONTAINER + "/" + PersistentVolumes.VOLUME_PATH); // The volume is mounted in the sandbox
         } else {
             args.add("--path.data=" + CONTAINER_PATH_DATA); // Cannot be overidden
         }
@@ -334,7 +553,12 @@ public class Configuration {
         args.add("--default.discovery.zen.fd.ping_interval=1s");
         args.add("--default.discovery.zen.fd.ping_retries=30");
         args.add("--default.discovery.zen.ping.multicast.enabled=false");
-        args.add("--default.discovery.zen.minimum_master_nodes=" + getElasticsearchNodes());
+        args.add("--default.discovery.zen.minimum_master_nodes=" + NodeGroup.minimumMasterNodes(this));
+        final List<String> awareness = getAwarenessAttributes().stream().filter(attributes::containsKey).collect(Collectors.toList());
+        if (!awareness.isEmpty()) {
+            awareness.forEach(attribute -> args.add("--node." + attribute + "=" + attributes.get(attribute))); // Cannot be overidden
+            args.add("--default.cluster.routing.allocation.awareness.attributes=" + String.join(",", awareness));
+        }
 
         return args;
     }
@@ -352,4 +576,18 @@ public class Configuration {
     public String dataVolumeName(Long nodeId) {
         return getFrameworkName() + nodeId + "data";
     }
+
+    /**
+     * Ensures that the state backend is one of the supported backends.
+     */
+    public static class StateBackendValidator implements IParameterValidator {
+        private static final List<String> STATE_BACKENDS = asList(STATE_BACKEND_ZOOKEEPER, STATE_BACKEND_FILE, STATE_BACKEND_MEMORY);
+
+        @Override
+        public void validate(String name, String value) throws ParameterException {
+            if (!STATE_BACKENDS.contains(value)) {
+                throw new ParameterException("Parameter " + name + " should be one of " + STATE_BACKENDS + " (found " + value + ")");
+            }
+        }
+    }
 }
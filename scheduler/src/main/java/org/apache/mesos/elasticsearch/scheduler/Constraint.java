@@ -0,0 +1,139 @@
+package org.apache.mesos.elasticsearch.scheduler;
+
+import org.apache.mesos.Protos;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * A placement constraint on an offer attribute, with the operators of Marathon constraints. The field is the name of a
+ * slave attribute (e.g. "rack", set with --attributes on the slave), or "hostname".
+ *
+ * UNIQUE: at most one node per value. CLUSTER[:value]: every node on the given value, or on the value most nodes are
+ * on. GROUP_BY[:groups]: nodes spread evenly over the values, counting at least the given number of groups. LIKE:regex:
+ * only values that match the regular expression.
+ *
+ * Offers without the attribute never satisfy a constraint on it.
+ */
+public class Constraint {
+    public static final String HOSTNAME = "hostname";
+
+    /**
+     * Constraint operators
+     */
+    public enum Operator { UNIQUE, CLUSTER, GROUP_BY, LIKE }
+
+    private final String field;
+    private final Operator operator;
+    private final Optional<String> value;
+    private final Pattern pattern;
+    private final int groups;
+
+    public Constraint(String field, Operator operator, Optional<String> value) {
+        if (field.isEmpty()) {
+            throw new IllegalArgumentException("Constraint has no field");
+        }
+        this.field = field;
+        this.operator = operator;
+        this.value = value;
+        try {
+            this.pattern = operator == Operator.LIKE ? Pattern.compile(value.orElseThrow(() -> new IllegalArgumentException("LIKE constraint on " + field + " has no regex"))) : null;
+            this.groups = operator == Operator.GROUP_BY ? value.map(Integer::parseInt).orElse(0) : 0;
+        } catch (PatternSyntaxException | NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid value for " + operator + " constraint on " + field + ": " + value.orElse(""), e);
+        }
+    }
+
+    /**
+     * Parses constraints in the format {@code field:OPERATOR[:value]}, separated by semicolons. E.g.
+     * {@code rack:GROUP_BY:3;hostname:UNIQUE;zone:LIKE:us-east-1[ab]}.
+     *
+     * @throws IllegalArgumentException if a constraint is malformed.
+     */
+    public static List<Constraint> parse(String constraints) {
+        final List<Constraint> parsed = new ArrayList<>();
+        for (String constraint : constraints.split(";")) {
+            if (constraint.trim().isEmpty()) {
+                continue;
+            }
+            final String[] parts = constraint.trim().split(":", 3);
+            if (parts.length < 2) {
+                throw new IllegalArgumentException("Constraint must be in the format field:OPERATOR[:value]: " + constraint);
+            }
+            final Operator operator;
+            try {
+                operator = Operator.valueOf(parts[1].toUpperCase(Locale.ENGLISH));
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Unknown constraint operator " + parts[1] + ". Use one of UNIQUE, CLUSTER, GROUP_BY or LIKE.", e);
+            }
+            parsed.add(new Constraint(parts[0], operator, parts.length == 3 ? Optional.of(parts[2]) : Optional.empty()));
+        }
+        return parsed;
+    }
+
+    public String getField() {
+        return field;
+    }
+
+    public Operator getOperator() {
+        return operator;
+    }
+
+    /**
+     * @return true if a node can be launched on the offer without breaking this constraint, given the nodes in the
+     * context.
+     */
+    public boolean isSatisfied(OfferContext context, Protos.Offer offer) {
+        final Optional<String> offered = Optional.ofNullable(context.attributesOf(offer).get(field));
+        if (!offered.isPresent()) {
+            return false;
+        }
+        final Map<String, Integer> counts = context.countNodesBy(field);
+        switch (operator) {
+            case UNIQUE:
+                return !counts.containsKey(offered.get());
+            case CLUSTER:
+                final Optional<String> target = value.isPresent() ? value : counts.entrySet().stream().max(Map.Entry.comparingByValue()).map(Map.Entry::getKey);
+                return !target.isPresent() || target.get().equals(offered.get());
+            case GROUP_BY:
+                final int count = counts.getOrDefault(offered.get(), 0);
+                final boolean unusedGroups = Math.max(groups, context.valuesOf(field).size()) > counts.size();
+                final int fewest = unusedGroups ? 0 : Collections.min(counts.values());
+                return count <= fewest;
+            case LIKE:
+                return pattern.matcher(offered.get()).matches();
+            default:
+                throw new IllegalStateException("Unknown operator " + operator);
+        }
+    }
+
+    /**
+     * @return the offer's attributes as text, and its hostname under {@link #HOSTNAME}. Only text and scalar attributes
+     * are used.
+     */
+    public static Map<String, String> attributesOf(Protos.Offer offer) {
+        final Map<String, String> attributes = new HashMap<>();
+        for (Protos.Attribute attribute : offer.getAttributesList()) {
+            if (attribute.getType() == Protos.Value.Type.TEXT) {
+                attributes.put(attribute.getName(), attribute.getText().getValue());
+            } else if (attribute.getType() == Protos.Value.Type.SCALAR) {
+                final double scalar = attribute.getScalar().getValue();
+                attributes.put(attribute.getName(), scalar == Math.rint(scalar) ? Long.toString((long) scalar) : Double.toString(scalar));
+            }
+        }
+        attributes.put(HOSTNAME, offer.getHostname());
+        return attributes;
+    }
+
+    @Override
+    public String toString() {
+        return field + ":" + operator + value.map(v -> ":" + v).orElse("");
+    }
+}
@@ -4,14 +4,19 @@ import org.apache.log4j.Logger;
 import org.apache.mesos.Protos;
 import org.apache.mesos.Scheduler;
 import org.apache.mesos.SchedulerDriver;
+import org.apache.mesos.elasticsearch.scheduler.cluster.Autoscaler;
+import org.apache.mesos.elasticsearch.scheduler.cluster.RollingUpdate;
 import org.apache.mesos.elasticsearch.scheduler.cluster.TaskReaper;
 import org.apache.mesos.elasticsearch.scheduler.state.*;
 import org.apache.mesos.elasticsearch.scheduler.util.Clock;
 
+import java.io.IOException;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Optional;
 
 /**
  * Scheduler for Elasticsearch.
@@ -28,6 +33,13 @@ public class ElasticsearchScheduler implements Scheduler {
     private OfferStrategy offerStrategy;
     private SerializableState zookeeperStateDriver;
     private TaskReaper taskReaper;
+    private RollingUpdate rollingUpdate;
+    private Autoscaler autoscaler;
+    private final OfferMetrics offerMetrics = new OfferMetrics();
+    private final PlacementPlanner placementPlanner;
+    private final PersistentVolumes persistentVolumes;
+    private final Protos.Filters declineFilters;
+    private boolean offersSuppressed = false;
 
     public ElasticsearchScheduler(Configuration configuration, FrameworkState frameworkState, ClusterState clusterState, TaskInfoFactory taskInfoFactory, OfferStrategy offerStrategy, SerializableState zookeeperStateDriver) {
         this.configuration = configuration;
@@ -36,6 +48,9 @@ public class ElasticsearchScheduler implements Scheduler {
         this.taskInfoFactory = taskInfoFactory;
         this.offerStrategy = offerStrategy;
         this.zookeeperStateDriver = zookeeperStateDriver;
+        this.persistentVolumes = new PersistentVolumes(configuration);
+        this.placementPlanner = new PlacementPlanner(offerStrategy, configuration, offerMetrics);
+        this.declineFilters = Protos.Filters.newBuilder().setRefuseSeconds(configuration.getOfferRefuseSeconds()).build();
     }
 
     public Map<String, Task> getTasks() {
@@ -46,6 +61,44 @@ public class ElasticsearchScheduler implements Scheduler {
         }
     }
 
+    /**
+     * @return the nodes being drained before they are killed, to shrink the cluster.
+     */
+    public List<TaskReaper.Decommission> getDecommissions() {
+        return taskReaper == null ? Collections.emptyList() : taskReaper.getDecommissions();
+    }
+
+    /**
+     * Launches new nodes with the given image and settings, and replaces the running nodes a few at a time.
+     *
+     * @param executorImage the docker image of new nodes, or null to keep the current one.
+     * @param settingsLocation the path or URL of the elasticsearch.yml of new nodes, or null to keep the current one.
+     * @param parallelism the number of nodes replaced at a time.
+     */
+    public void startRollout(String executorImage, String settingsLocation, int parallelism) {
+        if (rollingUpdate == null) {
+            throw new IllegalStateException("The scheduler is not running");
+        }
+        if (!getDecommissions().isEmpty()) {
+            throw new IllegalStateException("Cannot start a rollout while the cluster is scaling down");
+        }
+        rollingUpdate.rollout(executorImage, settingsLocation, parallelism);
+    }
+
+    public void abortRollout() {
+        if (rollingUpdate != null) {
+            rollingUpdate.abort();
+        }
+    }
+
+    public Optional<RollingUpdate.Rollout> getRollout() {
+        return rollingUpdate == null ? Optional.empty() : rollingUpdate.getRollout();
+    }
+
+    public OfferMetrics getOfferMetrics() {
+        return offerMetrics;
+    }
+
     public void run(SchedulerDriver schedulerDriver) {
         LOGGER.info("Starting ElasticSearch on Mesos - [numHwNodes: " + configuration.getElasticsearchNodes() +
                 ", zk mesos: " + configuration.getMesosZKURL() +
@@ -53,12 +106,41 @@ public class ElasticsearchScheduler implements Scheduler {
 
         LOGGER.debug("Starting task reaper");
         taskReaper = new TaskReaper(schedulerDriver, configuration, clusterState);
+        taskReaper.start(); // Kills drained nodes while the cluster shrinks
+        rollingUpdate = new RollingUpdate(schedulerDriver, configuration, clusterState);
+        rollingUpdate.start();
+        if (configuration.isAutoscale()) {
+            autoscaler = new Autoscaler(configuration, clusterState, this::reapTasks, rollingUpdate::isInProgress);
+            autoscaler.start();
+        }
         schedulerDriver.run();
     }
 
     public void reapTasks() {
         LOGGER.debug("Running task reaper");
         taskReaper.run();
+        reviewOfferInterest(frameworkState.getDriver()); // The configured cluster size may have changed
+    }
+
+    /**
+     * Suppresses offers while the cluster is at its configured size, and revives them when it is not. Mesos resends
+     * declined offers every few seconds, so a cluster at its target size would otherwise keep the master and this
+     * scheduler busy evaluating offers that will always be declined.
+     */
+    synchronized void reviewOfferInterest(SchedulerDriver driver) {
+        if (driver == null) {
+            return; // Not registered yet
+        }
+        final boolean fulfilled = clusterState.getTaskList().size() >= NodeGroup.totalNodes(configuration);
+        if (fulfilled && !offersSuppressed) {
+            LOGGER.info("Cluster size fulfilled. Suppressing offers.");
+            driver.suppressOffers();
+            offersSuppressed = true;
+        } else if (!fulfilled && offersSuppressed) {
+            LOGGER.info("Cluster size not fulfilled. Reviving offers.");
+            driver.reviveOffers(); // Also clears the refuse filters of earlier declines
+            offersSuppressed = false;
+        }
     }
 
     @Override
@@ -75,11 +157,17 @@ public class ElasticsearchScheduler implements Scheduler {
         driver.requestResources(requests);
 
         frameworkState.markRegistered(frameworkId, driver);
+        reviewOfferInterest(driver);
     }
 
     @Override
     public void reregistered(SchedulerDriver driver, Protos.MasterInfo masterInfo) {
         LOGGER.info("Framework re-registered");
+        clusterState.reload();
+        synchronized (this) {
+            offersSuppressed = false; // A new master does not know that offers were suppressed
+        }
+        reviewOfferInterest(driver);
     }
 
     @Override
@@ -89,22 +177,57 @@ public class ElasticsearchScheduler implements Scheduler {
             return;
         }
 
-        for (Protos.Offer offer : offers) {
-            final OfferStrategy.OfferResult result = offerStrategy.evaluate(offer);
+        final OfferContext context = OfferContext.of(clusterState, configuration); // One snapshot for the whole batch
+        final PlacementPlanner.Plan plan = placementPlanner.plan(context, offers);
+        plan.getDeclined().forEach((offer, reason) -> {
+            if (LOGGER.isDebugEnabled()) {
+                LOGGER.debug("Declined offer: " + flattenProtobufString(offer.toString()) + "Reason: " + reason);
+            }
+            if (OfferStrategy.FIRST_NODE_NOT_RESPONDING.equals(reason) || OfferStrategy.AWAITING_LOST_DATA_HOST.equals(reason)) {
+                driver.declineOffer(offer.getId()); // The host is fine, it may be needed once the node responds or the grace period ends
+            } else {
+                driver.declineOffer(offer.getId(), declineFilters);
+            }
+        });
+        if (plan.getAccepted().isEmpty()) {
+            reviewOfferInterest(driver);
+            return;
+        }
 
-            if (!result.acceptable) {
-                LOGGER.debug("Declined offer: " + flattenProtobufString(offer.toString()) +
-                        "Reason: " + result.reason.orElse("Unknown"));
+        final Map<Protos.Offer, ESTaskStatus> launches = new LinkedHashMap<>();
+        for (Protos.Offer offer : plan.getAccepted()) {
+            Protos.TaskInfo taskInfo = taskInfoFactory.createTask(configuration, frameworkState, offer, new Clock(), plan.getGroup(offer));
+            if (LOGGER.isDebugEnabled()) {
+                LOGGER.debug(taskInfo.toString());
+            }
+            ESTaskStatus esTask = new ESTaskStatus(zookeeperStateDriver, frameworkState.getFrameworkID(), taskInfo, clusterState.getStatePath());
+            esTask.initialize(); // Write staging state to zk
+            clusterState.addTask(esTask); // Add tasks to cluster state and write to zk
+            launches.put(offer, esTask);
+        }
+        try {
+            zookeeperStateDriver.flush(); // The tasks must be in zk before they are launched, or a failover would orphan them
+        } catch (IOException e) {
+            LOGGER.error("Unable to store " + launches.size() + " new tasks in zookeeper. Declining offers.", e);
+            launches.forEach((offer, esTask) -> {
+                clusterState.removeTask(esTask.getTaskInfo());
                 driver.declineOffer(offer.getId());
+            });
+            return;
+        }
+        launches.forEach((offer, esTask) -> {
+            if (persistentVolumes.isEnabled()) {
+                final OfferResources offered = OfferResources.of(offer, configuration.getFrameworkRole());
+                driver.acceptOffers(Collections.singleton(offer.getId()), persistentVolumes.operations(offered, esTask.getTaskInfo()), Protos.Filters.getDefaultInstance());
             } else {
-                Protos.TaskInfo taskInfo = taskInfoFactory.createTask(configuration, frameworkState, offer, new Clock());
-                LOGGER.debug(taskInfo.toString());
-                driver.launchTasks(Collections.singleton(offer.getId()), Collections.singleton(taskInfo));
-                ESTaskStatus esTask = new ESTaskStatus(zookeeperStateDriver, frameworkState.getFrameworkID(), taskInfo, new StatePath(zookeeperStateDriver)); // Write staging state to zk
-                clusterState.addTask(esTask); // Add tasks to cluster state and write to zk
-                frameworkState.announceNewTask(esTask);
+                driver.launchTasks(Collections.singleton(offer.getId()), Collections.singleton(esTask.getTaskInfo()));
             }
+            frameworkState.announceNewTask(esTask);
+        });
+        if (launches.size() > 1) {
+            LOGGER.info("Launched " + launches.size() + " tasks from " + offers.size() + " offers");
         }
+        reviewOfferInterest(driver);
     }
 
     private String flattenProtobufString(String s) {
@@ -127,6 +250,7 @@ public class ElasticsearchScheduler implements Scheduler {
                 " " +
                 " ");
         frameworkState.announceStatusUpdate(status);
+        reviewOfferInterest(driver); // A failed task leaves a place in the cluster
     }
 
     @Override
@@ -166,6 +290,15 @@ public class ElasticsearchScheduler implements Scheduler {
     }
 
     public void shutdown(SchedulerDriver driver) {
+        if (taskReaper != null) {
+            taskReaper.stop();
+        }
+        if (rollingUpdate != null) {
+            rollingUpdate.stop();
+        }
+        if (autoscaler != null) {
+            autoscaler.stop();
+        }
         clusterState.getTaskList().stream().forEach(taskInfo -> driver.killTask(taskInfo.getTaskId())); // Kill tasks.
         clusterState.destroy(); // Remove tasks from zk
         frameworkState.destroy(); // Remove framework state from zk.
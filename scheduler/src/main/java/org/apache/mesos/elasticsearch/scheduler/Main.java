@@ -3,12 +3,20 @@ package org.apache.mesos.elasticsearch.scheduler;
 import org.apache.log4j.Logger;
 import org.apache.mesos.MesosSchedulerDriver;
 import org.apache.mesos.Protos;
+import org.apache.mesos.elasticsearch.scheduler.cluster.ClusterHealthMonitor;
 import org.apache.mesos.elasticsearch.scheduler.state.ClusterState;
+import org.apache.mesos.elasticsearch.scheduler.state.FileState;
 import org.apache.mesos.elasticsearch.scheduler.state.FrameworkState;
+import org.apache.mesos.elasticsearch.scheduler.state.InMemoryState;
+import org.apache.mesos.elasticsearch.scheduler.state.LocalJournalState;
+import org.apache.mesos.elasticsearch.scheduler.state.SerializableState;
 import org.apache.mesos.elasticsearch.scheduler.state.SerializableZookeeperState;
+import org.apache.mesos.elasticsearch.scheduler.state.WriteBehindState;
 import org.apache.mesos.state.ZooKeeperState;
 import org.springframework.boot.builder.SpringApplicationBuilder;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.HashMap;
 import java.util.concurrent.TimeUnit;
 
@@ -41,21 +49,25 @@ public class Main {
             configuration.setFrameworkFileServerAddress(simpleFileServer.getAddress());
         }
 
-        final SerializableZookeeperState zookeeperStateDriver = new SerializableZookeeperState(new ZooKeeperState(
-                configuration.getMesosStateZKURL(),
-                configuration.getZookeeperCLI().getZookeeperMesosTimeout(),
-                TimeUnit.MILLISECONDS,
-                "/" + configuration.getFrameworkName() + "/" + configuration.getElasticsearchCLI().getElasticsearchClusterName()));
+        final SerializableState stateBackend = createStateBackend();
+        final LocalJournalState journalState = createJournalState(stateBackend);
+        final WriteBehindState zookeeperStateDriver = new WriteBehindState(journalState == null ? stateBackend : journalState);
         final FrameworkState frameworkState = new FrameworkState(zookeeperStateDriver);
         final ClusterState clusterState = new ClusterState(zookeeperStateDriver, frameworkState);
+        frameworkState.attach(clusterState);
+        if (journalState != null) {
+            verifyInBackground(journalState, clusterState);
+        }
         final TaskInfoFactory taskInfoFactory = new TaskInfoFactory(clusterState);
+        final ClusterHealthMonitor healthMonitor = new ClusterHealthMonitor(clusterState, configuration);
+        healthMonitor.start();
 
         final ElasticsearchScheduler scheduler = new ElasticsearchScheduler(
                 configuration,
                 frameworkState,
                 clusterState,
                 taskInfoFactory,
-                configuration.getExternalVolumeDriver() != null && configuration.getExternalVolumeDriver().length() > 0 ? new OfferStrategyExternalStorage(configuration, clusterState) : new OfferStrategyNormal(configuration, clusterState),
+                configuration.getExternalVolumeDriver() != null && configuration.getExternalVolumeDriver().length() > 0 ? new OfferStrategyExternalStorage(configuration, clusterState, healthMonitor) : new OfferStrategyNormal(configuration, clusterState, healthMonitor),
                 zookeeperStateDriver);
 
         FrameworkInfoFactory frameworkInfoFactory = new FrameworkInfoFactory(configuration, frameworkState);
@@ -74,6 +86,11 @@ public class Main {
             public void run() {
                 LOGGER.info("Performing graceful shutdown");
                 scheduler.shutdown(schedulerDriver);
+                healthMonitor.stop();
+                zookeeperStateDriver.close();
+                if (journalState != null) {
+                    journalState.close();
+                }
             }
         });
 
@@ -90,6 +107,55 @@ public class Main {
         scheduler.run(schedulerDriver);
     }
 
+    private SerializableState createStateBackend() {
+        switch (configuration.getFrameworkStateBackend()) { // Validated by Configuration.StateBackendValidator
+            case Configuration.STATE_BACKEND_FILE:
+                LOGGER.warn("Storing framework state in " + configuration.getFrameworkStateDir() + ". Only suitable for single node development setups.");
+                try {
+                    return new FileState(new File(configuration.getFrameworkStateDir()));
+                } catch (IOException e) {
+                    throw new IllegalArgumentException("Unable to use state directory " + configuration.getFrameworkStateDir(), e);
+                }
+            case Configuration.STATE_BACKEND_MEMORY:
+                LOGGER.warn("Storing framework state in memory. It will be lost when the scheduler stops.");
+                final InMemoryState inMemoryState = new InMemoryState();
+                inMemoryState.setLatency(configuration.getFrameworkStateLatency());
+                return inMemoryState;
+            case Configuration.STATE_BACKEND_ZOOKEEPER:
+            default:
+                return new SerializableZookeeperState(new ZooKeeperState(
+                        configuration.getMesosStateZKURL(),
+                        configuration.getZookeeperCLI().getZookeeperMesosTimeout(),
+                        TimeUnit.MILLISECONDS,
+                        "/" + configuration.getFrameworkName() + "/" + configuration.getElasticsearchCLI().getElasticsearchClusterName()));
+        }
+    }
+
+    private LocalJournalState createJournalState(SerializableState stateBackend) {
+        if (configuration.getFrameworkStateJournalDir().isEmpty()) {
+            return null;
+        }
+        try {
+            return new LocalJournalState(stateBackend, new File(configuration.getFrameworkStateJournalDir()));
+        } catch (IOException e) {
+            LOGGER.error("Unable to open local state journal. Reading state from zookeeper only.", e);
+            return null;
+        }
+    }
+
+    /**
+     * The local copy is used straight away. Check it against zookeeper off the startup path, and reload if it was stale.
+     */
+    private void verifyInBackground(LocalJournalState journalState, ClusterState clusterState) {
+        final Thread verifier = new Thread(() -> {
+            if (journalState.verify()) {
+                clusterState.reload();
+            }
+        }, "state-journal-verify");
+        verifier.setDaemon(true);
+        verifier.start();
+    }
+
     private void checkEnv() {
         checkHeap(env.getJavaHeap());
     }
@@ -0,0 +1,128 @@
+package org.apache.mesos.elasticsearch.scheduler;
+
+import org.apache.mesos.Protos;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.Properties;
+
+/**
+ * A group of nodes with the same resources and Elasticsearch roles.
+ *
+ * The data group always exists: its size is the configured number of nodes, and it is the group that is scaled. Its
+ * nodes are master eligible unless there are dedicated masters. Dedicated masters hold no data, so elections and
+ * cluster state updates do not compete with indexing and searches for heap and CPU. Client nodes hold no data and are
+ * not master eligible. They route requests and merge search results.
+ *
+ * Groups are read from the configuration each time, because the number of data nodes may change at runtime.
+ */
+public class NodeGroup {
+    public static final String MASTER = "master";
+    public static final String DATA = "data";
+    public static final String CLIENT = "client";
+    public static final String DATA_KEY = "nodeGroup"; // The group of a task, in its data
+
+    private final String name;
+    private final int count;
+    private final double cpus;
+    private final double mem;
+    private final double disk;
+    private final boolean master;
+    private final boolean data;
+
+    public NodeGroup(String name, int count, double cpus, double mem, double disk, boolean master, boolean data) {
+        this.name = name;
+        this.count = count;
+        this.cpus = cpus;
+        this.mem = mem;
+        this.disk = disk;
+        this.master = master;
+        this.data = data;
+    }
+
+    /**
+     * @return the groups with nodes, masters first, so that they are placed before the nodes that need a quorum of
+     * them to join. The data group is always included.
+     */
+    public static List<NodeGroup> all(Configuration configuration) {
+        final List<NodeGroup> groups = new ArrayList<>();
+        if (configuration.getMasterNodes() > 0) {
+            groups.add(new NodeGroup(MASTER, configuration.getMasterNodes(), configuration.getMasterCpus(), configuration.getMasterMem(), configuration.getMasterDisk(), true, false));
+        }
+        groups.add(data(configuration));
+        if (configuration.getClientNodes() > 0) {
+            groups.add(new NodeGroup(CLIENT, configuration.getClientNodes(), configuration.getClientCpus(), configuration.getClientMem(), configuration.getClientDisk(), false, false));
+        }
+        return groups;
+    }
+
+    public static NodeGroup data(Configuration configuration) {
+        return new NodeGroup(DATA, configuration.getElasticsearchNodes(), configuration.getCpus(), configuration.getMem(), configuration.getDisk(), configuration.getMasterNodes() == 0, true);
+    }
+
+    public static Optional<NodeGroup> named(Configuration configuration, String name) {
+        return all(configuration).stream().filter(group -> group.getName().equals(name)).findFirst();
+    }
+
+    /**
+     * @return the number of nodes in all groups.
+     */
+    public static int totalNodes(Configuration configuration) {
+        return all(configuration).stream().mapToInt(NodeGroup::getCount).sum();
+    }
+
+    /**
+     * @return a quorum of the dedicated masters. Without them every data node is needed, as before node groups.
+     */
+    public static int minimumMasterNodes(Configuration configuration) {
+        return configuration.getMasterNodes() > 0 ? configuration.getMasterNodes() / 2 + 1 : configuration.getElasticsearchNodes();
+    }
+
+    /**
+     * @return the group recorded in the data of the task. Tasks launched before node groups existed are data nodes.
+     */
+    public static String nameOf(Protos.TaskInfo taskInfo) {
+        final Properties data = new Properties();
+        try {
+            data.load(taskInfo.getData().newInput());
+        } catch (IOException e) {
+            return DATA;
+        }
+        return data.getProperty(DATA_KEY, DATA);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    public double getCpus() {
+        return cpus;
+    }
+
+    public double getMem() {
+        return mem;
+    }
+
+    public double getDisk() {
+        return disk;
+    }
+
+    public boolean isMaster() {
+        return master;
+    }
+
+    public boolean isData() {
+        return data;
+    }
+
+    @Override
+    public String toString() {
+        return name + "[" + count + " nodes]";
+    }
+}
@@ -0,0 +1,214 @@
+package org.apache.mesos.elasticsearch.scheduler;
+
+import org.apache.mesos.Protos;
+import org.apache.mesos.elasticsearch.scheduler.state.ClusterState;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * The cluster as seen by one batch of offers. It is taken from the cluster state once per resourceOffers call, and
+ * every offer in the batch is evaluated against it. Offers placed during the batch are added to it, so two offers in
+ * the same batch can not both take the last place in the cluster, or the same host.
+ *
+ * It also holds the slaves that still have the data of a recently failed node, so that the places those nodes left are
+ * kept for them until the relaunch grace period is over, and the attributes of every node for placement constraints.
+ * The size of the cluster is counted per {@link NodeGroup}.
+ *
+ * Only used on the Mesos driver callback thread, so not thread safe.
+ */
+public class OfferContext {
+    private final Map<String, Integer> targetSizes; // Of each node group
+    private final Map<String, Integer> groupSizes = new HashMap<>(); // Including nodes placed in this batch
+    private final String frameworkRole;
+    private final List<Protos.TaskInfo> tasks;
+    private final Set<Protos.SlaveID> occupiedSlaves = new HashSet<>();
+    private final Set<String> occupiedHostnames = new HashSet<>();
+    private final Set<Protos.SlaveID> lostDataLocations;
+    private final Map<Protos.Offer, OfferResources> resources = new IdentityHashMap<>();
+    private final List<Map<String, String>> nodeAttributes = new ArrayList<>(); // Including nodes placed in this batch
+    private final Map<Protos.Offer, Map<String, String>> offerAttributes = new IdentityHashMap<>();
+
+    public OfferContext(List<Protos.TaskInfo> tasks, int targetSize) {
+        this(tasks, targetSize, OfferResources.UNRESERVED_ROLE);
+    }
+
+    public OfferContext(List<Protos.TaskInfo> tasks, int targetSize, String frameworkRole) {
+        this(tasks, targetSize, frameworkRole, Collections.emptySet());
+    }
+
+    public OfferContext(List<Protos.TaskInfo> tasks, int targetSize, String frameworkRole, Set<Protos.SlaveID> lostDataLocations) {
+        this(tasks, Collections.singletonMap(NodeGroup.DATA, targetSize), frameworkRole, lostDataLocations);
+    }
+
+    /**
+     * @param targetSizes the configured number of nodes of each node group, in the order groups are filled.
+     */
+    public OfferContext(List<Protos.TaskInfo> tasks, Map<String, Integer> targetSizes, String frameworkRole, Set<Protos.SlaveID> lostDataLocations) {
+        this.tasks = Collections.unmodifiableList(tasks);
+        this.lostDataLocations = new HashSet<>(lostDataLocations);
+        this.targetSizes = new LinkedHashMap<>(targetSizes);
+        this.frameworkRole = frameworkRole;
+        tasks.forEach(taskInfo -> {
+            final Properties data = data(taskInfo);
+            groupSizes.merge(data.getProperty(NodeGroup.DATA_KEY, NodeGroup.DATA), 1, Integer::sum);
+            occupiedSlaves.add(taskInfo.getSlaveId());
+            final Map<String, String> attributes = attributes(data);
+            if (attributes.containsKey(Constraint.HOSTNAME)) {
+                occupiedHostnames.add(attributes.get(Constraint.HOSTNAME));
+            }
+            nodeAttributes.add(attributes);
+        });
+    }
+
+    public static OfferContext of(ClusterState clusterState, Configuration configuration) {
+        final String externalVolumeDriver = configuration.getExternalVolumeDriver();
+        final boolean dataOnHost = externalVolumeDriver == null || externalVolumeDriver.isEmpty(); // External volumes follow the node to any host
+        final Set<Protos.SlaveID> lostDataLocations = dataOnHost && configuration.getRelaunchGracePeriod() > 0
+                ? clusterState.getLostDataLocations(System.currentTimeMillis() - configuration.getRelaunchGracePeriod())
+                : Collections.emptySet();
+        final Map<String, Integer> targetSizes = new LinkedHashMap<>();
+        NodeGroup.all(configuration).forEach(group -> targetSizes.put(group.getName(), group.getCount()));
+        return new OfferContext(clusterState.getTaskList(), targetSizes, configuration.getFrameworkRole(), lostDataLocations);
+    }
+
+    /**
+     * @return the tasks in the cluster when the batch started.
+     */
+    public List<Protos.TaskInfo> getTasks() {
+        return tasks;
+    }
+
+    /**
+     * @return the parsed resources of the offer. Each offer in the batch is parsed only once, however many rules look
+     * at it.
+     */
+    public OfferResources resourcesOf(Protos.Offer offer) {
+        return resources.computeIfAbsent(offer, key -> OfferResources.of(key, frameworkRole));
+    }
+
+    /**
+     * @return the attributes of the offer, as used by constraints. Offers seen this way count as known values of
+     * their attributes.
+     */
+    public Map<String, String> attributesOf(Protos.Offer offer) {
+        return offerAttributes.computeIfAbsent(offer, Constraint::attributesOf);
+    }
+
+    /**
+     * @return the number of nodes on each value of the attribute. Nodes without the attribute are not counted.
+     */
+    public Map<String, Integer> countNodesBy(String attribute) {
+        final Map<String, Integer> counts = new HashMap<>();
+        nodeAttributes.stream().filter(attributes -> attributes.containsKey(attribute)).forEach(attributes -> counts.merge(attributes.get(attribute), 1, Integer::sum));
+        return counts;
+    }
+
+    /**
+     * @return every known value of the attribute: those of the nodes, and of the offers seen in this batch.
+     */
+    public Set<String> valuesOf(String attribute) {
+        final Set<String> values = new HashSet<>(countNodesBy(attribute).keySet());
+        offerAttributes.values().stream().filter(attributes -> attributes.containsKey(attribute)).forEach(attributes -> values.add(attributes.get(attribute)));
+        return values;
+    }
+
+    public boolean isSlaveOccupied(Protos.SlaveID slaveID) {
+        return occupiedSlaves.contains(slaveID);
+    }
+
+    public boolean isHostnameOccupied(String hostname) {
+        return occupiedHostnames.contains(hostname);
+    }
+
+    /**
+     * @return true if the slave holds the data of a failed node that has not been replaced yet.
+     */
+    public boolean holdsLostData(Protos.SlaveID slaveID) {
+        return lostDataLocations.contains(slaveID);
+    }
+
+    /**
+     * @return the number of failed nodes whose places are kept for a relaunch on the slave holding their data.
+     */
+    public int getAwaitedRelaunches() {
+        return Math.min(lostDataLocations.size(), getRemainingCapacity());
+    }
+
+    /**
+     * @return the number of tasks that can still be launched before the cluster reaches its configured size.
+     */
+    public int getRemainingCapacity() {
+        return targetSizes.keySet().stream().mapToInt(this::getRemainingCapacity).sum();
+    }
+
+    /**
+     * @return the number of tasks of the node group that can still be launched.
+     */
+    public int getRemainingCapacity(String nodeGroup) {
+        return Math.max(0, targetSizes.getOrDefault(nodeGroup, 0) - groupSizes.getOrDefault(nodeGroup, 0));
+    }
+
+    /**
+     * @return the node groups that have places left, in the order they are filled.
+     */
+    public List<String> getGroupsWithPlaces() {
+        return targetSizes.keySet().stream().filter(group -> getRemainingCapacity(group) > 0).collect(Collectors.toList());
+    }
+
+    /**
+     * Records that a task of the first group with places left will be launched on this offer.
+     */
+    public void place(Protos.Offer offer) {
+        place(offer, getGroupsWithPlaces().stream().findFirst().orElse(NodeGroup.DATA));
+    }
+
+    /**
+     * Records that a task of the node group will be launched on this offer.
+     */
+    public void place(Protos.Offer offer, String nodeGroup) {
+        occupiedSlaves.add(offer.getSlaveId());
+        occupiedHostnames.add(offer.getHostname());
+        lostDataLocations.remove(offer.getSlaveId());
+        nodeAttributes.add(attributesOf(offer));
+        groupSizes.merge(nodeGroup, 1, Integer::sum);
+    }
+
+    /**
+     * @return the data of the task, or no properties if it can not be read.
+     */
+    private static Properties data(Protos.TaskInfo taskInfo) {
+        final Properties data = new Properties();
+        try {
+            data.load(taskInfo.getData().newInput());
+        } catch (IOException e) {
+            return new Properties();
+        }
+        return data;
+    }
+
+    /**
+     * @return the attributes of the offer the task was launched on, as recorded in its data.
+     */
+    private static Map<String, String> attributes(Properties data) {
+        final Map<String, String> attributes = new HashMap<>();
+        data.stringPropertyNames().stream()
+                .filter(name -> name.startsWith(TaskInfoFactory.DATA_ATTRIBUTE_PREFIX))
+                .forEach(name -> attributes.put(name.substring(TaskInfoFactory.DATA_ATTRIBUTE_PREFIX.length()), data.getProperty(name)));
+        final String hostname = data.getProperty("hostname", "");
+        if (!hostname.isEmpty()) {
+            attributes.put(Constraint.HOSTNAME, hostname);
+        }
+        return attributes;
+    }
+}
@@ -0,0 +1,92 @@
+package org.apache.mesos.elasticsearch.scheduler;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts offer decisions, by decline reason, and keeps a histogram of how long each offer evaluation took.
+ *
+ * Recording is lock free, so it can be called on the Mesos driver callback thread while the metrics endpoint reads.
+ */
+public class OfferMetrics {
+    /**
+     * Upper bounds of the latency buckets, in microseconds. The last bucket has no upper bound.
+     */
+    static final long[] BUCKET_BOUNDS_MICROS = {10, 50, 100, 500, 1000, 5000, 10000, 50000, 100000, 500000, 1000000};
+
+    private final LongAdder accepted = new LongAdder();
+    private final Map<String, LongAdder> declined = new ConcurrentHashMap<>();
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_BOUNDS_MICROS.length + 1);
+    private final LongAdder evaluations = new LongAdder();
+    private final LongAdder totalNanos = new LongAdder();
+    private final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0);
+
+    public void recordAccepted() {
+        accepted.increment();
+    }
+
+    public void recordDeclined(String reason) {
+        declined.computeIfAbsent(reason, key -> new LongAdder()).increment();
+    }
+
+    public void recordEvaluation(long nanos) {
+        buckets.incrementAndGet(bucket(TimeUnit.NANOSECONDS.toMicros(nanos)));
+        evaluations.increment();
+        totalNanos.add(nanos);
+        maxNanos.accumulate(nanos);
+    }
+
+    private static int bucket(long micros) {
+        for (int i = 0; i < BUCKET_BOUNDS_MICROS.length; i++) {
+            if (micros <= BUCKET_BOUNDS_MICROS[i]) {
+                return i;
+            }
+        }
+        return BUCKET_BOUNDS_MICROS.length;
+    }
+
+    public long getAccepted() {
+        return accepted.sum();
+    }
+
+    /**
+     * @return the number of declined offers for each decline reason, sorted by reason.
+     */
+    public Map<String, Long> getDeclined() {
+        final Map<String, Long> result = new TreeMap<>();
+        declined.forEach((reason, count) -> result.put(reason, count.sum()));
+        return Collections.unmodifiableMap(result);
+    }
+
+    public long getEvaluations() {
+        return evaluations.sum();
+    }
+
+    public double getMeanEvaluationMicros() {
+        final long count = evaluations.sum();
+        return count == 0 ? 0 : totalNanos.sum() / 1000.0 / count;
+    }
+
+    public long getMaxEvaluationMicros() {
+        return TimeUnit.NANOSECONDS.toMicros(maxNanos.get());
+    }
+
+    /**
+     * @return the number of evaluations in each latency bucket, keyed by the bucket's upper bound, e.g. "le_100us".
+     */
+    public Map<String, Long> getEvaluationHistogram() {
+        final Map<String, Long> result = new LinkedHashMap<>();
+        for (int i = 0; i < BUCKET_BOUNDS_MICROS.length; i++) {
+            result.put("le_" + BUCKET_BOUNDS_MICROS[i] + "us", buckets.get(i));
+        }
+        result.put("gt_" + BUCKET_BOUNDS_MICROS[BUCKET_BOUNDS_MICROS.length - 1] + "us", buckets.get(BUCKET_BOUNDS_MICROS.length));
+        return Collections.unmodifiableMap(result);
+    }
+}
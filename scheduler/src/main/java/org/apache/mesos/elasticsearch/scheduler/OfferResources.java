@@ -0,0 +1,187 @@
+package org.apache.mesos.elasticsearch.scheduler;
+
+import org.apache.mesos.Protos;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Optional;
+import java.util.TreeMap;
+
+/**
+ * The resources of one offer that the framework may use, parsed once. These are the resources reserved for the
+ * framework role and the unreserved ("*") resources. Scalars are summed per name and role, and port ranges are kept as
+ * a sorted set of disjoint intervals, so checking a port is a single tree lookup instead of a scan of every resource.
+ *
+ * When resources are taken for a task, reserved resources are used before unreserved ones, so that reservations made
+ * for Elasticsearch are not left idle while unreserved resources are taken from other frameworks. Persistent volumes
+ * are not counted as disk, because they can only be used whole, by the task they were created for.
+ */
+public class OfferResources {
+    public static final String UNRESERVED_ROLE = "*";
+
+    private final List<String> roles; // In order of preference
+    private final Map<String, Map<String, Double>> scalars = new HashMap<>();
+    private final NavigableMap<Long, PortInterval> ports = new TreeMap<>();
+    private final Map<String, Protos.Resource.ReservationInfo> reservations = new HashMap<>(); // Role -> dynamic reservation
+    private final Map<String, Protos.Resource> volumes = new HashMap<>(); // Persistence ID -> persistent volume
+
+    public OfferResources(List<Protos.Resource> resources, String frameworkRole) {
+        this.roles = UNRESERVED_ROLE.equals(frameworkRole) ? Collections.singletonList(UNRESERVED_ROLE) : Collections.unmodifiableList(Arrays.asList(frameworkRole, UNRESERVED_ROLE));
+        for (Protos.Resource resource : resources) {
+            if (!roles.contains(resource.getRole())) {
+                continue; // Not ours to use
+            }
+            if (resource.hasDisk() && resource.getDisk().hasPersistence()) {
+                volumes.put(resource.getDisk().getPersistence().getId(), resource); // Only usable as a whole
+            } else if (resource.getType() == Protos.Value.Type.SCALAR) {
+                if (resource.hasReservation()) {
+                    reservations.putIfAbsent(resource.getRole(), resource.getReservation());
+                }
+                scalars.computeIfAbsent(resource.getName(), name -> new HashMap<>())
+                        .merge(resource.getRole(), resource.getScalar().getValue(), Double::sum);
+            } else if (resource.getType() == Protos.Value.Type.RANGES && Resources.RESOURCE_PORTS.equals(resource.getName())) {
+                resource.getRanges().getRangeList().forEach(range -> addPorts(range.getBegin(), range.getEnd(), resource.getRole()));
+            }
+        }
+    }
+
+    public static OfferResources of(Protos.Offer offer, String frameworkRole) {
+        return new OfferResources(offer.getResourcesList(), frameworkRole);
+    }
+
+    private void addPorts(long begin, long end, String role) {
+        if (end < begin) {
+            return;
+        }
+        // Merge with any interval of the same role that overlaps or touches [begin, end]
+        final Map.Entry<Long, PortInterval> before = ports.floorEntry(begin);
+        if (before != null && before.getValue().role.equals(role) && before.getValue().end >= begin - 1) {
+            begin = before.getKey();
+            end = Math.max(end, before.getValue().end);
+        }
+        Map.Entry<Long, PortInterval> next = ports.ceilingEntry(begin);
+        while (next != null && next.getValue().role.equals(role) && next.getKey() <= end + 1) {
+            end = Math.max(end, next.getValue().end);
+            ports.remove(next.getKey());
+            next = ports.ceilingEntry(begin);
+        }
+        ports.put(begin, new PortInterval(end, role));
+    }
+
+    /**
+     * @return the total of the named scalar resource, across all roles the framework may use.
+     */
+    public double getScalar(String name) {
+        return scalars.getOrDefault(name, Collections.emptyMap()).values().stream().mapToDouble(Double::doubleValue).sum();
+    }
+
+    /**
+     * @return the amount of the named scalar resource offered under the given role.
+     */
+    public double getScalar(String name, String role) {
+        return scalars.getOrDefault(name, Collections.emptyMap()).getOrDefault(role, 0.0);
+    }
+
+    public boolean isEnough(String name, double required) {
+        return getScalar(name) >= required;
+    }
+
+    public boolean isPortAvailable(long port) {
+        return intervalOf(port) != null;
+    }
+
+    private PortInterval intervalOf(long port) {
+        final Map.Entry<Long, PortInterval> interval = ports.floorEntry(port);
+        return interval != null && port <= interval.getValue().end ? interval.getValue() : null;
+    }
+
+    /**
+     * @return the lowest offered ports that are not excluded, at most count of them.
+     */
+    public List<Integer> selectPorts(int count, Collection<Integer> excluded) {
+        final List<Integer> selected = new ArrayList<>(count);
+        for (Map.Entry<Long, PortInterval> interval : ports.entrySet()) {
+            for (long port = interval.getKey(); port <= interval.getValue().end && selected.size() < count; port++) {
+                if (!excluded.contains((int) port)) {
+                    selected.add((int) port);
+                }
+            }
+            if (selected.size() == count) {
+                break;
+            }
+        }
+        return selected;
+    }
+
+    public List<Integer> selectPorts(int count) {
+        return selectPorts(count, Collections.emptySet());
+    }
+
+    /**
+     * Splits the required amount of a scalar resource over the roles it is offered under, reserved role first.
+     * @return one resource per role used. If the offer does not have enough, the shortfall is asked of the preferred
+     * role, and Mesos will refuse the task.
+     */
+    public List<Protos.Resource> take(String name, double required) {
+        final Map<String, Double> taken = new LinkedHashMap<>();
+        double remaining = required;
+        for (String role : roles) {
+            final double amount = Math.min(remaining, getScalar(name, role));
+            if (amount > 0) {
+                taken.put(role, amount);
+                remaining -= amount;
+            }
+        }
+        if (remaining > 0 || taken.isEmpty()) {
+            taken.merge(roles.get(0), remaining, Double::sum);
+        }
+        final List<Protos.Resource> resources = new ArrayList<>(taken.size());
+        taken.forEach((role, amount) -> {
+            final Protos.Resource.Builder resource = Protos.Resource.newBuilder()
+                    .setName(name)
+                    .setType(Protos.Value.Type.SCALAR)
+                    .setScalar(Protos.Value.Scalar.newBuilder().setValue(amount))
+                    .setRole(role);
+            if (reservations.containsKey(role)) {
+                resource.setReservation(reservations.get(role)); // Dynamically reserved resources must be asked for with their reservation
+            }
+            resources.add(resource.build());
+        });
+        return resources;
+    }
+
+    /**
+     * @return the persistent volume with the given persistence ID, if it is in the offer.
+     */
+    public Optional<Protos.Resource> getVolume(String persistenceId) {
+        return Optional.ofNullable(volumes.get(persistenceId));
+    }
+
+    /**
+     * @return the port as a resource of the role it was offered under.
+     */
+    public Protos.Resource takePort(int port) {
+        final PortInterval interval = intervalOf(port);
+        return Resources.singlePortRange(port, interval != null ? interval.role : roles.get(0));
+    }
+
+    /**
+     * The end of a port interval, and the role its ports are offered under.
+     */
+    private static class PortInterval {
+        private final long end;
+        private final String role;
+
+        PortInterval(long end, String role) {
+            this.end = end;
+            this.role = role;
+        }
+    }
+}
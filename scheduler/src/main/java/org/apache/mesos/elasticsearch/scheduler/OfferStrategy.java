@@ -1,16 +1,15 @@
 package org.apache.mesos.elasticsearch.scheduler;
 
-import com.mashape.unirest.http.Unirest;
-import com.mashape.unirest.http.exceptions.UnirestException;
 import org.apache.log4j.Logger;
 import org.apache.mesos.Protos;
-import org.apache.mesos.elasticsearch.common.util.NetworkUtils;
+import org.apache.mesos.elasticsearch.scheduler.cluster.ClusterHealthMonitor;
 import org.apache.mesos.elasticsearch.scheduler.state.ClusterState;
 
 import java.net.InetSocketAddress;
+import java.util.ArrayList;
 import java.util.List;
-import java.util.Map;
 import java.util.Optional;
+import java.util.stream.Collectors;
 
 /**
  * Offer strategy
@@ -18,8 +17,30 @@ import java.util.Optional;
 public class OfferStrategy {
     protected static final Logger LOGGER = Logger.getLogger(ElasticsearchScheduler.class.toString());
     public static final int DUMMY_PORT = 80;
+    /**
+     * Decline reason for hosts that already run a node of this cluster.
+     */
+    public static final String HOST_ALREADY_RUNNING_TASK = "Host already running task";
+    /**
+     * Decline reason for offers received while the cluster has all its nodes.
+     */
+    public static final String CLUSTER_SIZE_FULFILLED = "Cluster size already fulfilled";
+    /**
+     * Decline reason that says nothing about the offered host, so the offer should come back soon.
+     */
+    public static final String FIRST_NODE_NOT_RESPONDING = "First ES node is not responding";
+    /**
+     * Decline reason for hosts that must wait until failed nodes have had the chance to return to their data.
+     */
+    public static final String AWAITING_LOST_DATA_HOST = "Remaining places are kept for failed nodes to return to their data";
+    /**
+     * Decline reason for offers that have enough of each resource for some node group, but not all of them for one.
+     */
+    public static final String NO_NODE_GROUP_FITS = "Offer does not fit a node group with places left";
     protected ClusterState clusterState;
     protected Configuration configuration;
+    protected ClusterHealthMonitor healthMonitor;
+    protected PersistentVolumes persistentVolumes;
 
     protected List<OfferRule> acceptanceRules = null;
 
@@ -29,33 +50,27 @@ public class OfferStrategy {
         return !address.isUnresolved();
     }
 
-    protected boolean isAtLeastOneESNodeRunning() {
+    protected boolean isAtLeastOneESNodeRunning(OfferContext context) {
         // If this is the first, do not check
-        final Map<String, Task> taskList = clusterState.getGuiTaskList();
-        if (taskList.size() == 0) {
-            return true;
-        } else {
-            try {
-                // TODO (PNW): Better get HTTP address method. We do this everywhere.
-                InetSocketAddress clientAddress = taskList.get(clusterState.getTaskList().get(0).getTaskId().getValue()).getClientAddress();
-                String hostAddress = NetworkUtils.addressToString(clientAddress, configuration.getIsUseIpAddress());
-                final int hostHttpStatus = Unirest.get(hostAddress).asString().getStatus();
-                // If the quorum requirement is set higher than the number of nodes running,
-                // we will get back a 503.
-                return hostHttpStatus == 200 || hostHttpStatus == 503;
-            } catch (UnirestException e) {
-                return false;
-            }
-        }
+        return context.getTasks().isEmpty() || healthMonitor.isFirstNodeResponding();
     }
 
-    protected OfferStrategy(Configuration configuration, ClusterState clusterState) {
+    protected OfferStrategy(Configuration configuration, ClusterState clusterState, ClusterHealthMonitor healthMonitor) {
         this.clusterState = clusterState;
         this.configuration = configuration;
+        this.healthMonitor = healthMonitor;
+        this.persistentVolumes = new PersistentVolumes(configuration);
     }
 
     protected OfferResult evaluate(Protos.Offer offer) {
-        final Optional<OfferRule> decline = acceptanceRules.stream().filter(offerRule -> offerRule.rule.accepts(offer)).limit(1).findFirst();
+        return evaluate(OfferContext.of(clusterState, configuration), offer);
+    }
+
+    /**
+     * Evaluate an offer against a snapshot of the cluster that is shared by a batch of offers.
+     */
+    protected OfferResult evaluate(OfferContext context, Protos.Offer offer) {
+        final Optional<OfferRule> decline = acceptanceRules.stream().filter(offerRule -> offerRule.rule.accepts(context, offer)).limit(1).findFirst();
         if (decline.isPresent()) {
             return OfferResult.decline(decline.get().declineReason);
         }
@@ -85,36 +100,91 @@ public class OfferStrategy {
         }
     }
 
-    protected boolean isHostAlreadyRunningTask(Protos.Offer offer) {
-        Boolean result = false;
-        List<Protos.TaskInfo> stateList = clusterState.getTaskList();
-        for (Protos.TaskInfo t : stateList) {
-            if (t.getSlaveId().equals(offer.getSlaveId())) {
-                result = true;
-            }
-        }
-        return result;
+    protected boolean isHostAlreadyRunningTask(OfferContext context, Protos.Offer offer) {
+        return context.isSlaveOccupied(offer.getSlaveId()) || context.isHostnameOccupied(offer.getHostname());
     }
 
-    protected boolean isEnoughCPU(Configuration configuration, List<Protos.Resource> resourcesList) {
-        return new ResourceCheck(Resources.RESOURCE_CPUS).isEnough(resourcesList, configuration.getCpus());
+    protected boolean isClusterSizeFulfilled(OfferContext context) {
+        return context.getRemainingCapacity() <= 0;
     }
 
-    protected boolean isEnoughRAM(Configuration configuration, List<Protos.Resource> resourcesList) {
-        return new ResourceCheck(Resources.RESOURCE_MEM).isEnough(resourcesList, configuration.getMem());
+    /**
+     * @return true if the offer is not from a slave holding the data of a failed node, and every remaining place in the
+     * cluster is kept for a failed node to return to its data.
+     */
+    protected boolean isKeptForLostData(OfferContext context, Protos.Offer offer) {
+        return !context.holdsLostData(offer.getSlaveId()) && context.getAwaitedRelaunches() > 0
+                && context.getRemainingCapacity() <= context.getAwaitedRelaunches();
     }
 
-    protected boolean containsTwoPorts(List<Protos.Resource> resources) {
-        return Resources.selectTwoPortsFromRange(resources).size() == 2;
+    /**
+     * @return the rules, followed by one rule for each configured placement constraint.
+     */
+    protected List<OfferRule> withConstraints(List<OfferRule> rules) {
+        final List<OfferRule> all = new ArrayList<>(rules);
+        configuration.getConstraints().forEach(constraint -> all.add(new OfferRule(declineReason(constraint), (context, offer) -> !constraint.isSatisfied(context, offer))));
+        return all;
     }
 
-    protected boolean containsUserSpecifiedPorts(List<Protos.Resource> resourcesList) {
+    /**
+     * @return the first placement constraint that a node on this offer would break, given the nodes in the context.
+     */
+    protected Optional<Constraint> brokenConstraint(OfferContext context, Protos.Offer offer) {
+        return configuration.getConstraints().stream().filter(constraint -> !constraint.isSatisfied(context, offer)).findFirst();
+    }
+
+    public static String declineReason(Constraint constraint) {
+        return "Offer does not satisfy constraint " + constraint;
+    }
+
+    /**
+     * @return the first node group with places left that the offer has the resources for.
+     */
+    protected Optional<NodeGroup> groupFor(OfferContext context, Protos.Offer offer) {
+        return groupsWithPlaces(context).stream().filter(group -> fits(context, offer, group)).findFirst();
+    }
+
+    protected List<NodeGroup> groupsWithPlaces(OfferContext context) {
+        final List<String> names = context.getGroupsWithPlaces();
+        return NodeGroup.all(configuration).stream().filter(group -> names.contains(group.getName())).collect(Collectors.toList());
+    }
+
+    protected boolean fits(OfferContext context, Protos.Offer offer, NodeGroup group) {
+        final OfferResources resources = context.resourcesOf(offer);
+        return resources.isEnough(Resources.RESOURCE_CPUS, group.getCpus())
+                && resources.isEnough(Resources.RESOURCE_MEM, group.getMem())
+                && isEnoughDisk(context, offer, group);
+    }
+
+    protected boolean isEnoughCPU(OfferContext context, Protos.Offer offer) {
+        return groupsWithPlaces(context).stream().anyMatch(group -> context.resourcesOf(offer).isEnough(Resources.RESOURCE_CPUS, group.getCpus()));
+    }
+
+    protected boolean isEnoughRAM(OfferContext context, Protos.Offer offer) {
+        return groupsWithPlaces(context).stream().anyMatch(group -> context.resourcesOf(offer).isEnough(Resources.RESOURCE_MEM, group.getMem()));
+    }
+
+    protected boolean isEnoughDisk(OfferContext context, Protos.Offer offer) {
+        return groupsWithPlaces(context).stream().anyMatch(group -> isEnoughDisk(context, offer, group));
+    }
+
+    protected boolean isEnoughDisk(OfferContext context, Protos.Offer offer, NodeGroup group) {
+        final OfferResources resources = context.resourcesOf(offer);
+        if (persistentVolumes.isEnabled()) {
+            return persistentVolumes.canPlaceVolume(resources, offer.getSlaveId());
+        }
+        return resources.isEnough(Resources.RESOURCE_DISK, group.getDisk());
+    }
+
+    protected boolean containsTwoPorts(OfferResources resources) {
+        return resources.selectPorts(2).size() == 2;
+    }
+
+    protected boolean containsUserSpecifiedPorts(OfferResources resources) {
         // If there are user specified ports, check each port is contained within the offer
-        if (!configuration.getElasticsearchPorts().isEmpty()) {
-            for (Integer port : configuration.getElasticsearchPorts()) {
-                if (!Resources.isPortAvailable(resourcesList, port)) {
-                    return false;
-                }
+        for (Integer port : configuration.getElasticsearchPorts()) {
+            if (port != 0 && !resources.isPortAvailable(port)) {
+                return false;
             }
         }
         return true;
@@ -138,6 +208,6 @@ public class OfferStrategy {
      */
     @FunctionalInterface
     protected interface Rule {
-        boolean accepts(Protos.Offer offer);
+        boolean accepts(OfferContext context, Protos.Offer offer);
     }
 }
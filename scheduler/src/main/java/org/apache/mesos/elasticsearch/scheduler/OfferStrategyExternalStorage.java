@@ -1,5 +1,7 @@
 package org.apache.mesos.elasticsearch.scheduler;
 
+import org.apache.mesos.Protos;
+import org.apache.mesos.elasticsearch.scheduler.cluster.ClusterHealthMonitor;
 import org.apache.mesos.elasticsearch.scheduler.state.ClusterState;
 
 import static java.util.Arrays.asList;
@@ -11,19 +13,25 @@ import static java.util.Arrays.asList;
  */
 public class OfferStrategyExternalStorage extends OfferStrategy {
 
-    public OfferStrategyExternalStorage(Configuration configuration, ClusterState clusterState) {
-        super(configuration, clusterState);
+    public OfferStrategyExternalStorage(Configuration configuration, ClusterState clusterState, ClusterHealthMonitor healthMonitor) {
+        super(configuration, clusterState, healthMonitor);
 
-        acceptanceRules = asList(
-                new OfferRule("Host already running task", this::isHostAlreadyRunningTask),
-                new OfferRule("Hostname is unresolveable", offer -> !isHostnameResolveable(offer.getHostname())),
-                new OfferRule("First ES node is not responding", offer -> !isAtLeastOneESNodeRunning()),
-                new OfferRule("Cluster size already fulfilled", offer -> clusterState.getTaskList().size() >= configuration.getElasticsearchNodes()),
-                new OfferRule("Offer did not have 2 ports", offer -> !containsTwoPorts(offer.getResourcesList())),
-                new OfferRule("The offer does not contain the user specified ports", offer -> !containsUserSpecifiedPorts(offer.getResourcesList())),
-                new OfferRule("Offer did not have enough CPU resources", offer -> !isEnoughCPU(configuration, offer.getResourcesList())),
-                new OfferRule("Offer did not have enough RAM resources", offer -> !isEnoughRAM(configuration, offer.getResourcesList()))
-        );
+        acceptanceRules = withConstraints(asList(
+                new OfferRule(HOST_ALREADY_RUNNING_TASK, this::isHostAlreadyRunningTask),
+                new OfferRule("Hostname is unresolveable", (context, offer) -> !isHostnameResolveable(offer.getHostname())),
+                new OfferRule(FIRST_NODE_NOT_RESPONDING, (context, offer) -> !isAtLeastOneESNodeRunning(context)),
+                new OfferRule(CLUSTER_SIZE_FULFILLED, (context, offer) -> isClusterSizeFulfilled(context)),
+                new OfferRule("Offer did not have 2 ports", (context, offer) -> !containsTwoPorts(context.resourcesOf(offer))),
+                new OfferRule("The offer does not contain the user specified ports", (context, offer) -> !containsUserSpecifiedPorts(context.resourcesOf(offer))),
+                new OfferRule("Offer did not have enough CPU resources", (context, offer) -> !isEnoughCPU(context, offer)),
+                new OfferRule("Offer did not have enough RAM resources", (context, offer) -> !isEnoughRAM(context, offer)),
+                new OfferRule(NO_NODE_GROUP_FITS, (context, offer) -> !groupFor(context, offer).isPresent())
+        ));
+    }
+
+    @Override
+    protected boolean isEnoughDisk(OfferContext context, Protos.Offer offer, NodeGroup group) {
+        return true;
     }
 
 }
@@ -1,10 +1,8 @@
 package org.apache.mesos.elasticsearch.scheduler;
 
-import org.apache.mesos.Protos;
+import org.apache.mesos.elasticsearch.scheduler.cluster.ClusterHealthMonitor;
 import org.apache.mesos.elasticsearch.scheduler.state.ClusterState;
 
-import java.util.List;
-
 import static java.util.Arrays.asList;
 
 /**
@@ -12,24 +10,21 @@ import static java.util.Arrays.asList;
  */
 public class OfferStrategyNormal extends OfferStrategy {
 
-    public OfferStrategyNormal(Configuration configuration, ClusterState clusterState) {
-        super(configuration, clusterState);
-
-        acceptanceRules = asList(
-                new OfferRule("Host already running task", this::isHostAlreadyRunningTask),
-                new OfferRule("Hostname is unresolveable", offer -> !isHostnameResolveable(offer.getHostname())),
-                new OfferRule("First ES node is not responding", offer -> !isAtLeastOneESNodeRunning()),
-                new OfferRule("Cluster size already fulfilled", offer -> clusterState.getTaskList().size() >= configuration.getElasticsearchNodes()),
-                new OfferRule("Offer did not have 2 ports", offer -> !containsTwoPorts(offer.getResourcesList())),
-                new OfferRule("The offer does not contain the user specified ports", offer -> !containsUserSpecifiedPorts(offer.getResourcesList())),
-                new OfferRule("Offer did not have enough CPU resources", offer -> !isEnoughCPU(configuration, offer.getResourcesList())),
-                new OfferRule("Offer did not have enough RAM resources", offer -> !isEnoughRAM(configuration, offer.getResourcesList())),
-                new OfferRule("Offer did not have enough disk resources", offer -> !isEnoughDisk(configuration, offer.getResourcesList()))
-        );
+    public OfferStrategyNormal(Configuration configuration, ClusterState clusterState, ClusterHealthMonitor healthMonitor) {
+        super(configuration, clusterState, healthMonitor);
+
+        acceptanceRules = withConstraints(asList(
+                new OfferRule(HOST_ALREADY_RUNNING_TASK, this::isHostAlreadyRunningTask),
+                new OfferRule("Hostname is unresolveable", (context, offer) -> !isHostnameResolveable(offer.getHostname())),
+                new OfferRule(FIRST_NODE_NOT_RESPONDING, (context, offer) -> !isAtLeastOneESNodeRunning(context)),
+                new OfferRule(CLUSTER_SIZE_FULFILLED, (context, offer) -> isClusterSizeFulfilled(context)),
+                new OfferRule(AWAITING_LOST_DATA_HOST, this::isKeptForLostData),
+                new OfferRule("Offer did not have 2 ports", (context, offer) -> !containsTwoPorts(context.resourcesOf(offer))),
+                new OfferRule("The offer does not contain the user specified ports", (context, offer) -> !containsUserSpecifiedPorts(context.resourcesOf(offer))),
+                new OfferRule("Offer did not have enough CPU resources", (context, offer) -> !isEnoughCPU(context, offer)),
+                new OfferRule("Offer did not have enough RAM resources", (context, offer) -> !isEnoughRAM(context, offer)),
+                new OfferRule("Offer did not have enough disk resources", (context, offer) -> !isEnoughDisk(context, offer)),
+                new OfferRule(NO_NODE_GROUP_FITS, (context, offer) -> !groupFor(context, offer).isPresent())
+        ));
     }
-
-    private boolean isEnoughDisk(Configuration configuration, List<Protos.Resource> resourcesList) {
-        return new ResourceCheck(Resources.RESOURCE_DISK).isEnough(resourcesList, configuration.getDisk());
-    }
-
 }
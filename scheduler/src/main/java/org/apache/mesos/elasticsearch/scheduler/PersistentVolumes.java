@@ -0,0 +1,147 @@
+package org.apache.mesos.elasticsearch.scheduler;
+
+import org.apache.mesos.Protos;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Keeps Elasticsearch data on a persistent volume, so that a node that is restarted on the same slave finds its data
+ * again, instead of recovering every shard over the network.
+ *
+ * The first task on a slave reserves its CPU, RAM and disk for the framework role (RESERVE), creates a volume on the
+ * disk (CREATE) and launches on both, all in one acceptOffers call. Mesos then keeps offering the reserved resources
+ * and the volume to this framework only. Later tasks on that slave launch on the reservation and the existing volume.
+ *
+ * There is one volume per slave, named after the framework, cluster and slave. Volumes and reservations are kept when
+ * a task ends, or when the cluster is scaled down; that is the point of them.
+ */
+public class PersistentVolumes {
+    /**
+     * Where the volume is mounted, relative to the task sandbox.
+     */
+    public static final String VOLUME_PATH = "data";
+    public static final String SANDBOX_IN_CONTAINER = "/mnt/mesos/sandbox";
+
+    private final Configuration configuration;
+
+    public PersistentVolumes(Configuration configuration) {
+        this.configuration = configuration;
+    }
+
+    public boolean isEnabled() {
+        return configuration.isFrameworkUsePersistentVolumes();
+    }
+
+    public String volumeId(Protos.SlaveID slaveID) {
+        return configuration.getFrameworkName() + "_" + configuration.getElasticsearchClusterName() + "_" + slaveID.getValue();
+    }
+
+    public boolean hasVolume(OfferResources offered, Protos.SlaveID slaveID) {
+        return offered.getVolume(volumeId(slaveID)).isPresent();
+    }
+
+    /**
+     * @return true if the slave already has our volume, or if the offer has enough disk of one kind, reserved or
+     * unreserved, to create it. A volume must be created on a single disk resource.
+     */
+    public boolean canPlaceVolume(OfferResources offered, Protos.SlaveID slaveID) {
+        return hasVolume(offered, slaveID)
+                || offered.getScalar(Resources.RESOURCE_DISK, configuration.getFrameworkRole()) >= configuration.getDisk()
+                || offered.getScalar(Resources.RESOURCE_DISK, OfferResources.UNRESERVED_ROLE) >= configuration.getDisk();
+    }
+
+    /**
+     * @return the resources the task runs on: reserved CPU and RAM, and the volume.
+     */
+    public List<Protos.Resource> taskResources(OfferResources offered, Protos.SlaveID slaveID) {
+        final List<Protos.Resource> resources = new ArrayList<>();
+        offered.take(Resources.RESOURCE_CPUS, configuration.getCpus()).forEach(resource -> resources.add(reserved(resource)));
+        offered.take(Resources.RESOURCE_MEM, configuration.getMem()).forEach(resource -> resources.add(reserved(resource)));
+        resources.add(volume(offered, slaveID));
+        return resources;
+    }
+
+    /**
+     * @return the operations that reserve what the task needs, create its volume if the slave does not have it yet,
+     * and launch it.
+     */
+    public List<Protos.Offer.Operation> operations(OfferResources offered, Protos.TaskInfo taskInfo) {
+        final List<Protos.Offer.Operation> operations = new ArrayList<>();
+        final List<Protos.Resource> toReserve = new ArrayList<>();
+        offered.take(Resources.RESOURCE_CPUS, configuration.getCpus()).stream().filter(this::isUnreserved).forEach(resource -> toReserve.add(reserved(resource)));
+        offered.take(Resources.RESOURCE_MEM, configuration.getMem()).stream().filter(this::isUnreserved).forEach(resource -> toReserve.add(reserved(resource)));
+        final boolean createVolume = !hasVolume(offered, taskInfo.getSlaveId());
+        if (createVolume && diskSource(offered).equals(OfferResources.UNRESERVED_ROLE)) {
+            toReserve.add(reserved(disk(OfferResources.UNRESERVED_ROLE, Optional.empty())));
+        }
+        if (!toReserve.isEmpty()) {
+            operations.add(Protos.Offer.Operation.newBuilder()
+                    .setType(Protos.Offer.Operation.Type.RESERVE)
+                    .setReserve(Protos.Offer.Operation.Reserve.newBuilder().addAllResources(toReserve))
+                    .build());
+        }
+        if (createVolume) {
+            operations.add(Protos.Offer.Operation.newBuilder()
+                    .setType(Protos.Offer.Operation.Type.CREATE)
+                    .setCreate(Protos.Offer.Operation.Create.newBuilder().addVolumes(volume(offered, taskInfo.getSlaveId())))
+                    .build());
+        }
+        operations.add(Protos.Offer.Operation.newBuilder()
+                .setType(Protos.Offer.Operation.Type.LAUNCH)
+                .setLaunch(Protos.Offer.Operation.Launch.newBuilder().addAllTaskInfos(Collections.singletonList(taskInfo)))
+                .build());
+        return operations;
+    }
+
+    private Protos.Resource volume(OfferResources offered, Protos.SlaveID slaveID) {
+        final String volumeId = volumeId(slaveID);
+        final Optional<Protos.Resource> existing = offered.getVolume(volumeId);
+        if (existing.isPresent()) {
+            return existing.get();
+        }
+        final String source = diskSource(offered);
+        final Optional<Protos.Resource.ReservationInfo> reservation = source.equals(OfferResources.UNRESERVED_ROLE)
+                ? Optional.of(reservation())
+                : offered.take(Resources.RESOURCE_DISK, configuration.getDisk()).stream().filter(Protos.Resource::hasReservation).map(Protos.Resource::getReservation).findFirst();
+        return Protos.Resource.newBuilder(disk(configuration.getFrameworkRole(), reservation))
+                .setDisk(Protos.Resource.DiskInfo.newBuilder()
+                        .setPersistence(Protos.Resource.DiskInfo.Persistence.newBuilder().setId(volumeId))
+                        .setVolume(Protos.Volume.newBuilder().setContainerPath(VOLUME_PATH).setMode(Protos.Volume.Mode.RW)))
+                .build();
+    }
+
+    /**
+     * @return the role whose disk the volume is created on. Disk already reserved for the framework is used first.
+     */
+    private String diskSource(OfferResources offered) {
+        return offered.getScalar(Resources.RESOURCE_DISK, configuration.getFrameworkRole()) >= configuration.getDisk()
+                ? configuration.getFrameworkRole() : OfferResources.UNRESERVED_ROLE;
+    }
+
+    private Protos.Resource disk(String role, Optional<Protos.Resource.ReservationInfo> reservation) {
+        final Protos.Resource.Builder disk = Protos.Resource.newBuilder(Resources.disk(configuration.getDisk(), role));
+        reservation.ifPresent(disk::setReservation);
+        return disk.build();
+    }
+
+    private boolean isUnreserved(Protos.Resource resource) {
+        return OfferResources.UNRESERVED_ROLE.equals(resource.getRole());
+    }
+
+    private Protos.Resource reserved(Protos.Resource resource) {
+        if (!isUnreserved(resource)) {
+            return resource;
+        }
+        return Protos.Resource.newBuilder(resource)
+                .setRole(configuration.getFrameworkRole())
+                .setReservation(reservation())
+                .build();
+    }
+
+    private Protos.Resource.ReservationInfo reservation() {
+        return Protos.Resource.ReservationInfo.newBuilder().setPrincipal(configuration.getFrameworkPrincipal()).build();
+    }
+}
@@ -0,0 +1,135 @@
+package org.apache.mesos.elasticsearch.scheduler;
+
+import org.apache.mesos.Protos;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Chooses which offers in a batch to launch tasks on. Every offer is checked against the offer rules, then the
+ * acceptable ones are ranked and the best are taken until the cluster reaches its configured size. Each chosen offer
+ * is placed in the {@link OfferContext}, so no two chosen offers share a host or break a placement constraint together.
+ *
+ * Offers from slaves that hold node data come first, so that nodes return to their data: the slaves of recently failed
+ * nodes, and slaves with one of our persistent volumes. While failed nodes may still return, other offers only take the
+ * places that are not kept for them. Then offers are ranked
+ * by their headroom: the smallest ratio of offered to required CPU and RAM, for the node group the offer would be
+ * placed in. Nodes on roomier hosts are less likely to be starved by other frameworks. Offers with equal rank keep the
+ * order Mesos sent them in. Each chosen offer takes a place in the first {@link NodeGroup} with places left that it
+ * has the resources for.
+ */
+public class PlacementPlanner {
+    private final OfferStrategy offerStrategy;
+    private final Configuration configuration;
+    private final OfferMetrics metrics;
+    private final PersistentVolumes persistentVolumes;
+
+    public PlacementPlanner(OfferStrategy offerStrategy, Configuration configuration) {
+        this(offerStrategy, configuration, new OfferMetrics());
+    }
+
+    public PlacementPlanner(OfferStrategy offerStrategy, Configuration configuration, OfferMetrics metrics) {
+        this.offerStrategy = offerStrategy;
+        this.configuration = configuration;
+        this.metrics = metrics;
+        this.persistentVolumes = new PersistentVolumes(configuration);
+    }
+
+    public Plan plan(OfferContext context, List<Protos.Offer> offers) {
+        final Plan plan = new Plan();
+        final List<Protos.Offer> candidates = new ArrayList<>();
+        for (Protos.Offer offer : offers) {
+            final long start = System.nanoTime();
+            final OfferStrategy.OfferResult result = offerStrategy.evaluate(context, offer);
+            metrics.recordEvaluation(System.nanoTime() - start);
+            if (result.acceptable) {
+                candidates.add(offer);
+            } else {
+                decline(plan, offer, result.reason.orElse("Unknown"));
+            }
+        }
+        final Map<Protos.Offer, Double> headrooms = new IdentityHashMap<>();
+        candidates.forEach(offer -> headrooms.put(offer, headroom(context, offer)));
+        candidates.sort(Comparator.comparing((Protos.Offer offer) -> holdsData(context, offer)).reversed()
+                .thenComparing(Comparator.comparingDouble((Protos.Offer offer) -> headrooms.get(offer)).reversed()));
+        for (Protos.Offer offer : candidates) {
+            final Optional<Constraint> brokenConstraint = offerStrategy.brokenConstraint(context, offer); // Nodes placed before may break one
+            if (context.getRemainingCapacity() <= 0) {
+                decline(plan, offer, OfferStrategy.CLUSTER_SIZE_FULFILLED);
+            } else if (offerStrategy.isHostAlreadyRunningTask(context, offer)) {
+                decline(plan, offer, OfferStrategy.HOST_ALREADY_RUNNING_TASK);
+            } else if (offerStrategy.isKeptForLostData(context, offer)) {
+                decline(plan, offer, OfferStrategy.AWAITING_LOST_DATA_HOST);
+            } else if (brokenConstraint.isPresent()) {
+                decline(plan, offer, OfferStrategy.declineReason(brokenConstraint.get()));
+            } else {
+                final Optional<NodeGroup> group = offerStrategy.groupFor(context, offer); // Nodes placed before may have filled its groups
+                if (group.isPresent()) {
+                    context.place(offer, group.get().getName());
+                    plan.accepted.add(offer);
+                    plan.groups.put(offer, group.get());
+                    metrics.recordAccepted();
+                } else {
+                    decline(plan, offer, OfferStrategy.NO_NODE_GROUP_FITS);
+                }
+            }
+        }
+        return plan;
+    }
+
+    private void decline(Plan plan, Protos.Offer offer, String reason) {
+        plan.declined.put(offer, reason);
+        metrics.recordDeclined(reason);
+    }
+
+    private boolean holdsData(OfferContext context, Protos.Offer offer) {
+        return context.holdsLostData(offer.getSlaveId())
+                || persistentVolumes.isEnabled() && persistentVolumes.hasVolume(context.resourcesOf(offer), offer.getSlaveId());
+    }
+
+    /**
+     * Measured against the group the offer would be placed in before any offer of this batch is placed, or the data
+     * group if none fits.
+     */
+    private double headroom(OfferContext context, Protos.Offer offer) {
+        final NodeGroup group = offerStrategy.groupFor(context, offer).orElse(NodeGroup.data(configuration));
+        final OfferResources resources = context.resourcesOf(offer);
+        return Math.min(
+                ratio(resources.getScalar(Resources.RESOURCE_CPUS), group.getCpus()),
+                ratio(resources.getScalar(Resources.RESOURCE_MEM), group.getMem()));
+    }
+
+    private static double ratio(double offered, double required) {
+        return required > 0 ? offered / required : offered;
+    }
+
+    /**
+     * The offers to launch on, and the reasons for declining the rest.
+     */
+    public static class Plan {
+        private final List<Protos.Offer> accepted = new ArrayList<>();
+        private final Map<Protos.Offer, String> declined = new LinkedHashMap<>();
+        private final Map<Protos.Offer, NodeGroup> groups = new IdentityHashMap<>();
+
+        public List<Protos.Offer> getAccepted() {
+            return Collections.unmodifiableList(accepted);
+        }
+
+        public Map<Protos.Offer, String> getDeclined() {
+            return Collections.unmodifiableMap(declined);
+        }
+
+        /**
+         * @return the node group of the task to launch on an accepted offer.
+         */
+        public NodeGroup getGroup(Protos.Offer offer) {
+            return groups.get(offer);
+        }
+    }
+}
@@ -4,8 +4,6 @@ import org.apache.mesos.Protos;
 
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.List;
-import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * Helper class for building Mesos resources.
@@ -62,26 +60,6 @@ public class Resources {
                 .build();
     }
 
-    public static List<Integer> selectTwoPortsFromRange(List<Protos.Resource> offeredResources) {
-        List<Integer> ports = new ArrayList<>();
-        offeredResources.stream().filter(resource -> resource.getType().equals(org.apache.mesos.Protos.Value.Type.RANGES))
-                .forEach(resource -> resource.getRanges().getRangeList().stream().filter(range -> ports.size() < 2).forEach(range -> {
-                    ports.add((int) range.getBegin());
-                    if (ports.size() < 2 && range.getBegin() != range.getEnd()) {
-                        ports.add((int) range.getBegin() + 1);
-                    }
-                }));
-        return ports;
-    }
-
-    public static Integer selectOnePortFromRange(List<Protos.Resource> offeredResources) {
-
-        return offeredResources.stream().filter(resource -> resource.getType().equals(org.apache.mesos.Protos.Value.Type.RANGES))
-                .filter(resource -> resource.getRanges().getRangeList().size() > 0)
-                .findAny().flatMap(resource -> resource.getRanges().getRangeList().stream().findAny()).map(range -> (int) range.getBegin()).get();
-
-    }
-
     public static ArrayList<Protos.Resource> buildFrameworkResources(Configuration configuration) {
         Protos.Resource cpus = Resources.cpus(configuration.getCpus(), configuration.getFrameworkRole());
         Protos.Resource mem = Resources.mem(configuration.getMem(), configuration.getFrameworkRole());
@@ -94,15 +72,4 @@ public class Resources {
         
         return new ArrayList<>(Arrays.asList(cpus, mem, disk));
     }
-
-    public static boolean isPortAvailable(List<Protos.Resource> resourcesList, Integer port) {
-        final AtomicBoolean available = new AtomicBoolean(false);
-        resourcesList.stream().filter(resource -> resource.getType().equals(org.apache.mesos.Protos.Value.Type.RANGES))
-                .forEach(resource -> resource.getRanges().getRangeList().stream().forEach(range -> {
-                    if (range.getBegin() <= port && port <= range.getEnd()) {
-                        available.set(true);
-                    }
-                }));
-        return available.get();
-    }
 }
@@ -4,7 +4,6 @@ import com.sun.net.httpserver.Headers;
 import com.sun.net.httpserver.HttpExchange;
 import com.sun.net.httpserver.HttpHandler;
 import com.sun.net.httpserver.HttpServer;
-import org.apache.commons.io.IOUtils;
 import org.apache.log4j.Logger;
 import org.apache.mesos.elasticsearch.common.util.NetworkUtils;
 
@@ -12,40 +11,121 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.time.temporal.ChronoUnit;
+import java.util.Arrays;
+import java.util.Optional;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Simple file server for distributing jars and zips across the cluster
+ *
+ * The classpath resource is extracted to a temporary file once, when the server starts, so that every request reads
+ * a plain file instead of inflating the resource from the scheduler jar. Responses carry a Content-Length, an ETag
+ * (the SHA-1 of the content) and a Last-Modified date, so the Mesos fetcher cache and proxies can revalidate with
+ * conditional GETs, and interrupted downloads can resume with a range request. Requests are served by a bounded pool,
+ * so that the tasks of a batch launch are fetched in parallel. When the pool and its queue are full, the thread that
+ * accepts connections serves the request itself, which stops it accepting more until it is done.
  */
 public class SimpleFileServer implements Runnable {
     private static final Logger LOGGER = Logger.getLogger(SimpleFileServer.class);
+    public static final int DEFAULT_THREADS = 8;
+    public static final int QUEUE_SIZE = 64;
     private HttpServer server;
+    private ThreadPoolExecutor executor;
     private final String file;
+    private final int threads;
+    private Path extracted;
+    private long length;
+    private String etag;
+    private Instant lastModified;
 
     public SimpleFileServer(String file) {
-        this.file = file;
+        this(file, DEFAULT_THREADS);
     }
 
-    private void writeClassPathResource(HttpExchange t, String classPathResource) throws IOException {
-        InputStream in = SimpleFileServer.class.getClassLoader().getResourceAsStream(classPathResource);
-
-        // Must send headers before body.
-        t.sendResponseHeaders(200, 0);
-        OutputStream os = t.getResponseBody();
-        IOUtils.copy(in, os);
-        os.flush();
+    /**
+     * @param threads the number of requests served at a time.
+     */
+    public SimpleFileServer(String file, int threads) {
+        this.file = file;
+        this.threads = threads;
+    }
 
-        os.close();
-        in.close();
+    /**
+     * Copies the classpath resource to a temporary file, and takes its ETag and Last-Modified date.
+     */
+    private void extract() throws IOException {
+        final URL resource = SimpleFileServer.class.getClassLoader().getResource(file);
+        if (resource == null) {
+            throw new IOException("Cannot serve " + file + ". It is not on the classpath.");
+        }
+        final MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException("Unable to compute the ETag of " + file, e);
+        }
+        extracted = Files.createTempFile("simple-file-server-", "-" + Paths.get(file).getFileName());
+        extracted.toFile().deleteOnExit();
+        try (InputStream in = new DigestInputStream(resource.openStream(), digest)) {
+            Files.copy(in, extracted, StandardCopyOption.REPLACE_EXISTING);
+        }
+        length = Files.size(extracted);
+        etag = "\"" + toHex(digest.digest()) + "\"";
+        final long modified = resource.openConnection().getLastModified(); // The time of the jar entry, 0 if unknown
+        lastModified = (modified > 0 ? Instant.ofEpochMilli(modified) : Instant.now()).truncatedTo(ChronoUnit.SECONDS); // HTTP dates have seconds
+        LOGGER.debug("Extracted " + file + " to " + extracted + ": " + length + " bytes, ETag " + etag);
     }
 
     public void serve() throws IOException {
+        extract();
         server = HttpServer.create(new InetSocketAddress(0), 0); // Pick a random available port
         server.createContext("/get", new GetHandler());
-        server.setExecutor(null); // creates a default executor
+        final AtomicInteger count = new AtomicInteger();
+        executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, new ArrayBlockingQueue<>(QUEUE_SIZE), runnable -> {
+            Thread thread = new Thread(runnable, "file-server-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }, new ThreadPoolExecutor.CallerRunsPolicy());
+        server.setExecutor(executor);
         server.start();
         LOGGER.info("Running Executor JAR file server on: " + this.getAddress().getHostName() + ":" + this.getAddress().getPort());
     }
 
+    public void stop() {
+        if (server != null) {
+            server.stop(0);
+            executor.shutdownNow();
+        }
+        if (extracted != null) {
+            try {
+                Files.deleteIfExists(extracted);
+            } catch (IOException e) {
+                LOGGER.debug("Unable to delete " + extracted, e);
+            }
+        }
+    }
+
     public InetSocketAddress getAddress() {
         if (server == null) {
             throw new IllegalStateException("Fileserver is not running. Cannot get address.");
@@ -63,14 +143,160 @@ public class SimpleFileServer implements Runnable {
         }
     }
 
+    private static String toHex(byte[] bytes) {
+        final StringBuilder hex = new StringBuilder();
+        for (byte b : bytes) {
+            hex.append(String.format("%02x", b));
+        }
+        return hex.toString();
+    }
+
+    private static String httpDate(Instant instant) {
+        return DateTimeFormatter.RFC_1123_DATE_TIME.format(instant.atOffset(ZoneOffset.UTC));
+    }
+
+    private static Optional<Instant> parseHttpDate(String value) {
+        try {
+            return Optional.of(ZonedDateTime.parse(value, DateTimeFormatter.RFC_1123_DATE_TIME).toInstant());
+        } catch (DateTimeParseException e) {
+            return Optional.empty();
+        }
+    }
+
     class GetHandler implements HttpHandler {
         public void handle(HttpExchange t) throws IOException {
+            try {
+                final String method = t.getRequestMethod();
+                final boolean head = "HEAD".equalsIgnoreCase(method);
+                if (!head && !"GET".equalsIgnoreCase(method)) {
+                    t.getResponseHeaders().add("Allow", "GET, HEAD");
+                    t.sendResponseHeaders(405, -1);
+                    return;
+                }
 
-            Headers h = t.getResponseHeaders();
-            h.add("Content-Type", "application/octet-stream");
+                Headers h = t.getResponseHeaders();
+                h.add("Content-Type", "application/octet-stream");
+                h.add("Accept-Ranges", "bytes");
+                h.add("ETag", etag);
+                h.add("Last-Modified", httpDate(lastModified));
+                h.add("Cache-Control", "no-cache"); // Cache, but revalidate: a new scheduler version may serve a new file
 
-            writeClassPathResource(t, file);
+                final Headers request = t.getRequestHeaders();
+                if (isNotModified(request)) {
+                    t.sendResponseHeaders(304, -1);
+                    return;
+                }
+                final Optional<ByteRange> range = isRangeCurrent(request.getFirst("If-Range")) ? ByteRange.parse(request.getFirst("Range"), length) : Optional.empty();
+                if (range.isPresent() && !range.get().isSatisfiable(length)) {
+                    h.add("Content-Range", "bytes */" + length);
+                    t.sendResponseHeaders(416, -1);
+                    return;
+                }
+                final long start = range.map(r -> r.start).orElse(0L);
+                final long count = range.map(r -> r.end - r.start + 1).orElse(length);
+                if (range.isPresent()) {
+                    h.add("Content-Range", "bytes " + start + "-" + (start + count - 1) + "/" + length);
+                }
+                // Must send headers before body.
+                if (head) {
+                    h.add("Content-Length", Long.toString(count));
+                }
+                t.sendResponseHeaders(range.isPresent() ? 206 : 200, head || count == 0 ? -1 : count);
+                if (!head) {
+                    write(t.getResponseBody(), start, count);
+                }
+            } finally {
+                t.close();
+            }
+        }
+
+        /**
+         * If-None-Match takes precedence over If-Modified-Since.
+         */
+        private boolean isNotModified(Headers request) {
+            final String ifNoneMatch = request.getFirst("If-None-Match");
+            if (ifNoneMatch != null) {
+                return Arrays.stream(ifNoneMatch.split(",")).map(String::trim)
+                        .anyMatch(tag -> tag.equals("*") || tag.equals(etag) || tag.equals("W/" + etag));
+            }
+            final String ifModifiedSince = request.getFirst("If-Modified-Since");
+            return ifModifiedSince != null && parseHttpDate(ifModifiedSince).map(since -> !lastModified.isAfter(since)).orElse(false);
+        }
+
+        /**
+         * @return true if there is no If-Range, or it names the current ETag or Last-Modified date. Otherwise the file
+         * has changed since the client got the first part, and the whole file is sent.
+         */
+        private boolean isRangeCurrent(String ifRange) {
+            if (ifRange == null) {
+                return true;
+            }
+            return ifRange.trim().equals(etag) || parseHttpDate(ifRange.trim()).map(lastModified::equals).orElse(false);
+        }
+
+        /**
+         * Transfers the bytes from the file channel. The exchange only exposes a stream, so the JDK copies them
+         * through a buffer instead of handing the transfer to the kernel, but the file is read from the page cache.
+         */
+        private void write(OutputStream os, long start, long count) throws IOException {
+            try (FileChannel channel = FileChannel.open(extracted, StandardOpenOption.READ);
+                 WritableByteChannel out = Channels.newChannel(os)) {
+                long position = start;
+                final long end = start + count;
+                while (position < end) {
+                    position += channel.transferTo(position, end - position, out);
+                }
+            }
         }
     }
 
-}
\ No newline at end of file
+    /**
+     * A single range of bytes, inclusive, from a {@code Range: bytes=...} header.
+     */
+    static class ByteRange {
+        final long start;
+        final long end;
+
+        ByteRange(long start, long end) {
+            this.start = start;
+            this.end = end;
+        }
+
+        /**
+         * @return the range, or empty if the header is missing, malformed or asks for several ranges. Those are
+         * answered with the whole file.
+         */
+        static Optional<ByteRange> parse(String header, long length) {
+            if (header == null || !header.startsWith("bytes=") || header.contains(",")) {
+                return Optional.empty();
+            }
+            final String spec = header.substring("bytes=".length()).trim();
+            final int dash = spec.indexOf('-');
+            if (dash < 0) {
+                return Optional.empty();
+            }
+            try {
+                final String first = spec.substring(0, dash).trim();
+                final String last = spec.substring(dash + 1).trim();
+                if (first.isEmpty()) { // The last n bytes
+                    final long suffix = Long.parseLong(last);
+                    if (suffix < 0) {
+                        return Optional.empty();
+                    }
+                    return Optional.of(suffix == 0 ? new ByteRange(length, length) : new ByteRange(Math.max(0, length - suffix), length - 1));
+                }
+                final long start = Long.parseLong(first);
+                if (start < 0 || !last.isEmpty() && Long.parseLong(last) < start) {
+                    return Optional.empty();
+                }
+                return Optional.of(new ByteRange(start, last.isEmpty() ? length - 1 : Math.min(Long.parseLong(last), length - 1)));
+            } catch (NumberFormatException e) {
+                return Optional.empty();
+            }
+        }
+
+        boolean isSatisfiable(long length) {
+            return start < length;
+        }
+    }
+}
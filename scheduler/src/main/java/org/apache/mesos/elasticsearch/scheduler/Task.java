@@ -18,14 +18,20 @@ public class Task {
     private ZonedDateTime startedAt;
     private InetSocketAddress clientAddress;
     private InetSocketAddress transportAddress;
+    private String nodeGroup;
 
     public Task(String hostname, String taskId, Protos.TaskState state, ZonedDateTime startedAt, InetSocketAddress clientInterface, InetSocketAddress transportAddress) {
+        this(hostname, taskId, state, startedAt, clientInterface, transportAddress, NodeGroup.DATA);
+    }
+
+    public Task(String hostname, String taskId, Protos.TaskState state, ZonedDateTime startedAt, InetSocketAddress clientInterface, InetSocketAddress transportAddress, String nodeGroup) {
         this.hostname = hostname;
         this.taskId = taskId;
         this.state = state;
         this.startedAt = startedAt;
         this.clientAddress = clientInterface;
         this.transportAddress = transportAddress;
+        this.nodeGroup = nodeGroup;
     }
 
     public String getHostname() {
@@ -55,4 +61,11 @@ public class Task {
     public InetSocketAddress getTransportAddress() {
         return transportAddress;
     }
+
+    /**
+     * @return the name of the {@link NodeGroup} of the node.
+     */
+    public String getNodeGroup() {
+        return nodeGroup;
+    }
 }
@@ -18,7 +18,11 @@ import java.nio.file.Paths;
 import java.text.SimpleDateFormat;
 import java.time.ZoneOffset;
 import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.Properties;
 import java.util.stream.Collectors;
@@ -31,6 +35,7 @@ public class TaskInfoFactory {
     private static final Logger LOGGER = Logger.getLogger(TaskInfoFactory.class);
 
     public static final String TASK_DATE_FORMAT = "yyyyMMdd'T'HHmmss.SSS'Z'";
+    public static final String DATA_ATTRIBUTE_PREFIX = "attribute.";
 
     private final ClusterState clusterState;
 
@@ -47,6 +52,13 @@ public class TaskInfoFactory {
      * @return TaskInfo
      */
     public Protos.TaskInfo createTask(Configuration configuration, FrameworkState frameworkState, Protos.Offer offer, Clock clock) {
+        return createTask(configuration, frameworkState, offer, clock, NodeGroup.data(configuration));
+    }
+
+    /**
+     * @param group the node group of the new node, which sets its resources and roles.
+     */
+    public Protos.TaskInfo createTask(Configuration configuration, FrameworkState frameworkState, Protos.Offer offer, Clock clock, NodeGroup group) {
         //this creates and assigns a unique id to an elastic search node
         long elasticSearchNodeId = configuration.getExternalVolumeDriver() != null && configuration.getExternalVolumeDriver().length() > 0 ?
                 clusterState.getElasticNodeId() : ExecutorEnvironmentalVariables.EXTERNAL_VOLUME_NOT_CONFIGURED;
@@ -54,42 +66,45 @@ public class TaskInfoFactory {
         LOGGER.debug("Elastic Search Node Id: " + elasticSearchNodeId);
         if (configuration.isFrameworkUseDocker()) {
             LOGGER.debug("Building Docker task");
-            Protos.TaskInfo taskInfo = buildDockerTask(offer, configuration, clock, elasticSearchNodeId);
+            Protos.TaskInfo taskInfo = buildDockerTask(offer, configuration, clock, elasticSearchNodeId, group);
             LOGGER.debug(taskInfo.toString());
             return taskInfo;
         } else {
             LOGGER.debug("Building native task");
-            Protos.TaskInfo taskInfo = buildNativeTask(offer, configuration, clock, elasticSearchNodeId);
+            Protos.TaskInfo taskInfo = buildNativeTask(offer, configuration, clock, elasticSearchNodeId, group);
             LOGGER.debug(taskInfo.toString());
             return taskInfo;
         }
     }
 
-    private Protos.TaskInfo buildNativeTask(Protos.Offer offer, Configuration configuration, Clock clock, Long elasticSearchNodeId) {
-        final List<Integer> ports = getPorts(offer, configuration);
-        final List<Protos.Resource> resources = getResources(configuration, ports);
+    private Protos.TaskInfo buildNativeTask(Protos.Offer offer, Configuration configuration, Clock clock, Long elasticSearchNodeId, NodeGroup group) {
+        final OfferResources offered = OfferResources.of(offer, configuration.getFrameworkRole());
+        final List<Integer> ports = getPorts(offered, configuration);
+        final List<Protos.Resource> resources = getResources(offered, configuration, group, ports, offer.getSlaveId());
         final Protos.DiscoveryInfo discovery = getDiscovery(ports, configuration);
 
         final String hostAddress = resolveHostAddress(offer, ports);
 
         LOGGER.info("Creating Elasticsearch task with resources: " + resources.toString());
 
-        final List<String> args = configuration.esArguments(clusterState, discovery, offer.getSlaveId());
+        final Map<String, String> attributes = Constraint.attributesOf(offer);
+        final List<String> args = configuration.esArguments(clusterState, discovery, offer.getSlaveId(), attributes, group);
 
         return Protos.TaskInfo.newBuilder()
                 .setName(configuration.getTaskName())
-                .setData(toData(offer.getHostname(), hostAddress, clock.nowUTC()))
+                .setData(toData(offer.getHostname(), hostAddress, clock.nowUTC(), attributes, group.getName()))
                 .setTaskId(Protos.TaskID.newBuilder().setValue(taskId(offer, clock)))
                 .setSlaveId(offer.getSlaveId())
                 .addAllResources(resources)
                 .setDiscovery(discovery)
-                .setCommand(nativeCommand(configuration, args, elasticSearchNodeId))
+                .setCommand(nativeCommand(configuration, args, elasticSearchNodeId, group))
                 .build();
     }
 
-    private Protos.TaskInfo buildDockerTask(Protos.Offer offer, Configuration configuration, Clock clock, Long elasticSearchNodeId) {
-        final List<Integer> ports = getPorts(offer, configuration);
-        final List<Protos.Resource> resources = getResources(configuration, ports);
+    private Protos.TaskInfo buildDockerTask(Protos.Offer offer, Configuration configuration, Clock clock, Long elasticSearchNodeId, NodeGroup group) {
+        final OfferResources offered = OfferResources.of(offer, configuration.getFrameworkRole());
+        final List<Integer> ports = getPorts(offered, configuration);
+        final List<Protos.Resource> resources = getResources(offered, configuration, group, ports, offer.getSlaveId());
         final Protos.DiscoveryInfo discovery = getDiscovery(ports, configuration);
 
         final String hostAddress = resolveHostAddress(offer, ports);
@@ -97,17 +112,18 @@ public class TaskInfoFactory {
         LOGGER.info("Creating Elasticsearch task with resources: " + resources.toString());
 
         final Protos.TaskID taskId = Protos.TaskID.newBuilder().setValue(taskId(offer, clock)).build();
-        final List<String> args = configuration.esArguments(clusterState, discovery, offer.getSlaveId());
-        final Protos.ContainerInfo containerInfo = getContainer(configuration, taskId, elasticSearchNodeId, offer.getSlaveId());
+        final Map<String, String> attributes = Constraint.attributesOf(offer);
+        final List<String> args = configuration.esArguments(clusterState, discovery, offer.getSlaveId(), attributes, group);
+        final Protos.ContainerInfo containerInfo = getContainer(configuration, taskId, elasticSearchNodeId, group, offer.getSlaveId());
 
         return Protos.TaskInfo.newBuilder()
                 .setName(configuration.getTaskName())
-                .setData(toData(offer.getHostname(), hostAddress, clock.nowUTC()))
+                .setData(toData(offer.getHostname(), hostAddress, clock.nowUTC(), attributes, group.getName()))
                 .setTaskId(taskId)
                 .setSlaveId(offer.getSlaveId())
                 .addAllResources(resources)
                 .setDiscovery(discovery)
-                .setCommand(dockerCommand(configuration, args, elasticSearchNodeId))
+                .setCommand(dockerCommand(configuration, args, elasticSearchNodeId, group))
                 .setContainer(containerInfo)
                 .build();
     }
@@ -119,24 +135,34 @@ public class TaskInfoFactory {
         return address.getAddress().getHostAddress(); // Note this will always resolve because of the check in OfferStrategy
     }
 
-    private List<Integer> getPorts(Protos.Offer offer, Configuration configuration) {
-        List<Integer> ports;
+    private List<Integer> getPorts(OfferResources resources, Configuration configuration) {
         List<Integer> elasticsearchPorts = configuration.getElasticsearchPorts();
         if (elasticsearchPorts.isEmpty() || elasticsearchPorts.stream().allMatch(port -> port == 0)) {
             //No ports requested by user or two random ports requested
-            ports = Resources.selectTwoPortsFromRange(offer.getResourcesList());
-        }
-        else {
-            //Replace a user requested port 0 with a random port
-            ports = elasticsearchPorts.stream().map(port -> port != 0 ?  port : Resources.selectOnePortFromRange(offer.getResourcesList())).collect(Collectors.toList());
+            return resources.selectPorts(2);
         }
-        return ports;
+        //Replace a user requested port 0 with an offered port that the user did not request
+        final Iterator<Integer> offered = resources.selectPorts(elasticsearchPorts.size(), elasticsearchPorts).iterator();
+        return elasticsearchPorts.stream().map(port -> port != 0 ? port : offered.next()).collect(Collectors.toList());
     }
 
-    private List<Protos.Resource> getResources(Configuration configuration, List<Integer> ports) {
-        List<Protos.Resource> acceptedResources = Resources.buildFrameworkResources(configuration);
-        acceptedResources.add(Resources.singlePortRange(ports.get(0), configuration.getFrameworkRole()));
-        acceptedResources.add(Resources.singlePortRange(ports.get(1), configuration.getFrameworkRole()));
+    private List<Protos.Resource> getResources(OfferResources offered, Configuration configuration, NodeGroup group, List<Integer> ports, Protos.SlaveID slaveID) {
+        final List<Protos.Resource> acceptedResources = new ArrayList<>();
+        final PersistentVolumes persistentVolumes = new PersistentVolumes(configuration);
+        if (persistentVolumes.isEnabled()) {
+            acceptedResources.addAll(persistentVolumes.taskResources(offered, slaveID));
+            acceptedResources.add(offered.takePort(ports.get(0)));
+            acceptedResources.add(offered.takePort(ports.get(1)));
+            return acceptedResources;
+        }
+        acceptedResources.addAll(offered.take(Resources.RESOURCE_CPUS, group.getCpus()));
+        acceptedResources.addAll(offered.take(Resources.RESOURCE_MEM, group.getMem()));
+        //if we are using external storage, then we dont need to take disk into account
+        if (configuration.getExternalVolumeDriver() == null || configuration.getExternalVolumeDriver().isEmpty()) {
+            acceptedResources.addAll(offered.take(Resources.RESOURCE_DISK, group.getDisk()));
+        }
+        acceptedResources.add(offered.takePort(ports.get(0)));
+        acceptedResources.add(offered.takePort(ports.get(1)));
         return acceptedResources;
     }
 
@@ -151,8 +177,8 @@ public class TaskInfoFactory {
         return discovery.build();
     }
 
-    private Protos.ContainerInfo getContainer(Configuration configuration, Protos.TaskID taskID, Long elasticSearchNodeId, Protos.SlaveID slaveID) {
-        final Protos.Environment environment = Protos.Environment.newBuilder().addAllVariables(new ExecutorEnvironmentalVariables(configuration, elasticSearchNodeId).getList()).build();
+    private Protos.ContainerInfo getContainer(Configuration configuration, Protos.TaskID taskID, Long elasticSearchNodeId, NodeGroup group, Protos.SlaveID slaveID) {
+        final Protos.Environment environment = Protos.Environment.newBuilder().addAllVariables(new ExecutorEnvironmentalVariables(configuration, elasticSearchNodeId, group.getMem()).getList()).build();
         final Protos.ContainerInfo.DockerInfo.Builder dockerInfo = Protos.ContainerInfo.DockerInfo.newBuilder()
                 .addParameters(Protos.Parameter.newBuilder().setKey("env").setValue("MESOS_TASK_ID=" + taskID.getValue()))
                 .setImage(configuration.getExecutorImage())
@@ -187,6 +213,8 @@ public class TaskInfoFactory {
             dockerInfo.addParameters(Protos.Parameter.newBuilder()
                     .setKey("volume")
                     .setValue(sHostPathOrExternalVolumeForData));
+        } else if (configuration.isFrameworkUsePersistentVolumes()) {
+            LOGGER.debug("Data is on a persistent volume in the sandbox");
         } else {
             if (!configuration.getDataDir().isEmpty()) {
                 builder.addVolumes(Protos.Volume.newBuilder()
@@ -218,8 +246,8 @@ public class TaskInfoFactory {
                 .build();
     }
 
-    private Protos.CommandInfo dockerCommand(Configuration configuration, List<String> args, Long elasticSearchNodeId) {
-        final Protos.Environment environment = Protos.Environment.newBuilder().addAllVariables(new ExecutorEnvironmentalVariables(configuration, elasticSearchNodeId).getList()).build();
+    private Protos.CommandInfo dockerCommand(Configuration configuration, List<String> args, Long elasticSearchNodeId, NodeGroup group) {
+        final Protos.Environment environment = Protos.Environment.newBuilder().addAllVariables(new ExecutorEnvironmentalVariables(configuration, elasticSearchNodeId, group.getMem()).getList()).build();
         final Protos.CommandInfo.Builder builder = Protos.CommandInfo.newBuilder()
                 .setShell(false)
                 .mergeEnvironment(environment)
@@ -231,14 +259,14 @@ public class TaskInfoFactory {
                 .build();
     }
 
-    private Protos.CommandInfo nativeCommand(Configuration configuration, List<String> args, Long elasticSearchNodeId) {
+    private Protos.CommandInfo nativeCommand(Configuration configuration, List<String> args, Long elasticSearchNodeId, NodeGroup group) {
         String address = configuration.getFrameworkFileServerAddress();
         if (address == null) {
             throw new NullPointerException("Webserver address is null");
         }
         String httpPath = address + "/get/" + Configuration.ES_TAR;
         String command = configuration.nativeCommand(args);
-        final Protos.Environment environment = Protos.Environment.newBuilder().addAllVariables(new ExecutorEnvironmentalVariables(configuration, elasticSearchNodeId).getList()).build();
+        final Protos.Environment environment = Protos.Environment.newBuilder().addAllVariables(new ExecutorEnvironmentalVariables(configuration, elasticSearchNodeId, group.getMem()).getList()).build();
         final Protos.CommandInfo.Builder builder = Protos.CommandInfo.newBuilder()
                 .setShell(true)
                 .setValue(command)
@@ -257,10 +285,30 @@ public class TaskInfoFactory {
     }
 
     public ByteString toData(String hostname, String ipAddress, ZonedDateTime zonedDateTime) {
+        return toData(hostname, ipAddress, zonedDateTime, Collections.emptyMap());
+    }
+
+    /**
+     * @param attributes the attributes of the offer, kept so that placement constraints can count the nodes per value.
+     */
+    public ByteString toData(String hostname, String ipAddress, ZonedDateTime zonedDateTime, Map<String, String> attributes) {
+        return toData(hostname, ipAddress, zonedDateTime, attributes, NodeGroup.DATA);
+    }
+
+    /**
+     * @param nodeGroup the name of the node group of the task.
+     */
+    public ByteString toData(String hostname, String ipAddress, ZonedDateTime zonedDateTime, Map<String, String> attributes, String nodeGroup) {
         Properties data = new Properties();
         data.put("hostname", hostname);
         data.put("ipAddress", ipAddress);
         data.put("startedAt", zonedDateTime.toString());
+        data.put(NodeGroup.DATA_KEY, nodeGroup);
+        attributes.forEach((name, value) -> {
+            if (!Constraint.HOSTNAME.equals(name)) {
+                data.put(DATA_ATTRIBUTE_PREFIX + name, value);
+            }
+        });
 
         StringWriter writer = new StringWriter();
         try {
@@ -306,7 +354,8 @@ public class TaskInfoFactory {
                 taskStatus == null ? Protos.TaskState.TASK_STAGING : taskStatus.getState(),
                 startedAt,
                 new InetSocketAddress(ipAddress, taskInfo.getDiscovery().getPorts().getPorts(Discovery.CLIENT_PORT_INDEX).getNumber()),
-                new InetSocketAddress(ipAddress, taskInfo.getDiscovery().getPorts().getPorts(Discovery.TRANSPORT_PORT_INDEX).getNumber())
+                new InetSocketAddress(ipAddress, taskInfo.getDiscovery().getPorts().getPorts(Discovery.TRANSPORT_PORT_INDEX).getNumber()),
+                data.getProperty(NodeGroup.DATA_KEY, NodeGroup.DATA)
         );
     }
 }
@@ -0,0 +1,218 @@
+package org.apache.mesos.elasticsearch.scheduler.cluster;
+
+import org.apache.log4j.Logger;
+import org.apache.mesos.Protos;
+import org.apache.mesos.elasticsearch.scheduler.Configuration;
+import org.apache.mesos.elasticsearch.scheduler.NodeGroup;
+import org.apache.mesos.elasticsearch.scheduler.state.ClusterState;
+import org.apache.mesos.elasticsearch.scheduler.util.Clock;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import static org.apache.mesos.elasticsearch.scheduler.cluster.ElasticsearchAdminClient.MINIMUM_MASTER_NODES;
+
+/**
+ * Sizes the cluster from the load of its nodes, between the configured minimum and maximum number of nodes.
+ *
+ * Every interval the node stats are sampled. Nodes are added when requests queue up, heap runs short or a disk fills
+ * up past the watermark at which Elasticsearch stops allocating shards to it. Nodes are removed when nothing is queued
+ * and the remaining nodes would still have plenty of heap and disk. The gap between the two limits keeps the cluster
+ * from flapping between two sizes. Removal is left to the {@link TaskReaper}, which drains nodes before killing them.
+ *
+ * The autoscaler only acts when the cluster is at its configured size, and waits for a cooldown after each resize, so
+ * the stats it acts on reflect the last resize. Only data nodes are sampled and scaled.
+ *
+ * Without dedicated masters, the data nodes are the master eligible nodes, and they are started with a
+ * minimum_master_nodes that requires all of them. Before scaling down, it is set to a quorum of the new size, so the
+ * remaining nodes can still elect a master. The cluster is not scaled down if that fails. Before scaling up, it is set
+ * to a quorum of the new size where the current nodes already make one.
+ */
+public class Autoscaler {
+    private static final Logger LOGGER = Logger.getLogger(Autoscaler.class);
+    public static final long DEFAULT_INTERVAL_MS = 30000;
+    public static final int DEFAULT_TIMEOUT_MS = 5000;
+    public static final double QUEUE_HIGH = 10; // Queued search and write requests per node
+    public static final double QUEUE_LOW = 1;
+    public static final double HEAP_HIGH = 85; // Percent of the heap in use, on average
+    public static final double HEAP_LOW = 60; // Percent the remaining nodes would use after a scale down
+    public static final double DISK_HIGH = 85; // Percent of the fullest disk. The default low disk watermark of Elasticsearch.
+    public static final double DISK_LOW = 60;
+    private static final String[] QUEUES = {"search", "index", "bulk"};
+
+    private final Configuration configuration;
+    private final ClusterState clusterState;
+    private final Runnable onResize;
+    private final BooleanSupplier busy;
+    private final Clock clock;
+    private final long intervalMs;
+    private final ElasticsearchAdminClient client;
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "autoscaler");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private long lastResize = -1; // Never
+
+    /**
+     * @param onResize called after the configured number of nodes has changed.
+     * @param busy true while the cluster must not be resized, for example during a rolling update.
+     */
+    public Autoscaler(Configuration configuration, ClusterState clusterState, Runnable onResize, BooleanSupplier busy) {
+        this(configuration, clusterState, onResize, busy, new Clock(), DEFAULT_INTERVAL_MS, DEFAULT_TIMEOUT_MS);
+    }
+
+    public Autoscaler(Configuration configuration, ClusterState clusterState, Runnable onResize, BooleanSupplier busy, Clock clock, long intervalMs, int timeoutMs) {
+        this.configuration = configuration;
+        this.clusterState = clusterState;
+        this.onResize = onResize;
+        this.busy = busy;
+        this.clock = clock;
+        this.intervalMs = intervalMs;
+        this.client = new ElasticsearchAdminClient(timeoutMs);
+    }
+
+    public void start() {
+        executor.scheduleWithFixedDelay(this::run, intervalMs, intervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    public void stop() {
+        executor.shutdownNow();
+        try {
+            client.close();
+        } catch (IOException e) {
+            LOGGER.debug("Unable to close autoscaler client", e);
+        }
+    }
+
+    public synchronized void run() {
+        try {
+            final List<Protos.TaskInfo> tasks = clusterState.getTaskList();
+            final int nodes = configuration.getElasticsearchNodes();
+            if (tasks.size() != NodeGroup.totalNodes(configuration) || busy.getAsBoolean()) {
+                LOGGER.debug("Autoscaler. The cluster is changing. Waiting.");
+                return;
+            }
+            final String url = ElasticsearchAdminClient.address(tasks, clusterState.getGuiTaskList(), taskId -> true, configuration.getIsUseIpAddress());
+            final List<NodeLoad> loads = sample(url);
+            if (loads.isEmpty()) {
+                return;
+            }
+            final int target = Math.max(configuration.getAutoscaleMinNodes(), Math.min(configuration.getAutoscaleMaxNodes(), decide(loads, nodes)));
+            if (target == nodes) {
+                return;
+            }
+            final long now = clock.now().getTime();
+            final long cooldown = target > nodes ? configuration.getAutoscaleUpCooldown() : configuration.getAutoscaleDownCooldown();
+            if (lastResize >= 0 && now - lastResize < cooldown) {
+                LOGGER.debug("Autoscaler. Would scale to " + target + " nodes, but the last resize was " + (now - lastResize) + "ms ago");
+                return;
+            }
+            LOGGER.info("Autoscaler. Scaling from " + nodes + " to " + target + " nodes. Load: " + loads);
+            updateMinimumMasterNodes(url, nodes, target);
+            configuration.setElasticsearchNodes(target);
+            lastResize = now;
+            onResize.run();
+        } catch (Exception ex) { // Catch all, or the ScheduledExecutorService would stop sampling.
+            LOGGER.debug("Problem with the autoscaler. Retrying.", ex);
+        }
+    }
+
+    /**
+     * @return the number of nodes for the given load, before the minimum and maximum are applied.
+     */
+    int decide(List<NodeLoad> loads, int nodes) {
+        final double queue = loads.stream().mapToLong(load -> load.queue).average().orElse(0);
+        final double heap = loads.stream().mapToDouble(load -> load.heapPercent).average().orElse(0);
+        final double disk = loads.stream().mapToDouble(load -> load.diskPercent).max().orElse(0);
+        if (queue > QUEUE_HIGH || heap > HEAP_HIGH || disk > DISK_HIGH) {
+            return nodes + configuration.getAutoscaleStep();
+        }
+        final int smaller = nodes - configuration.getAutoscaleStep();
+        final double shrink = (double) nodes / smaller; // The load of the removed nodes is spread over the others
+        if (smaller >= 1 && queue < QUEUE_LOW && heap * shrink < HEAP_LOW && disk * shrink < DISK_LOW) {
+            return smaller;
+        }
+        return nodes;
+    }
+
+    /**
+     * @throws IOException if the cluster is to be scaled down and the setting could not be changed.
+     */
+    private void updateMinimumMasterNodes(String url, int nodes, int target) throws IOException {
+        if (configuration.getMasterNodes() > 0) {
+            return; // Dedicated masters keep their own quorum
+        }
+        final int quorum = target / 2 + 1;
+        if (target < nodes) {
+            setSetting(url, MINIMUM_MASTER_NODES, Integer.toString(quorum));
+        } else if (quorum <= nodes) { // Elasticsearch refuses more than the master eligible nodes it has
+            try {
+                setSetting(url, MINIMUM_MASTER_NODES, Integer.toString(quorum));
+            } catch (IOException e) {
+                LOGGER.warn("Autoscaler. Unable to set " + MINIMUM_MASTER_NODES + " to " + quorum + ". Scaling up anyway.", e);
+            }
+        }
+    }
+
+    protected List<NodeLoad> sample(String url) throws IOException {
+        return NodeLoad.parse(client.getJson(url, "/_nodes/stats/jvm,fs,thread_pool"));
+    }
+
+    protected void setSetting(String url, String setting, String value) throws IOException {
+        client.setTransientSetting(url, setting, value);
+    }
+
+    /**
+     * The load of one node, as reported by {@code _nodes/stats}.
+     */
+    public static class NodeLoad {
+        final String name;
+        final long queue;
+        final double heapPercent;
+        final double diskPercent;
+
+        public NodeLoad(String name, long queue, double heapPercent, double diskPercent) {
+            this.name = name;
+            this.queue = queue;
+            this.heapPercent = heapPercent;
+            this.diskPercent = diskPercent;
+        }
+
+        public static List<NodeLoad> parse(JSONObject stats) {
+            final List<NodeLoad> loads = new ArrayList<>();
+            final JSONObject nodes = stats.getJSONObject("nodes");
+            for (String id : nodes.keySet()) {
+                final JSONObject node = nodes.getJSONObject(id);
+                final JSONObject attributes = node.optJSONObject("attributes");
+                if (attributes != null && "false".equals(attributes.optString("data"))) {
+                    continue; // Dedicated master and client nodes are not scaled
+                }
+                long queue = 0;
+                final JSONObject threadPool = node.getJSONObject("thread_pool");
+                for (String name : QUEUES) {
+                    if (threadPool.has(name)) {
+                        queue += threadPool.getJSONObject(name).getLong("queue");
+                    }
+                }
+                final double heap = node.getJSONObject("jvm").getJSONObject("mem").getDouble("heap_used_percent");
+                final JSONObject fs = node.getJSONObject("fs").getJSONObject("total");
+                final long total = fs.getLong("total_in_bytes");
+                final double disk = total == 0 ? 0 : 100.0 * (total - fs.getLong("available_in_bytes")) / total;
+                loads.add(new NodeLoad(node.optString("name", id), queue, heap, disk));
+            }
+            return loads;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s[queue=%d, heap=%.0f%%, disk=%.0f%%]", name, queue, heapPercent, diskPercent);
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package org.apache.mesos.elasticsearch.scheduler.cluster;
+
+import org.apache.log4j.Logger;
+import org.apache.mesos.Protos;
+import org.apache.mesos.elasticsearch.scheduler.Configuration;
+import org.apache.mesos.elasticsearch.scheduler.state.ClusterState;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Polls the first Elasticsearch node in the background and keeps the verdict, so that offer evaluation never waits on
+ * HTTP. Every request has connect and read timeouts, so a hung node only delays the next poll.
+ */
+public class ClusterHealthMonitor {
+    private static final Logger LOGGER = Logger.getLogger(ClusterHealthMonitor.class);
+    public static final long DEFAULT_INTERVAL_MS = 5000;
+    public static final int DEFAULT_TIMEOUT_MS = 2000;
+
+    private final ClusterState clusterState;
+    private final Configuration configuration;
+    private final long intervalMs;
+    private final ElasticsearchAdminClient client;
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "cluster-health-monitor");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private volatile boolean responding = false;
+
+    public ClusterHealthMonitor(ClusterState clusterState, Configuration configuration) {
+        this(clusterState, configuration, DEFAULT_INTERVAL_MS, DEFAULT_TIMEOUT_MS);
+    }
+
+    public ClusterHealthMonitor(ClusterState clusterState, Configuration configuration, long intervalMs, int timeoutMs) {
+        this.clusterState = clusterState;
+        this.configuration = configuration;
+        this.intervalMs = intervalMs;
+        this.client = new ElasticsearchAdminClient(timeoutMs);
+    }
+
+    public void start() {
+        executor.scheduleWithFixedDelay(this::check, 0, intervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    public void stop() {
+        executor.shutdownNow();
+        try {
+            client.close();
+        } catch (IOException e) {
+            LOGGER.debug("Unable to close health check client", e);
+        }
+    }
+
+    /**
+     * The verdict of the last poll. Never blocks.
+     * @return true if there are no nodes yet, or if the first node answered the last poll.
+     */
+    public boolean isFirstNodeResponding() {
+        return responding;
+    }
+
+    /**
+     * Polls now, on the calling thread.
+     */
+    public void check() {
+        boolean result;
+        try {
+            result = probe();
+        } catch (Exception e) { // Catch all, or the ScheduledExecutorService would stop polling.
+            LOGGER.debug("First ES node is not responding", e);
+            result = false;
+        }
+        if (result != responding) {
+            LOGGER.info("First ES node is " + (result ? "now" : "no longer") + " responding");
+        }
+        responding = result;
+    }
+
+    private boolean probe() throws IOException {
+        final List<Protos.TaskInfo> tasks = clusterState.getTaskList();
+        if (tasks.isEmpty()) {
+            return true;
+        }
+        final String hostAddress = ElasticsearchAdminClient.address(tasks.subList(0, 1), clusterState.getGuiTaskList(), taskId -> true, configuration.getIsUseIpAddress());
+        final int hostHttpStatus = getStatus(hostAddress);
+        // If the quorum requirement is set higher than the number of nodes running,
+        // we will get back a 503.
+        return hostHttpStatus == 200 || hostHttpStatus == 503;
+    }
+
+    protected int getStatus(String url) throws IOException {
+        return client.getStatus(url);
+    }
+}
@@ -0,0 +1,104 @@
+package org.apache.mesos.elasticsearch.scheduler.cluster;
+
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPut;
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.util.EntityUtils;
+import org.apache.mesos.Protos;
+import org.apache.mesos.elasticsearch.common.util.NetworkUtils;
+import org.apache.mesos.elasticsearch.scheduler.Task;
+import org.json.JSONObject;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.function.Predicate;
+
+/**
+ * The few Elasticsearch admin calls the scheduler makes. Every request has connect and read timeouts, so a hung node
+ * only delays the caller's next attempt.
+ */
+public class ElasticsearchAdminClient implements Closeable {
+    public static final String ALLOCATION_ENABLE = "cluster.routing.allocation.enable";
+    public static final String EXCLUDE_IP = "cluster.routing.allocation.exclude._ip";
+    public static final String MINIMUM_MASTER_NODES = "discovery.zen.minimum_master_nodes";
+    private final CloseableHttpClient httpClient;
+
+    public ElasticsearchAdminClient(int timeoutMs) {
+        this.httpClient = HttpClients.custom()
+                .setDefaultRequestConfig(RequestConfig.custom()
+                        .setConnectTimeout(timeoutMs)
+                        .setSocketTimeout(timeoutMs)
+                        .setConnectionRequestTimeout(timeoutMs)
+                        .build())
+                .build();
+    }
+
+    /**
+     * @return the HTTP status code of a GET of the URL.
+     */
+    public int getStatus(String url) throws IOException {
+        try (CloseableHttpResponse response = httpClient.execute(new HttpGet(url))) {
+            return response.getStatusLine().getStatusCode();
+        }
+    }
+
+    /**
+     * @return the body of a GET of the path.
+     * @throws IOException if the node does not answer with 200.
+     */
+    public String get(String url, String path) throws IOException {
+        try (CloseableHttpResponse response = httpClient.execute(new HttpGet(url + path))) {
+            if (response.getStatusLine().getStatusCode() != 200) {
+                throw new IOException("Unable to get " + path + ": " + response.getStatusLine());
+            }
+            return EntityUtils.toString(response.getEntity());
+        }
+    }
+
+    public JSONObject getJson(String url, String path) throws IOException {
+        return new JSONObject(get(url, path));
+    }
+
+    /**
+     * Sets a transient cluster setting. Transient settings are lost when the whole cluster restarts.
+     */
+    public void setTransientSetting(String url, String setting, String value) throws IOException {
+        final HttpPut put = new HttpPut(url + "/_cluster/settings");
+        put.setEntity(new StringEntity("{\"transient\":{\"" + setting + "\":\"" + value + "\"}}", ContentType.APPLICATION_JSON));
+        try (CloseableHttpResponse response = httpClient.execute(put)) {
+            if (response.getStatusLine().getStatusCode() != 200) {
+                throw new IOException("Unable to set " + setting + ": " + response.getStatusLine());
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        httpClient.close();
+    }
+
+    /**
+     * @param usable whether the node with the given task ID may be asked.
+     * @return the HTTP address of the first usable node.
+     * @throws IOException if there is none.
+     */
+    public static String address(List<Protos.TaskInfo> tasks, Map<String, Task> nodes, Predicate<String> usable, boolean useIpAddress) throws IOException {
+        final Optional<Task> node = tasks.stream()
+                .map(taskInfo -> taskInfo.getTaskId().getValue())
+                .filter(taskId -> usable.test(taskId) && nodes.containsKey(taskId))
+                .map(nodes::get)
+                .findFirst();
+        if (!node.isPresent()) {
+            throw new IOException("No Elasticsearch node to ask");
+        }
+        return NetworkUtils.addressToString(node.get().getClientAddress(), useIpAddress);
+    }
+}
@@ -0,0 +1,398 @@
+package org.apache.mesos.elasticsearch.scheduler.cluster;
+
+import org.apache.log4j.Logger;
+import org.apache.mesos.Protos;
+import org.apache.mesos.SchedulerDriver;
+import org.apache.mesos.elasticsearch.scheduler.Configuration;
+import org.apache.mesos.elasticsearch.scheduler.NodeGroup;
+import org.apache.mesos.elasticsearch.scheduler.Task;
+import org.apache.mesos.elasticsearch.scheduler.state.ClusterState;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static org.apache.mesos.elasticsearch.scheduler.cluster.ElasticsearchAdminClient.ALLOCATION_ENABLE;
+import static org.apache.mesos.elasticsearch.scheduler.cluster.ElasticsearchAdminClient.MINIMUM_MASTER_NODES;
+
+/**
+ * Replaces the nodes of the cluster a few at a time, so that a new executor image or settings file is rolled out
+ * without downtime.
+ *
+ * Before each batch, shard allocation is limited to primaries and the nodes of the batch are killed. The scheduler
+ * launches their replacements from the current configuration, on the same hosts where possible, so they recover their
+ * shards from the data on disk instead of copying them over the network. Once the replacements have joined, allocation
+ * is enabled again, and the next batch only starts when the cluster is green.
+ *
+ * Killed nodes must not take the cluster below a quorum of master eligible nodes. Without dedicated masters, every data
+ * node is required by the configured minimum_master_nodes, so it is lowered to a quorum for the duration of the rollout
+ * and the parallelism is limited to the nodes above that quorum. With dedicated masters, each batch holds at most that
+ * many masters.
+ */
+public class RollingUpdate {
+    private static final Logger LOGGER = Logger.getLogger(RollingUpdate.class);
+    public static final long DEFAULT_INTERVAL_MS = 5000;
+    public static final int DEFAULT_TIMEOUT_MS = 5000;
+
+    /**
+     * The phases of a rollout.
+     */
+    public enum Phase {
+        WAITING_FOR_GREEN, // Before each batch
+        RESTARTING, // The batch is killed, waiting for the replacements to join
+        RECOVERING, // Allocation is enabled again, waiting for green
+        COMPLETED,
+        ABORTED
+    }
+
+    private final SchedulerDriver schedulerDriver;
+    private final Configuration configuration;
+    private final ClusterState clusterState;
+    private final long intervalMs;
+    private final ElasticsearchAdminClient client;
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "rolling-update");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final Deque<String> pending = new ArrayDeque<>(); // Task IDs still to replace
+    private Rollout rollout; // The last rollout, if any
+
+    public RollingUpdate(SchedulerDriver schedulerDriver, Configuration configuration, ClusterState clusterState) {
+        this(schedulerDriver, configuration, clusterState, DEFAULT_INTERVAL_MS, DEFAULT_TIMEOUT_MS);
+    }
+
+    public RollingUpdate(SchedulerDriver schedulerDriver, Configuration configuration, ClusterState clusterState, long intervalMs, int timeoutMs) {
+        this.schedulerDriver = schedulerDriver;
+        this.configuration = configuration;
+        this.clusterState = clusterState;
+        this.intervalMs = intervalMs;
+        this.client = new ElasticsearchAdminClient(timeoutMs);
+    }
+
+    public void start() {
+        executor.scheduleWithFixedDelay(this::run, intervalMs, intervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    public void stop() {
+        executor.shutdownNow();
+        try {
+            client.close();
+        } catch (IOException e) {
+            LOGGER.debug("Unable to close rolling update client", e);
+        }
+    }
+
+    /**
+     * Changes the configuration that new nodes are launched with, and starts replacing the running nodes.
+     *
+     * @param executorImage the docker image of new nodes, or null to keep the current one.
+     * @param settingsLocation the path or URL of the elasticsearch.yml of new nodes, or null to keep the current one.
+     * @param parallelism the number of nodes replaced at a time.
+     * @throws IllegalStateException if a rollout is already in progress, or there are too few master eligible nodes to
+     * keep a quorum while one is replaced.
+     * @throws IllegalArgumentException if the parallelism would take the cluster below a quorum of master eligible nodes.
+     */
+    public synchronized void rollout(String executorImage, String settingsLocation, int parallelism) {
+        if (isInProgress()) {
+            throw new IllegalStateException("A rollout is already in progress");
+        }
+        final List<Protos.TaskInfo> tasks = clusterState.getTaskList();
+        if (tasks.size() > 1 && spareMasterNodes() < 1) {
+            throw new IllegalStateException("Replacing any of " + masterEligibleNodes() + " master eligible nodes would lose the quorum of " + quorum() + ". Use at least 3.");
+        }
+        final int maxParallelism = tasks.size() <= 1 ? 1 : configuration.getMasterNodes() > 0 ? tasks.size() - 1 : spareMasterNodes();
+        if (parallelism < 1 || parallelism > maxParallelism) {
+            throw new IllegalArgumentException("Parallelism must be between 1 and " + maxParallelism + ", so that a quorum of master eligible nodes keeps serving");
+        }
+        if (executorImage != null) {
+            configuration.setExecutorImage(executorImage);
+        }
+        if (settingsLocation != null) {
+            configuration.setElasticsearchSettingsLocation(settingsLocation);
+        }
+        pending.clear();
+        for (int i = tasks.size() - 1; i >= 0; i--) { // The first node is the discovery seed of new nodes, so it is replaced last
+            pending.add(tasks.get(i).getTaskId().getValue());
+        }
+        rollout = new Rollout(parallelism, pending.size());
+        LOGGER.info("Rolling update. Replacing " + pending.size() + " nodes, " + parallelism + " at a time");
+    }
+
+    /**
+     * Stops replacing nodes and enables allocation again. Nodes that are already killed are still replaced by the
+     * scheduler.
+     */
+    public void abort() {
+        synchronized (this) {
+            if (!isInProgress()) {
+                return;
+            }
+            LOGGER.info("Rolling update. Aborted with " + pending.size() + " nodes left to replace");
+            pending.clear();
+            rollout.batch.clear();
+            rollout.phase = Phase.ABORTED;
+        }
+        restoreSettings("after aborting the rolling update");
+    }
+
+    /**
+     * Enables allocation and restores minimum_master_nodes, logging what to set by hand if that fails.
+     */
+    private void restoreSettings(String when) {
+        try {
+            setSetting(address(clusterState.getTaskList(), clusterState.getGuiTaskList(), Collections.emptyList()), ALLOCATION_ENABLE, "all");
+        } catch (Exception e) {
+            LOGGER.warn("Unable to enable shard allocation " + when + ". Set " + ALLOCATION_ENABLE + " to all by hand.", e);
+        }
+        try {
+            restoreMinimumMasterNodes(address(clusterState.getTaskList(), clusterState.getGuiTaskList(), Collections.emptyList()));
+        } catch (Exception e) {
+            LOGGER.warn("Unable to restore " + MINIMUM_MASTER_NODES + " " + when + ". Set it to " + NodeGroup.minimumMasterNodes(configuration) + " by hand.", e);
+        }
+    }
+
+    public synchronized Optional<Rollout> getRollout() {
+        return Optional.ofNullable(rollout).map(Rollout::new);
+    }
+
+    public synchronized boolean isInProgress() {
+        return rollout != null && rollout.phase != Phase.COMPLETED && rollout.phase != Phase.ABORTED;
+    }
+
+    /**
+     * Moves the rollout on. The state is read and changed under the monitor, but Elasticsearch is asked outside it, so
+     * {@link #getRollout()} and {@link #isInProgress()} do not wait for it. A change is only applied if the rollout is
+     * still in the phase it was read in, so an abort in the meantime wins.
+     */
+    public void run() {
+        try {
+            final List<Protos.TaskInfo> tasks = clusterState.getTaskList();
+            final Set<String> taskIds = tasks.stream().map(taskInfo -> taskInfo.getTaskId().getValue()).collect(Collectors.toSet());
+            final Rollout current;
+            final Phase phase;
+            final List<String> batch;
+            synchronized (this) {
+                if (!isInProgress()) {
+                    return;
+                }
+                pending.retainAll(taskIds); // Killed by someone else
+                current = rollout;
+                phase = rollout.phase;
+                batch = new ArrayList<>(rollout.batch);
+            }
+            final boolean complete = tasks.size() >= NodeGroup.totalNodes(configuration);
+            final String url = address(tasks, clusterState.getGuiTaskList(), batch);
+            final JSONObject health = getHealth(url);
+            switch (phase) {
+                case WAITING_FOR_GREEN:
+                    if (complete && isGreen(health)) {
+                        restartBatch(current, url, tasks);
+                    }
+                    break;
+                case RESTARTING:
+                    if (complete && batch.stream().noneMatch(taskIds::contains) && health.getInt("number_of_nodes") >= tasks.size()) {
+                        LOGGER.info("Rolling update. Replacements of " + batch + " have joined. Enabling shard allocation.");
+                        setSetting(url, ALLOCATION_ENABLE, "all");
+                        synchronized (this) {
+                            if (current.phase == Phase.RESTARTING) {
+                                current.phase = Phase.RECOVERING;
+                            }
+                        }
+                    }
+                    break;
+                case RECOVERING:
+                    if (isGreen(health)) {
+                        synchronized (this) {
+                            if (current.phase == Phase.RECOVERING) {
+                                current.replaced += current.batch.size();
+                                current.batch.clear();
+                                current.phase = Phase.WAITING_FOR_GREEN;
+                            }
+                        }
+                    }
+                    break;
+                default:
+                    break;
+            }
+        } catch (Exception ex) { // Catch all, or the ScheduledExecutorService would stop running the rollout.
+            LOGGER.debug("Problem with the rolling update. Retrying.", ex);
+        }
+    }
+
+    /**
+     * Limits allocation to primaries, so that the shards of the killed nodes are not copied elsewhere while they
+     * restart, and kills the next batch.
+     */
+    private void restartBatch(Rollout current, String url, List<Protos.TaskInfo> tasks) throws IOException {
+        final List<String> next = nextBatch(current, tasks);
+        if (next.isEmpty()) {
+            restoreMinimumMasterNodes(url);
+            synchronized (this) {
+                if (current.phase == Phase.WAITING_FOR_GREEN) {
+                    LOGGER.info("Rolling update. All " + current.replaced + " nodes replaced.");
+                    current.phase = Phase.COMPLETED;
+                }
+            }
+            return;
+        }
+        if (configuration.getMasterNodes() == 0) {
+            setSetting(url, MINIMUM_MASTER_NODES, Integer.toString(quorum()));
+        }
+        setSetting(url, ALLOCATION_ENABLE, "primaries");
+        synchronized (this) {
+            if (current.phase == Phase.WAITING_FOR_GREEN) {
+                pending.removeAll(next);
+                current.batch.addAll(next);
+                current.phase = Phase.RESTARTING;
+                LOGGER.info("Rolling update. Replacing " + next + ", " + pending.size() + " nodes left after this batch");
+            } else {
+                next.clear(); // Aborted while the settings were changed
+            }
+        }
+        if (next.isEmpty()) {
+            restoreSettings("after the rolling update was aborted");
+            return;
+        }
+        next.forEach(taskId -> schedulerDriver.killTask(Protos.TaskID.newBuilder().setValue(taskId).build()));
+    }
+
+    /**
+     * @return the pending nodes to replace next, with no more dedicated masters than can be down at once.
+     */
+    private synchronized List<String> nextBatch(Rollout current, List<Protos.TaskInfo> tasks) {
+        final Set<String> masters = tasks.stream()
+                .filter(taskInfo -> NodeGroup.MASTER.equals(NodeGroup.nameOf(taskInfo)))
+                .map(taskInfo -> taskInfo.getTaskId().getValue())
+                .collect(Collectors.toSet());
+        final List<String> next = new ArrayList<>();
+        int mastersInBatch = 0;
+        for (String taskId : pending) {
+            if (next.size() >= current.parallelism) {
+                break;
+            }
+            final boolean master = masters.contains(taskId);
+            if (master && mastersInBatch >= spareMasterNodes()) {
+                break; // The next batch takes it
+            }
+            mastersInBatch += master ? 1 : 0;
+            next.add(taskId);
+        }
+        return next;
+    }
+
+    /**
+     * Sets minimum_master_nodes back to the value the nodes are configured with.
+     */
+    private void restoreMinimumMasterNodes(String url) throws IOException {
+        if (configuration.getMasterNodes() == 0) {
+            setSetting(url, MINIMUM_MASTER_NODES, Integer.toString(NodeGroup.minimumMasterNodes(configuration)));
+        }
+    }
+
+    private int masterEligibleNodes() {
+        return configuration.getMasterNodes() > 0 ? configuration.getMasterNodes() : configuration.getElasticsearchNodes();
+    }
+
+    private int quorum() {
+        return masterEligibleNodes() / 2 + 1;
+    }
+
+    /**
+     * @return the number of master eligible nodes that can be down at once without losing a quorum.
+     */
+    private int spareMasterNodes() {
+        return masterEligibleNodes() - quorum();
+    }
+
+    private static boolean isGreen(JSONObject health) {
+        return "green".equals(health.getString("status"));
+    }
+
+    /**
+     * @return the HTTP address of a node that is not being replaced.
+     */
+    private String address(List<Protos.TaskInfo> tasks, Map<String, Task> nodes, Collection<String> batch) throws IOException {
+        return ElasticsearchAdminClient.address(tasks, nodes, taskId -> !batch.contains(taskId), configuration.getIsUseIpAddress());
+    }
+
+    protected JSONObject getHealth(String url) throws IOException {
+        return client.getJson(url, "/_cluster/health");
+    }
+
+    protected void setSetting(String url, String setting, String value) throws IOException {
+        client.setTransientSetting(url, setting, value);
+    }
+
+    /**
+     * The progress of a rollout.
+     */
+    public static class Rollout {
+        private final ZonedDateTime startedAt;
+        private final int parallelism;
+        private final int total;
+        private final List<String> batch;
+        private int replaced = 0;
+        private Phase phase = Phase.WAITING_FOR_GREEN;
+
+        Rollout(int parallelism, int total) {
+            this.startedAt = ZonedDateTime.now(ZoneOffset.UTC);
+            this.parallelism = parallelism;
+            this.total = total;
+            this.batch = new ArrayList<>();
+        }
+
+        Rollout(Rollout other) {
+            this.startedAt = other.startedAt;
+            this.parallelism = other.parallelism;
+            this.total = other.total;
+            this.batch = new ArrayList<>(other.batch);
+            this.replaced = other.replaced;
+            this.phase = other.phase;
+        }
+
+        public ZonedDateTime getStartedAt() {
+            return startedAt;
+        }
+
+        public int getParallelism() {
+            return parallelism;
+        }
+
+        /**
+         * @return the number of nodes when the rollout started.
+         */
+        public int getTotal() {
+            return total;
+        }
+
+        /**
+         * @return the task IDs of the nodes being replaced.
+         */
+        public List<String> getBatch() {
+            return batch;
+        }
+
+        public int getReplaced() {
+            return replaced;
+        }
+
+        public Phase getPhase() {
+            return phase;
+        }
+    }
+}
@@ -4,49 +4,405 @@ import org.apache.log4j.Logger;
 import org.apache.mesos.Protos;
 import org.apache.mesos.SchedulerDriver;
 import org.apache.mesos.elasticsearch.scheduler.Configuration;
+import org.apache.mesos.elasticsearch.scheduler.NodeGroup;
+import org.apache.mesos.elasticsearch.scheduler.Task;
 import org.apache.mesos.elasticsearch.scheduler.state.ClusterState;
 
+import java.io.IOException;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Collectors;
+
+import static org.apache.mesos.elasticsearch.scheduler.cluster.ElasticsearchAdminClient.EXCLUDE_IP;
 
 /**
- * A scheduled task to reap tasks when the configuration changes
+ * Scales the cluster down when the configured number of nodes is lowered, without losing data.
+ *
+ * Nodes are not killed at once. The nodes holding the fewest shards, then the fewest bytes, are chosen, and Elasticsearch
+ * is told to move their shards away by excluding their IP addresses from allocation. A node is only killed when every
+ * shard copy it holds is also started on a node that stays. The reaper runs in the background until all chosen nodes
+ * are gone, and then lifts the exclusion. If the configured number of nodes is raised during a drain, the drain stops.
+ *
+ * Nodes are excluded by IP address ({@code cluster.routing.allocation.exclude._ip}), because the framework runs one
+ * node per host and knows the address of each, but not the name Elasticsearch gave it. The setting is transient and
+ * owned by the reaper while it drains.
+ *
+ * Only data nodes are drained. Dedicated master and client nodes hold no shards, so surplus ones are killed at once.
+ *
+ * One check runs at a time. Elasticsearch is asked without holding the monitor, so {@link #getDecommissions()} does not
+ * wait for it.
  */
 public class TaskReaper {
     private static final Logger LOGGER = Logger.getLogger(TaskReaper.class);
+    public static final long DEFAULT_INTERVAL_MS = 5000;
+    public static final int DEFAULT_TIMEOUT_MS = 5000;
 
     private ClusterState clusterState;
     private Configuration configuration;
     private SchedulerDriver schedulerDriver;
+    private final long intervalMs;
+    private final ElasticsearchAdminClient client;
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "task-reaper");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final Map<String, Decommission> decommissions = new LinkedHashMap<>(); // Task ID -> drain in progress
+    private final Set<String> killedWithoutDrain = new HashSet<>(); // Surplus master and client nodes. Only used by the check.
+    private String excludedIps = ""; // Only used by the check
+    private final ReentrantLock checking = new ReentrantLock();
+    private final AtomicBoolean checkRequested = new AtomicBoolean();
 
     public TaskReaper(SchedulerDriver schedulerDriver, Configuration configuration, ClusterState clusterState) {
+        this(schedulerDriver, configuration, clusterState, DEFAULT_INTERVAL_MS, DEFAULT_TIMEOUT_MS);
+    }
+
+    public TaskReaper(SchedulerDriver schedulerDriver, Configuration configuration, ClusterState clusterState, long intervalMs, int timeoutMs) {
         this.clusterState = clusterState;
         this.configuration = configuration;
         this.schedulerDriver = schedulerDriver;
+        this.intervalMs = intervalMs;
         if (clusterState == null || configuration == null) {
             throw new IllegalArgumentException("Task reaper cannot start with null cluster state or configuration");
         }
+        this.client = new ElasticsearchAdminClient(timeoutMs);
     }
 
-    public void run() {
+    /**
+     * Checks the drain every interval, so that drained nodes are killed without waiting for another configuration
+     * change.
+     */
+    public void start() {
+        executor.scheduleWithFixedDelay(this::run, intervalMs, intervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    public void stop() {
+        executor.shutdownNow();
         try {
-            int numToKill = clusterState.getTaskList().size() - configuration.getElasticsearchNodes();
-            if (numToKill > 0) {
-                LOGGER.debug("Task reaper. There are " + numToKill + " tasks to kill");
-                List<Protos.TaskInfo> taskList = clusterState.getTaskList();
-                int size = taskList.size();
-                numToKill = Math.min(numToKill, size);
-                for (int x = 0; x < numToKill; x++) {
-                    int taskIndex = size - 1 - x;
-                    LOGGER.debug("Killing task index " + taskIndex);
-                    Protos.TaskInfo killTaskInfo = taskList.get(taskIndex);
-                    Protos.TaskID killTaskId = killTaskInfo.getTaskId();
-                    LOGGER.debug("Killing task: " + killTaskId);
-                    Protos.Status status = schedulerDriver.killTask(killTaskId);
-                    LOGGER.debug("Kill request response: " + status.toString());
+            client.close();
+        } catch (IOException e) {
+            LOGGER.debug("Unable to close task reaper client", e);
+        }
+    }
+
+    /**
+     * Checks the drain. If a check is already running in another thread, returns at once and that thread checks again
+     * when it is done, so a configuration change is never missed.
+     */
+    public void run() {
+        checkRequested.set(true);
+        while (checkRequested.get() && checking.tryLock()) {
+            try {
+                if (checkRequested.getAndSet(false)) {
+                    check();
+                }
+            } catch (Exception ex) { // One hell of a catch all. ScheduledExecutorService not restart if there is an exception. So we catch all to prevent it from silently failing.
+                LOGGER.debug("Problem with the task reaper, but carrying on like a trooper.", ex);
+            } finally {
+                checking.unlock();
+            }
+        }
+    }
+
+    /**
+     * Only one check runs at a time. It changes the decommissions under the monitor, and makes its HTTP calls outside.
+     */
+    private void check() throws IOException {
+        final List<Protos.TaskInfo> allTasks = clusterState.getTaskList();
+        final Set<String> taskIds = allTasks.stream().map(taskInfo -> taskInfo.getTaskId().getValue()).collect(Collectors.toSet());
+        synchronized (this) {
+            decommissions.keySet().retainAll(taskIds); // Killed and gone
+        }
+        killedWithoutDrain.retainAll(taskIds);
+        killSurplus(allTasks, NodeGroup.MASTER);
+        killSurplus(allTasks, NodeGroup.CLIENT);
+        final List<Protos.TaskInfo> tasks = inGroup(allTasks, NodeGroup.DATA);
+        int numToKill = tasks.size() - configuration.getElasticsearchNodes();
+        if (numToKill >= tasks.size()) {
+            LOGGER.info("Task reaper. Killing all " + tasks.size() + " tasks. There are no nodes left to move shards to.");
+            tasks.forEach(taskInfo -> kill(taskInfo.getTaskId()));
+            synchronized (this) {
+                decommissions.clear();
+            }
+            return;
+        }
+        if (numToKill <= 0 && decommissions.values().stream().noneMatch(Decommission::isKilled)) {
+            stopDrains();
+            updateExclusion(tasks);
+            return;
+        }
+        final Map<String, Task> nodes = clusterState.getGuiTaskList();
+        final List<ShardCopy> shards = getShards(address(tasks, nodes));
+        chooseVictims(tasks, nodes, shards, numToKill);
+        updateExclusion(tasks);
+        final Set<String> excluded = decommissions.values().stream().map(decommission -> decommission.ip).collect(Collectors.toSet());
+        for (Decommission decommission : new ArrayList<>(decommissions.values())) {
+            if (decommission.isKilled()) {
+                continue;
+            }
+            final List<ShardCopy> remaining = onlyCopies(decommission.ip, shards, excluded);
+            final boolean drained = remaining.isEmpty();
+            synchronized (this) {
+                decommission.update(remaining.size(), remaining.stream().mapToLong(shard -> shard.bytes).sum());
+                decommission.killed = drained;
+            }
+            if (drained) {
+                LOGGER.info("Task reaper. Node " + decommission.taskId + " holds no data that is not also on other nodes. Killing it.");
+                kill(Protos.TaskID.newBuilder().setValue(decommission.taskId).build());
+            } else {
+                LOGGER.debug("Task reaper. Node " + decommission.taskId + " still holds " + remaining.size() + " shards (" + decommission.bytes + " bytes)");
+            }
+        }
+    }
+
+    private synchronized void stopDrains() {
+        if (!decommissions.isEmpty()) {
+            LOGGER.info("Task reaper. The cluster no longer needs to shrink. Stopping the drain of " + decommissions.keySet());
+            decommissions.clear();
+        }
+    }
+
+    /**
+     * Kills the newest nodes of a group that holds no data, down to its configured size.
+     */
+    private void killSurplus(List<Protos.TaskInfo> allTasks, String group) {
+        final List<Protos.TaskInfo> tasks = inGroup(allTasks, group);
+        final int surplus = tasks.size() - NodeGroup.named(configuration, group).map(NodeGroup::getCount).orElse(0);
+        for (int i = tasks.size() - surplus; i < tasks.size() && surplus > 0; i++) {
+            final String taskId = tasks.get(i).getTaskId().getValue();
+            if (killedWithoutDrain.add(taskId)) {
+                LOGGER.info("Task reaper. Killing surplus " + group + " node " + taskId);
+                kill(tasks.get(i).getTaskId());
+            }
+        }
+    }
+
+    private static List<Protos.TaskInfo> inGroup(List<Protos.TaskInfo> tasks, String group) {
+        return tasks.stream().filter(taskInfo -> group.equals(NodeGroup.nameOf(taskInfo))).collect(Collectors.toList());
+    }
+
+    /**
+     * @return the nodes being drained or killed, and how much data they still hold that is not on other nodes.
+     */
+    public synchronized List<Decommission> getDecommissions() {
+        return decommissions.values().stream().map(Decommission::new).collect(Collectors.toList());
+    }
+
+    /**
+     * Chooses nodes to drain, so that numToKill nodes are drained or killed. Nodes with the fewest shards, then the
+     * fewest bytes, are the quickest to drain and cause the least relocation.
+     */
+    private synchronized void chooseVictims(List<Protos.TaskInfo> tasks, Map<String, Task> nodes, List<ShardCopy> shards, int numToKill) {
+        final List<Decommission> draining = decommissions.values().stream().filter(decommission -> !decommission.isKilled()).collect(Collectors.toList());
+        final long killed = decommissions.size() - draining.size();
+        final int wanted = (int) Math.max(0, numToKill - killed);
+        if (draining.size() > wanted) {
+            draining.stream().sorted(Comparator.comparingInt((Decommission decommission) -> decommission.shards).reversed())
+                    .limit(draining.size() - wanted)
+                    .forEach(decommission -> {
+                        LOGGER.info("Task reaper. Node " + decommission.taskId + " is no longer needed to shrink the cluster. Stopping its drain.");
+                        decommissions.remove(decommission.taskId);
+                    });
+            return;
+        }
+        tasks.stream()
+                .map(taskInfo -> taskInfo.getTaskId().getValue())
+                .filter(taskId -> !decommissions.containsKey(taskId) && nodes.containsKey(taskId))
+                .sorted(Comparator.comparingLong((String taskId) -> held(ip(nodes.get(taskId)), shards).size())
+                        .thenComparingLong(taskId -> held(ip(nodes.get(taskId)), shards).stream().mapToLong(shard -> shard.bytes).sum()))
+                .limit(wanted - draining.size())
+                .forEach(taskId -> {
+                    final Task node = nodes.get(taskId);
+                    LOGGER.info("Task reaper. Draining node " + taskId + " on " + node.getHostname() + " before killing it");
+                    decommissions.put(taskId, new Decommission(taskId, node.getHostname(), ip(node)));
+                });
+    }
+
+    /**
+     * Excludes the nodes being drained from shard allocation, or lifts the exclusion when there are none.
+     */
+    private void updateExclusion(List<Protos.TaskInfo> tasks) throws IOException {
+        final String ips = decommissions.values().stream().map(decommission -> decommission.ip).distinct().collect(Collectors.joining(","));
+        if (!ips.equals(excludedIps)) {
+            setSetting(address(tasks, clusterState.getGuiTaskList()), EXCLUDE_IP, ips);
+            excludedIps = ips;
+            LOGGER.info("Task reaper. Excluded from shard allocation: [" + ips + "]");
+        }
+    }
+
+    /**
+     * @return the HTTP address of a node that is not being drained.
+     */
+    private String address(List<Protos.TaskInfo> tasks, Map<String, Task> nodes) throws IOException {
+        return ElasticsearchAdminClient.address(tasks, nodes, taskId -> !decommissions.containsKey(taskId), configuration.getIsUseIpAddress());
+    }
+
+    private void kill(Protos.TaskID taskID) {
+        LOGGER.debug("Killing task: " + taskID.getValue());
+        Protos.Status status = schedulerDriver.killTask(taskID);
+        LOGGER.debug("Kill request response: " + status);
+    }
+
+    private static String ip(Task node) {
+        return node.getTransportAddress().getHostString();
+    }
+
+    private static List<ShardCopy> held(String ip, List<ShardCopy> shards) {
+        return shards.stream().filter(shard -> shard.isHeld() && ip.equals(shard.ip)).collect(Collectors.toList());
+    }
+
+    /**
+     * @return the shard copies on the node that are not started on any node that stays, i.e. is not excluded. The node
+     * can only be killed when there are none.
+     */
+    private static List<ShardCopy> onlyCopies(String ip, List<ShardCopy> shards, Set<String> excluded) {
+        final Set<String> elsewhere = new HashSet<>();
+        shards.stream().filter(shard -> shard.isStarted() && !excluded.contains(shard.ip)).forEach(shard -> elsewhere.add(shard.id()));
+        return held(ip, shards).stream().filter(shard -> !elsewhere.contains(shard.id())).collect(Collectors.toList());
+    }
+
+    protected List<ShardCopy> getShards(String url) throws IOException {
+        return ShardCopy.parse(client.get(url, "/_cat/shards?h=index,shard,prirep,state,store,ip&bytes=b"));
+    }
+
+    protected void setSetting(String url, String setting, String value) throws IOException {
+        client.setTransientSetting(url, setting, value);
+    }
+
+    /**
+     * One copy of a shard, as listed by {@code _cat/shards}.
+     */
+    public static class ShardCopy {
+        final String index;
+        final String shard;
+        final String state;
+        final long bytes;
+        final String ip;
+
+        public ShardCopy(String index, String shard, String state, long bytes, String ip) {
+            this.index = index;
+            this.shard = shard;
+            this.state = state;
+            this.bytes = bytes;
+            this.ip = ip;
+        }
+
+        /**
+         * Parses the columns index, shard, prirep, state, store and ip. Store and ip are blank for some states, so
+         * they are told apart by their content.
+         */
+        public static List<ShardCopy> parse(String catShards) {
+            final List<ShardCopy> shards = new ArrayList<>();
+            for (String line : catShards.split("\n")) {
+                final String[] columns = line.trim().split("\\s+");
+                if (columns.length < 4) {
+                    continue;
+                }
+                long bytes = 0;
+                String ip = "";
+                for (int i = 4; i < columns.length; i++) {
+                    if (columns[i].matches("\\d+")) {
+                        bytes = Long.parseLong(columns[i]);
+                    } else {
+                        ip = columns[i];
+                    }
                 }
+                shards.add(new ShardCopy(columns[0], columns[1], columns[3], bytes, ip));
             }
-        } catch (Exception ex) { // One hell of a catch all. ScheduledExecutorService not restart if there is an exception. So we catch all to prevent it from silently failing.
-            LOGGER.debug("Problem with the task reaper, but carrying on like a trooper.", ex);
+            return shards;
+        }
+
+        String id() {
+            return index + "/" + shard;
+        }
+
+        boolean isStarted() {
+            return "STARTED".equals(state);
+        }
+
+        /**
+         * A relocating copy is still held by the node it is moving from.
+         */
+        boolean isHeld() {
+            return isStarted() || "RELOCATING".equals(state) || "INITIALIZING".equals(state);
+        }
+    }
+
+    /**
+     * A node that is drained before it is killed.
+     */
+    public static class Decommission {
+        private final String taskId;
+        private final String hostname;
+        private final String ip;
+        private final ZonedDateTime startedAt;
+        private int shards = -1; // Unknown until the first check
+        private long bytes = -1;
+        private boolean killed = false;
+
+        Decommission(String taskId, String hostname, String ip) {
+            this.taskId = taskId;
+            this.hostname = hostname;
+            this.ip = ip;
+            this.startedAt = ZonedDateTime.now(ZoneOffset.UTC);
+        }
+
+        Decommission(Decommission other) {
+            this.taskId = other.taskId;
+            this.hostname = other.hostname;
+            this.ip = other.ip;
+            this.startedAt = other.startedAt;
+            this.shards = other.shards;
+            this.bytes = other.bytes;
+            this.killed = other.killed;
+        }
+
+        void update(int shards, long bytes) {
+            this.shards = shards;
+            this.bytes = bytes;
+        }
+
+        public String getTaskId() {
+            return taskId;
+        }
+
+        public String getHostname() {
+            return hostname;
+        }
+
+        public String getIp() {
+            return ip;
+        }
+
+        public ZonedDateTime getStartedAt() {
+            return startedAt;
+        }
+
+        /**
+         * @return the number of shards on the node that are not yet started on a node that stays.
+         */
+        public int getShards() {
+            return shards;
+        }
+
+        public long getBytes() {
+            return bytes;
+        }
+
+        public boolean isKilled() {
+            return killed;
         }
     }
 }
@@ -33,11 +33,18 @@ public class ExecutorEnvironmentalVariables {
      * @param configuration The mesos cluster configuration
      */
     public ExecutorEnvironmentalVariables(Configuration configuration) {
-        populateEnvMap(configuration);
+        populateEnvMap(configuration, configuration.getMem());
     }
 
     public ExecutorEnvironmentalVariables(Configuration configuration, long lNodeId) {
-        populateEnvMap(configuration);
+        this(configuration, lNodeId, configuration.getMem());
+    }
+
+    /**
+     * @param mem the memory of the node (MB), which its heap is sized from.
+     */
+    public ExecutorEnvironmentalVariables(Configuration configuration, long lNodeId, double mem) {
+        populateEnvMap(configuration, mem);
 
         if (lNodeId == EXTERNAL_VOLUME_NOT_CONFIGURED) {
             return; //invalid node id
@@ -62,8 +69,8 @@ public class ExecutorEnvironmentalVariables {
      * Adds environmental variables to the list. Please add new environmental variables here.
      * @param configuration
      */
-    private void populateEnvMap(Configuration configuration) {
-        addToList(ES_HEAP, getHeapSpaceString(configuration));
+    private void populateEnvMap(Configuration configuration, double mem) {
+        addToList(ES_HEAP, getHeapSpaceString(mem));
         if (configuration.isFrameworkUseDocker()) {
             addToList(native_mesos_library_key, native_mesos_library_path);
         }
@@ -104,11 +111,11 @@ public class ExecutorEnvironmentalVariables {
 
     /**
      * Gets the heap space settings. Will set heap space to (available - 256MB) or available/4, whichever is smaller.
-     * @param configuration The mesos cluster configuration
+     * @param mem The memory of the node (MB)
      * @return A string representing the java heap space.
      */
-    private String getHeapSpaceString(Configuration configuration) {
-        int osRam = (int) Math.min(256.0, configuration.getMem() / 4.0);
-        return "" + ((int) configuration.getMem() - osRam) + "m";
+    private String getHeapSpaceString(double mem) {
+        int osRam = (int) Math.min(256.0, mem / 4.0);
+        return "" + ((int) mem - osRam) + "m";
     }
 }
\ No newline at end of file
@@ -4,6 +4,9 @@ import org.apache.log4j.Logger;
 import org.apache.mesos.Protos;
 import org.apache.mesos.elasticsearch.scheduler.Configuration;
 import org.apache.mesos.elasticsearch.scheduler.ElasticsearchScheduler;
+import org.apache.mesos.elasticsearch.scheduler.NodeGroup;
+import org.apache.mesos.elasticsearch.scheduler.cluster.RollingUpdate;
+import org.apache.mesos.elasticsearch.scheduler.cluster.TaskReaper;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
@@ -12,8 +15,11 @@ import org.springframework.web.bind.annotation.ResponseBody;
 import org.springframework.web.bind.annotation.RestController;
 
 import java.lang.reflect.Method;
+import java.time.format.DateTimeFormatter;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.stream.Collectors;
 
@@ -79,7 +85,8 @@ public class ClusterController {
 
     @RequestMapping(value = "/elasticsearchNodes", method = RequestMethod.GET)
     @ResponseBody public ElasticsearchNodesWrapper getElasticsearchNodes() {
-        return new ElasticsearchNodesWrapper(scheduler.getTasks().size()); // This method should represent the current state, not the setting in the config.
+        final long dataNodes = scheduler.getTasks().values().stream().filter(task -> NodeGroup.DATA.equals(task.getNodeGroup())).count();
+        return new ElasticsearchNodesWrapper((int) dataNodes); // This method should represent the current state, not the setting in the config. Like the setting, it counts data nodes only.
     }
 
     @RequestMapping(value = "/elasticsearchNodes", method = RequestMethod.PUT)
@@ -88,6 +95,83 @@ public class ClusterController {
         scheduler.reapTasks();
     }
 
+    /**
+     * @return the progress of the nodes that are drained before they are killed, after the number of nodes was lowered.
+     */
+    @RequestMapping(value = "/elasticsearchNodes/decommissions", method = RequestMethod.GET)
+    public List<DecommissionResponse> getDecommissions() {
+        return scheduler.getDecommissions().stream().map(DecommissionResponse::new).collect(Collectors.toList());
+    }
+
+    /**
+     * Starts replacing the nodes a few at a time, with the given image and settings.
+     */
+    @RequestMapping(value = "/rollout", method = RequestMethod.POST)
+    public RolloutResponse startRollout(@RequestBody RolloutRequest request) {
+        scheduler.startRollout(request.executorImage, request.elasticsearchSettingsLocation, request.parallelism);
+        return getRollout();
+    }
+
+    @RequestMapping(value = "/rollout", method = RequestMethod.GET)
+    public RolloutResponse getRollout() {
+        return scheduler.getRollout().map(RolloutResponse::new).orElseGet(RolloutResponse::new);
+    }
+
+    @RequestMapping(value = "/rollout", method = RequestMethod.DELETE)
+    public RolloutResponse abortRollout() {
+        scheduler.abortRollout();
+        return getRollout();
+    }
+
+    /**
+     * HTTP request entity class. Settings left out are not changed.
+     */
+    public static class RolloutRequest {
+        public String executorImage;
+        public String elasticsearchSettingsLocation;
+        public int parallelism = 1;
+    }
+
+    /**
+     * HTTP response entity class
+     */
+    public static class RolloutResponse {
+        public String phase = "NONE", startedAt;
+        public int parallelism, total, replaced;
+        public List<String> batch = Collections.emptyList();
+
+        public RolloutResponse() {
+        }
+
+        public RolloutResponse(RollingUpdate.Rollout rollout) {
+            this.phase = rollout.getPhase().name();
+            this.startedAt = rollout.getStartedAt().format(DateTimeFormatter.ISO_OFFSET_DATE_TIME);
+            this.parallelism = rollout.getParallelism();
+            this.total = rollout.getTotal();
+            this.replaced = rollout.getReplaced();
+            this.batch = rollout.getBatch();
+        }
+    }
+
+    /**
+     * HTTP response entity class
+     */
+    public static class DecommissionResponse {
+        public String taskId, hostname, ip, startedAt, state;
+        public int shards;
+        public long bytes;
+
+        public DecommissionResponse(TaskReaper.Decommission decommission) {
+            this.taskId = decommission.getTaskId();
+            this.hostname = decommission.getHostname();
+            this.ip = decommission.getIp();
+            this.startedAt = decommission.getStartedAt().format(DateTimeFormatter.ISO_OFFSET_DATE_TIME);
+            this.state = decommission.isKilled() ? "KILLED" : "DRAINING";
+            this.shards = decommission.getShards();
+            this.bytes = decommission.getBytes();
+        }
+    }
+
     /**
      *
      */
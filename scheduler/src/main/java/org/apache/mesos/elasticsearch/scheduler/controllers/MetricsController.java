@@ -0,0 +1,46 @@
+package org.apache.mesos.elasticsearch.scheduler.controllers;
+
+import org.apache.mesos.elasticsearch.scheduler.ElasticsearchScheduler;
+import org.apache.mesos.elasticsearch.scheduler.OfferMetrics;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.Map;
+
+/**
+ * Scheduler metrics
+ */
+@RestController
+@RequestMapping("/v1/metrics")
+public class MetricsController {
+
+    @Autowired
+    ElasticsearchScheduler scheduler;
+
+    @RequestMapping(value = "/offers", method = RequestMethod.GET)
+    public OfferMetricsResponse offerMetrics() {
+        final OfferMetrics metrics = scheduler.getOfferMetrics();
+        final OfferMetricsResponse response = new OfferMetricsResponse();
+        response.accepted = metrics.getAccepted();
+        response.declined = metrics.getDeclined();
+        response.evaluations = metrics.getEvaluations();
+        response.meanEvaluationMicros = metrics.getMeanEvaluationMicros();
+        response.maxEvaluationMicros = metrics.getMaxEvaluationMicros();
+        response.evaluationHistogram = metrics.getEvaluationHistogram();
+        return response;
+    }
+
+    /**
+     * HTTP response entity class
+     */
+    public static class OfferMetricsResponse {
+        public long accepted;
+        public Map<String, Long> declined;
+        public long evaluations;
+        public double meanEvaluationMicros;
+        public long maxEvaluationMicros;
+        public Map<String, Long> evaluationHistogram;
+    }
+}
@@ -43,7 +43,7 @@ public class TasksController {
     }
 
     private GetTasksResponse from(Map.Entry<String, Task> task) {
-        return new GetTasksResponse(
+        final GetTasksResponse response = new GetTasksResponse(
             task.getValue().getTaskId(),
             task.getValue().getState().toString(),
             configuration.getTaskName(),
@@ -53,6 +53,8 @@ public class TasksController {
             toFormattedAddress(task.getValue().getTransportAddress()).orElse("UNRESOLVED"),
             task.getValue().getHostname()
         );
+        response.nodeGroup = task.getValue().getNodeGroup();
+        return response;
     }
 
     private Optional<String> toFormattedAddress(InetSocketAddress clientAddress) {
@@ -68,6 +70,7 @@ public class TasksController {
      */
     public static class GetTasksResponse {
         public String id, state, name, version, startedAt, httpAddress, transportAddress, hostname;
+        public String nodeGroup;
 
         public GetTasksResponse(String id, String state, String name, String version, String startedAt, String httpAddress, String transportAddress, String hostname) {
             this.id = id;
@@ -12,6 +12,7 @@ import javax.validation.constraints.NotNull;
 import java.io.IOException;
 import java.security.InvalidParameterException;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
 
@@ -19,12 +20,26 @@ import static org.apache.mesos.Protos.TaskID;
 
 /**
  * Model of cluster state. User is able to add, remove and monitor task status.
+ * The task list and task statuses are held in memory and written through to zookeeper on every mutation. Zookeeper is
+ * only read when the state is (re)loaded, i.e. on first use and when the framework (re)registers.
+ *
+ * Each TaskInfo is stored in its own zNode under {@code frameworkId/tasks/}, so adding or removing a task only writes
+ * that task. The Mesos state API cannot list nested zNodes, so the {@code frameworkId/tasks} zNode itself holds the
+ * list of task IDs, stored as {@link TaskID} messages so it is written in the protobuf format.
+ *
+ * When a task fails, the slave it ran on is remembered, because the node's data is still there. The replacement can
+ * then be sent back to that slave, instead of recovering every shard over the network.
  */
 public class ClusterState {
     public static final Logger LOGGER = Logger.getLogger(ClusterState.class);
-    public static final String STATE_LIST = "stateList";
+    public static final String STATE_LIST = "stateList"; // Legacy single zNode layout. Migrated on load.
+    public static final String TASKS = "tasks";
     private SerializableState zooKeeperStateDriver;
     private FrameworkState frameworkState;
+    private final StatePath statePath;
+    private volatile List<TaskInfo> taskList; // Immutable snapshot. Null until loaded.
+    private final Map<String, Protos.TaskStatus> statusMap = new ConcurrentHashMap<>();
+    private final Map<Protos.SlaveID, Long> lostDataLocations = new ConcurrentHashMap<>(); // Slave -> when its task failed (ms)
 
     public ClusterState(@NotNull SerializableState zooKeeperStateDriver, @NotNull FrameworkState frameworkState) {
         if (zooKeeperStateDriver == null || frameworkState == null) {
@@ -32,7 +47,7 @@ public class ClusterState {
         }
         this.zooKeeperStateDriver = zooKeeperStateDriver;
         this.frameworkState = frameworkState;
-        frameworkState.onStatusUpdate(this::updateTask);
+        this.statePath = new StatePath(zooKeeperStateDriver);
     }
 
     /**
@@ -40,13 +55,85 @@ public class ClusterState {
      * @return a list of TaskInfo
      */
     public List<TaskInfo> getTaskList() {
-        List<TaskInfo> taskInfoList = null;
+        return new ArrayList<>(tasks());
+    }
+
+    /**
+     * Discards the in-memory state and rebuilds it from zookeeper. Called when the framework (re)registers, so that
+     * a failed over scheduler picks up the state written by its predecessor.
+     */
+    public synchronized void reload() {
+        List<TaskInfo> taskInfoList = new ArrayList<>();
         try {
-            taskInfoList = zooKeeperStateDriver.get(getKey());
+            List<?> taskIds = zooKeeperStateDriver.get(getTasksKey());
+            if (taskIds == null) {
+                taskInfoList.addAll(migrateStateList());
+            } else {
+                boolean legacyIndex = false;
+                for (Object entry : taskIds) {
+                    legacyIndex |= entry instanceof String; // Older versions listed the IDs as Java serialized Strings
+                    final String taskId = entry instanceof TaskID ? ((TaskID) entry).getValue() : (String) entry;
+                    TaskInfo taskInfo = zooKeeperStateDriver.get(getTaskKey(taskId));
+                    if (taskInfo == null) {
+                        LOGGER.warn("Task " + taskId + " is listed but has no TaskInfo in zookeeper. Ignoring.");
+                    } else {
+                        taskInfoList.add(taskInfo);
+                    }
+                }
+                if (legacyIndex) {
+                    writeTaskIndex(taskInfoList);
+                }
+            }
         } catch (IOException e) {
             LOGGER.info("Unable to get key for cluster state due to invalid frameworkID.", e);
         }
-        return taskInfoList == null ? new ArrayList<>(0) : taskInfoList;
+        statusMap.clear();
+        taskInfoList.forEach(this::loadStatus);
+        taskList = Collections.unmodifiableList(taskInfoList);
+        LOGGER.debug("Loaded executor state list: " + logTaskList(taskList));
+    }
+
+    /**
+     * Moves tasks from the legacy single {@link #STATE_LIST} zNode into one zNode per task.
+     * @return the migrated tasks, or an empty list if there is no legacy state.
+     */
+    private List<TaskInfo> migrateStateList() throws IOException {
+        final String legacyKey = frameworkState.getFrameworkID().getValue() + "/" + STATE_LIST;
+        List<TaskInfo> legacyList = zooKeeperStateDriver.get(legacyKey);
+        if (legacyList == null) {
+            return Collections.emptyList();
+        }
+        LOGGER.info("Migrating " + legacyList.size() + " tasks from " + legacyKey + " to " + getTasksKey());
+        for (TaskInfo taskInfo : legacyList) {
+            writeTask(taskInfo);
+        }
+        writeTaskIndex(legacyList);
+        statePath.rm(legacyKey);
+        return legacyList;
+    }
+
+    private void loadStatus(TaskInfo taskInfo) {
+        try {
+            Protos.TaskStatus status = getStatus(taskInfo).getStatus();
+            if (status != null) {
+                statusMap.put(taskInfo.getTaskId().getValue(), status);
+            }
+        } catch (IllegalStateException e) {
+            LOGGER.warn("Unable to load status of task " + taskInfo.getTaskId().getValue(), e);
+        }
+    }
+
+    private List<TaskInfo> tasks() {
+        List<TaskInfo> current = taskList;
+        if (current == null) {
+            synchronized (this) {
+                if (taskList == null) {
+                    reload();
+                }
+                current = taskList;
+            }
+        }
+        return current;
     }
 
     /**
@@ -60,7 +147,7 @@ public class ClusterState {
     }
 
     private List<Integer> getElasticNodeIdList() {
-        return getTaskList().stream()
+        return tasks().stream()
                 .filter(this::containsElasticNodeId)
                 .map(this::getElasticNodeId)
                 .map(Integer::parseInt)
@@ -81,10 +168,19 @@ public class ClusterState {
      */
     public Map<String, Task> getGuiTaskList() {
         Map<String, Task> tasks = new HashMap<>();
-        getTaskList().forEach(taskInfo -> tasks.put(taskInfo.getTaskId().getValue(), TaskInfoFactory.parse(taskInfo, getStatus(taskInfo.getTaskId()).getStatus(), new Clock())));
+        tasks().forEach(taskInfo -> tasks.put(taskInfo.getTaskId().getValue(), TaskInfoFactory.parse(taskInfo, getCachedStatus(taskInfo), new Clock())));
         return tasks;
     }
 
+    /**
+     * Status of a task, as loaded from zookeeper or received since.
+     * @return the last known status, or null if none has been recorded.
+     */
+    private Protos.TaskStatus getCachedStatus(TaskInfo taskInfo) {
+        tasks(); // Statuses are loaded with the tasks
+        return statusMap.get(taskInfo.getTaskId().getValue());
+    }
+
     /**
      * Get the status of a specific task
      * @param taskID the taskID to retreive the task status for
@@ -96,31 +192,45 @@ public class ClusterState {
     }
 
     private ESTaskStatus getStatus(TaskInfo taskInfo) {
-        return new ESTaskStatus(zooKeeperStateDriver, frameworkState.getFrameworkID(), taskInfo, new StatePath(zooKeeperStateDriver));
+        return new ESTaskStatus(zooKeeperStateDriver, frameworkState.getFrameworkID(), taskInfo, statePath);
+    }
+
+    /**
+     * @return the paths known to exist in zookeeper. Share it with new task statuses, so their parents are not checked
+     * again.
+     */
+    public StatePath getStatePath() {
+        return statePath;
     }
 
     public void addTask(ESTaskStatus esTask) {
         addTask(esTask.getTaskInfo());
     }
 
-    public void addTask(TaskInfo taskInfo) {
+    public synchronized void addTask(TaskInfo taskInfo) {
         LOGGER.debug("Adding TaskInfo to cluster for task: " + taskInfo.getTaskId().getValue());
         if (exists(taskInfo.getTaskId())) {
             removeTask(taskInfo);
         }
         List<TaskInfo> taskList = getTaskList();
         taskList.add(taskInfo);
-        setTaskInfoList(taskList);
+        lostDataLocations.remove(taskInfo.getSlaveId()); // The data has a node again
+        this.taskList = Collections.unmodifiableList(taskList);
+        writeTask(taskInfo); // Write the task before listing it, so the index never refers to a missing zNode.
+        writeTaskIndex(taskList);
     }
 
-    public void removeTask(TaskInfo taskInfo) throws InvalidParameterException {
+    public synchronized void removeTask(TaskInfo taskInfo) throws InvalidParameterException {
         List<TaskInfo> taskList = getTaskList();
         LOGGER.debug("Removing TaskInfo from cluster for task: " + taskInfo.getTaskId().getValue());
         if (!taskList.remove(taskInfo)) {
             throw new InvalidParameterException("TaskInfo does not exist in list: " + taskInfo.getTaskId().getValue());
         }
         getStatus(taskInfo).destroy(); // Destroy task status in ZK.
-        setTaskInfoList(taskList); // Remove from cluster state list
+        statusMap.remove(taskInfo.getTaskId().getValue());
+        this.taskList = Collections.unmodifiableList(taskList);
+        writeTaskIndex(taskList); // Remove from cluster state list
+        deleteTask(taskInfo);
     }
 
     public Boolean exists(TaskID taskId) {
@@ -139,7 +249,7 @@ public class ClusterState {
      * @throws IllegalArgumentException when the taskId does not exist in the Task list.
      */
     public TaskInfo getTask(TaskID taskID) throws IllegalArgumentException {
-        List<TaskInfo> taskInfoList = getTaskList();
+        List<TaskInfo> taskInfoList = tasks();
         TaskInfo taskInfo = null;
         for (TaskInfo info : taskInfoList) {
             if (info.getTaskId().getValue().equals(taskID.getValue())) {
@@ -157,7 +267,7 @@ public class ClusterState {
         if (executorID.getValue().isEmpty()) {
             throw new IllegalArgumentException("ExecutorID.value() is blank. Cannot be blank.");
         }
-        List<TaskInfo> taskInfoList = getTaskList();
+        List<TaskInfo> taskInfoList = tasks();
         TaskInfo taskInfo = null;
         for (TaskInfo info : taskInfoList) {
             if (info.getExecutor().getExecutorId().getValue().equals(executorID.getValue())) {
@@ -171,27 +281,58 @@ public class ClusterState {
         return taskInfo;
     }
 
+    /**
+     * Records the status of a task. Zookeeper is only written when the state or health of the task has changed, so
+     * repeated statuses (e.g. from reconciliation) cost nothing.
+     */
     public void update(Protos.TaskStatus status)  throws IllegalArgumentException {
         if (!exists(status.getTaskId())) {
             throw new IllegalArgumentException("Task does not exist in zk.");
         }
-        getStatus(status.getTaskId()).setStatus(status);
+        final TaskInfo taskInfo = getTask(status.getTaskId());
+        if (isUnchanged(getCachedStatus(taskInfo), status)) {
+            LOGGER.debug("Task status unchanged. Not writing to zk: [" + status.getState() + "] " + status.getTaskId().getValue());
+        } else {
+            getStatus(taskInfo).setStatus(status);
+        }
+        statusMap.put(status.getTaskId().getValue(), status);
+    }
+
+    private static boolean isUnchanged(Protos.TaskStatus current, Protos.TaskStatus next) {
+        return current != null && current.getState().equals(next.getState())
+                && current.hasHealthy() == next.hasHealthy() && current.getHealthy() == next.getHealthy();
+    }
+
+    /**
+     * @return the slaves holding the data of tasks that failed at or after the given time, and have not been replaced
+     * on the same slave since. Older locations are forgotten.
+     */
+    public Set<Protos.SlaveID> getLostDataLocations(long since) {
+        lostDataLocations.values().removeIf(lostAt -> lostAt < since);
+        return new HashSet<>(lostDataLocations.keySet());
     }
 
     public boolean taskInError(Protos.TaskStatus status) {
-        return getStatus(status.getTaskId()).taskInError();
+        Protos.TaskStatus taskStatus = getCachedStatus(getTask(status.getTaskId()));
+        return taskStatus != null && ESTaskStatus.errorState(taskStatus.getState());
     }
 
     /**
      * Deletes all tasks and state.
      */
-    public void destroy() {
+    public synchronized void destroy() {
         try {
-            getTaskList().stream().forEach(taskInfo -> getStatus(taskInfo).destroy());
+            tasks().stream().forEach(taskInfo -> {
+                getStatus(taskInfo).destroy();
+                deleteTask(taskInfo);
+            });
+            taskList = Collections.emptyList();
+            statusMap.clear();
+            lostDataLocations.clear();
             // Todo (pnw): Refactor. This shouldn't be mopping up the ESTaskStatus stuff
-            zooKeeperStateDriver.delete(getKey());
-            zooKeeperStateDriver.delete(frameworkState.getFrameworkID().getValue() + "/" + ESTaskStatus.STATE_KEY);
-            zooKeeperStateDriver.delete(frameworkState.getFrameworkID().getValue());
+            statePath.rm(getTasksKey());
+            statePath.rm(frameworkState.getFrameworkID().getValue() + "/" + ESTaskStatus.STATE_KEY);
+            statePath.rm(frameworkState.getFrameworkID().getValue());
         } catch (IOException e) {
             LOGGER.error("Unable to delete state from ZooKeeper", e);
         }
@@ -202,7 +343,7 @@ public class ClusterState {
      * If the task is in error, then the healthchecks are stopped and state is removed from ZK
      * @param status A received task status
      */
-    private void updateTask(Protos.TaskStatus status) {
+    synchronized void updateTask(Protos.TaskStatus status) {
         if (!exists(status.getTaskId())) {
             LOGGER.warn("Could not find task in cluster state.");
             return;
@@ -216,6 +357,7 @@ public class ClusterState {
             if (taskInError(status)) {
                 LOGGER.error("Task in error state. Removing state for executor: " + status.getExecutorId().getValue() + ", due to: " + status.getState());
                 removeTask(taskInfo); // Remove task from cluster state.
+                lostDataLocations.put(taskInfo.getSlaveId(), System.currentTimeMillis());
             }
         } catch (IllegalStateException | IllegalArgumentException e) {
             LOGGER.error("Unable to write executor state to zookeeper", e);
@@ -230,17 +372,40 @@ public class ClusterState {
         return Arrays.toString(res.toArray());
     }
 
-    private void setTaskInfoList(List<TaskInfo> taskInfoList) {
+    private void writeTask(TaskInfo taskInfo) {
+        final String key = getTaskKey(taskInfo.getTaskId().getValue());
+        try {
+            statePath.mkdir(key);
+            zooKeeperStateDriver.set(key, taskInfo);
+        } catch (IOException ex) {
+            LOGGER.error("Could not write executor state to zookeeper: ", ex);
+        }
+    }
+
+    private void deleteTask(TaskInfo taskInfo) {
+        try {
+            statePath.rm(getTaskKey(taskInfo.getTaskId().getValue()));
+        } catch (IOException | InvalidParameterException ex) {
+            LOGGER.error("Could not delete executor state from zookeeper: ", ex);
+        }
+    }
+
+    private void writeTaskIndex(List<TaskInfo> taskInfoList) {
         LOGGER.debug("Writing executor state list: " + logTaskList(taskInfoList));
+        final List<TaskID> taskIds = taskInfoList.stream().map(TaskInfo::getTaskId).collect(Collectors.toList());
         try {
-            new StatePath(zooKeeperStateDriver).mkdir(getKey());
-            zooKeeperStateDriver.set(getKey(), taskInfoList);
+            statePath.mkdir(getTasksKey());
+            zooKeeperStateDriver.set(getTasksKey(), taskIds);
         } catch (IOException ex) {
             LOGGER.error("Could not write list of executor states to zookeeper: ", ex);
         }
     }
 
-    private String getKey() {
-        return frameworkState.getFrameworkID().getValue() + "/" + STATE_LIST;
+    private String getTasksKey() {
+        return frameworkState.getFrameworkID().getValue() + "/" + TASKS;
+    }
+
+    private String getTaskKey(String taskId) {
+        return getTasksKey() + "/" + taskId;
     }
 }
@@ -12,6 +12,9 @@ import java.security.InvalidParameterException;
 /**
  * Status of task. This is necessary because the raw TaskInfo packet doesn't contain the frameworkID or a link to
  * the respective TaskStatus packet.
+ *
+ * Creating an instance is free; zookeeper is only accessed by the explicit read and write methods. A new task's
+ * status is written once, at launch, by {@link #initialize()}.
  */
 public class ESTaskStatus {
     // Todo (pnw): Refactor: This is part of the cluster state, but is often accessed without cluster state.
@@ -34,13 +37,14 @@ public class ESTaskStatus {
         this.frameworkID = frameworkID;
         this.taskInfo = taskInfo;
         this.statePath = statePath;
-        // Write default status if it doesn't exist
-        try {
-            LOGGER.debug("Task status for " + taskInfo.getTaskId().getValue() + " exists, using old state: " + getStatus().getState());
-        } catch (IllegalStateException | NullPointerException e) {
-            LOGGER.debug("Task status for " + taskInfo.getTaskId().getValue() + " does not exist, or is not yet initialized, this must be a new task. Writing status.");
-            setStatus(getDefaultStatus());
-        }
+    }
+
+    /**
+     * Writes the default (staging) status for a new task.
+     */
+    public void initialize() throws IllegalStateException {
+        LOGGER.debug("Initializing task status for new task " + taskInfo.getTaskId().getValue());
+        setStatus(getDefaultStatus());
     }
 
     public void setStatus(TaskStatus status) throws IllegalStateException {
@@ -77,7 +81,8 @@ public class ESTaskStatus {
     public String toString() {
         String retVal;
         try {
-            retVal = getKey() + ": [" + getStatus().getState() + "] " +  getStatus().getMessage();
+            TaskStatus status = getStatus();
+            retVal = getKey() + ": [" + status.getState() + "] " +  status.getMessage();
         } catch (Exception e) {
             retVal = getKey() + ": Unable to get message";
         }
@@ -102,6 +107,8 @@ public class ESTaskStatus {
     public void destroy() {
         try {
             state.delete(getKey());
+        } catch (InvalidParameterException e) {
+            LOGGER.debug("Task status for " + taskInfo.getTaskId().getValue() + " does not exist. Nothing to destroy.");
         } catch (IOException e) {
             LOGGER.error("Could not destroy Task in ZK.", e);
         }
@@ -0,0 +1,63 @@
+package org.apache.mesos.elasticsearch.scheduler.state;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.InvalidParameterException;
+
+/**
+ * Stores state in local files, one per key. For single node development setups that have no zookeeper.
+ *
+ * Keys are escaped into file names, so a key and its children are all files in the one directory. Each file is
+ * written to a temporary file first and then moved into place, so a crash never leaves a half written value.
+ */
+public class FileState implements SerializableState {
+    private static final String TMP_SUFFIX = ".tmp";
+    private final Path directory;
+    private final StateCodec codec;
+
+    public FileState(File directory) throws IOException {
+        this(directory, new ProtobufCodec());
+    }
+
+    public FileState(File directory, StateCodec codec) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Unable to create state directory: " + directory);
+        }
+        this.directory = directory.toPath();
+        this.codec = codec;
+    }
+
+    @Override
+    public <T> T get(String key) throws IOException {
+        try {
+            return codec.decode(Files.readAllBytes(path(key)));
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+    }
+
+    @Override
+    public synchronized <T> void set(String key, T object) throws IOException {
+        final Path path = path(key);
+        final Path tmp = path.resolveSibling(path.getFileName() + TMP_SUFFIX);
+        Files.write(tmp, codec.encode(object));
+        Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    @Override
+    public synchronized void delete(String key) throws IOException {
+        if (!Files.deleteIfExists(path(key))) {
+            throw new InvalidParameterException("Key does not exist:" + key);
+        }
+    }
+
+    private Path path(String key) throws UnsupportedEncodingException {
+        return directory.resolve(URLEncoder.encode(key, "UTF-8"));
+    }
+}
@@ -25,6 +25,8 @@ public class FrameworkState {
     private final SerializableState zookeeperStateDriver;
     private final StatePath statePath;
     private SchedulerDriver driver;
+    private ClusterState clusterState;
+    private volatile Protos.FrameworkID frameworkID; // Immutable once known. Null until loaded or registered.
 
     public FrameworkState(SerializableState zookeeperStateDriver) {
         this.zookeeperStateDriver = zookeeperStateDriver;
@@ -33,35 +35,58 @@ public class FrameworkState {
 
     /**
      * Return empty if no frameworkId found.
+     * The ID is read from zookeeper once and then held in memory until {@link #destroy()}.
      */
     public Protos.FrameworkID getFrameworkID() {
-        Protos.FrameworkID id = null;
+        Protos.FrameworkID id = frameworkID;
+        if (id != null) {
+            return id;
+        }
         try {
             id = zookeeperStateDriver.get(FRAMEWORKID_KEY);
         } catch (IOException e) {
             LOGGER.warn("Unable to get FrameworkID from zookeeper", e);
         }
-        return id == null ? EMPTY_ID : id;
+        if (id == null || id.getValue().isEmpty()) {
+            return EMPTY_ID; // Not cached, so that it is read again once the framework has registered
+        }
+        frameworkID = id;
+        return id;
     }
 
     public void markRegistered(Protos.FrameworkID frameworkId, SchedulerDriver driver) {
         if (!registered.compareAndSet(false, true)) {
             throw new IllegalStateException("Framework can not be marked as registered twice");
         }
+        this.frameworkID = frameworkId;
         try {
             statePath.mkdir(FRAMEWORKID_KEY);
             zookeeperStateDriver.set(FRAMEWORKID_KEY, frameworkId);
+            zookeeperStateDriver.flush();
             LOGGER.debug("FrameworkID stored in zookeeper: " + FRAMEWORKID_KEY + " = " + frameworkId);
         } catch (IOException e) {
             LOGGER.error("Unable to store framework ID in zookeeper", e);
         }
         this.driver = driver;
 
-        final ClusterState clusterState = new ClusterState(zookeeperStateDriver, this);
+        if (clusterState == null) {
+            throw new IllegalStateException("No cluster state attached to the framework state");
+        }
+        clusterState.reload(); // Framework ID is now known. Load the cluster state for this framework.
         registeredListeners.forEach(listener -> listener.accept(clusterState));
     }
 
+    /**
+     * Attaches the cluster state of this framework. It is reloaded when the framework registers, and receives every task
+     * status update. Must be called before the framework registers.
+     */
+    public void attach(ClusterState clusterState) {
+        this.clusterState = clusterState;
+        onStatusUpdate(clusterState::updateTask);
+    }
+
     public void destroy() {
+        frameworkID = null;
         try {
             statePath.rm(FRAMEWORKID_KEY);
         } catch (IOException e) {
@@ -0,0 +1,88 @@
+package org.apache.mesos.elasticsearch.scheduler.state;
+
+import java.io.IOException;
+import java.security.InvalidParameterException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Holds state in memory. For tests, benchmarks and trying out the scheduler without zookeeper; nothing survives a
+ * restart.
+ *
+ * Values are stored encoded, as they would be in zookeeper, so callers never share instances with the store. Each
+ * operation can be delayed, and made to fail, to imitate a slow or unreliable zookeeper.
+ */
+public class InMemoryState implements SerializableState {
+    private final Map<String, byte[]> values = new ConcurrentHashMap<>();
+    private final StateCodec codec;
+    private final AtomicInteger failuresToInject = new AtomicInteger();
+    private volatile long latencyMs;
+    private volatile double failureRate;
+
+    public InMemoryState() {
+        this(new ProtobufCodec());
+    }
+
+    public InMemoryState(StateCodec codec) {
+        this.codec = codec;
+    }
+
+    /**
+     * Delay every operation, like a zookeeper round trip.
+     */
+    public void setLatency(long latencyMs) {
+        this.latencyMs = latencyMs;
+    }
+
+    /**
+     * Fail this fraction (0 to 1) of operations at random.
+     */
+    public void setFailureRate(double failureRate) {
+        this.failureRate = failureRate;
+    }
+
+    /**
+     * Fail the next given number of operations.
+     */
+    public void failNext(int operations) {
+        failuresToInject.set(operations);
+    }
+
+    @Override
+    public <T> T get(String key) throws IOException {
+        simulate("get", key);
+        byte[] bytes = values.get(key);
+        return bytes == null ? null : codec.decode(bytes);
+    }
+
+    @Override
+    public <T> void set(String key, T object) throws IOException {
+        simulate("set", key);
+        values.put(key, codec.encode(object));
+    }
+
+    @Override
+    public void delete(String key) throws IOException {
+        simulate("delete", key);
+        if (values.remove(key) == null) {
+            throw new InvalidParameterException("Key does not exist:" + key);
+        }
+    }
+
+    private void simulate(String operation, String key) throws IOException {
+        if (latencyMs > 0) {
+            try {
+                Thread.sleep(latencyMs);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted during " + operation + " of " + key, e);
+            }
+        }
+        if (failuresToInject.getAndUpdate(remaining -> Math.max(0, remaining - 1)) > 0
+                || failureRate > 0 && ThreadLocalRandom.current().nextDouble() < failureRate) {
+            throw new IOException("Injected failure during " + operation + " of " + key);
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package org.apache.mesos.elasticsearch.scheduler.state;
+
+import java.io.*;
+
+/**
+ * Encodes state using standard Java serialization. This was the only format used before {@link ProtobufCodec} and
+ * is kept so that old zNodes can still be read.
+ */
+public class JavaSerializationCodec implements StateCodec {
+    private static final byte[] STREAM_MAGIC = {(byte) 0xAC, (byte) 0xED};
+
+    @Override
+    public byte[] encode(Object object) throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        ObjectOutputStream out = null;
+        try {
+            out = new ObjectOutputStream(bos);
+            out.writeObject(object);
+        } finally {
+            try {
+                if (out != null) {
+                    out.close();
+                }
+            } finally {
+                bos.close();
+            }
+        }
+        return bos.toByteArray();
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> T decode(byte[] bytes) throws IOException {
+        ByteArrayInputStream bis = new ByteArrayInputStream(bytes);
+        ObjectInputStream in = null;
+        try {
+            in = new ObjectInputStream(bis);
+            return (T) in.readObject();
+        } catch (ClassNotFoundException e) {
+            throw new IOException("Unable to deserialize zNode", e);
+        } finally {
+            try {
+                bis.close();
+            } finally {
+                if (in != null) {
+                    in.close();
+                }
+            }
+        }
+    }
+
+    /**
+     * @return true if the bytes look like a Java serialization stream
+     */
+    public static boolean isJavaSerialized(byte[] bytes) {
+        return bytes.length >= STREAM_MAGIC.length && bytes[0] == STREAM_MAGIC[0] && bytes[1] == STREAM_MAGIC[1];
+    }
+}
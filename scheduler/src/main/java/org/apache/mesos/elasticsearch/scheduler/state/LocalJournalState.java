@@ -0,0 +1,287 @@
+package org.apache.mesos.elasticsearch.scheduler.state;
+
+import org.apache.log4j.Logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Keeps a copy of another {@link SerializableState} on local disk, so that a restarted scheduler can read its state
+ * without waiting for zookeeper.
+ *
+ * Every write is applied to the underlying state and then appended to a memory-mapped journal. When the journal is
+ * full, all values are written to a snapshot and the journal starts again. On start, the snapshot and the journal are
+ * replayed into memory and reads are served from there. {@link #verify()} compares the local copy with the underlying
+ * state and corrects any differences, e.g. when another scheduler instance has run in the meantime.
+ *
+ * A record is: key length, key, value length (-1 if the key was deleted), value. A zero key length ends the journal.
+ * The key length is written last, so a record that was only partly written is never replayed.
+ *
+ * Changes to the values and their journal records are made together under the instance lock, so the journal replays
+ * to the values held in memory.
+ */
+public class LocalJournalState implements SerializableState {
+    private static final Logger LOGGER = Logger.getLogger(LocalJournalState.class);
+    public static final String SNAPSHOT_FILE = "snapshot";
+    public static final String JOURNAL_FILE = "journal";
+    public static final int DEFAULT_JOURNAL_SIZE = 16 * 1024 * 1024;
+    private static final Object NULL = new Object();
+    private static final int DELETED = -1;
+
+    private final SerializableState state;
+    private final StateCodec codec;
+    private final File directory;
+    private final Map<String, Object> values = new ConcurrentHashMap<>();
+    private final MappedByteBuffer journal;
+
+    public LocalJournalState(SerializableState state, File directory) throws IOException {
+        this(state, directory, new ProtobufCodec(), DEFAULT_JOURNAL_SIZE);
+    }
+
+    public LocalJournalState(SerializableState state, File directory, StateCodec codec, int journalSize) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Unable to create state journal directory: " + directory);
+        }
+        this.state = state;
+        this.codec = codec;
+        this.directory = directory;
+        this.journal = map(new File(directory, JOURNAL_FILE), journalSize);
+        load();
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> T get(String key) throws IOException {
+        Object value = values.get(key);
+        if (value != null) {
+            return value == NULL ? null : (T) value;
+        }
+        T fetched = state.get(key);
+        recordIfAbsent(key, fetched); // A write made while fetching is newer than the fetched value
+        return fetched;
+    }
+
+    @Override
+    public <T> void set(String key, T object) throws IOException {
+        try {
+            state.set(key, object);
+        } catch (IOException | RuntimeException e) {
+            forget(key); // The value in zookeeper is now unknown
+            throw e;
+        }
+        record(key, object);
+    }
+
+    @Override
+    public void setAll(Map<String, ?> objects) throws IOException {
+        try {
+            state.setAll(objects);
+        } catch (IOException | RuntimeException e) {
+            objects.keySet().forEach(this::forget);
+            throw e;
+        }
+        for (Map.Entry<String, ?> entry : objects.entrySet()) {
+            record(entry.getKey(), entry.getValue());
+        }
+    }
+
+    @Override
+    public void delete(String key) throws IOException {
+        try {
+            state.delete(key);
+        } finally {
+            forget(key);
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        state.flush();
+    }
+
+    /**
+     * Compares every locally held value with the underlying state, and replaces the ones that differ.
+     * @return true if any value was out of date
+     */
+    public boolean verify() {
+        boolean changed = false;
+        for (Map.Entry<String, Object> entry : new ArrayList<>(values.entrySet())) {
+            final String key = entry.getKey();
+            try {
+                Object remote = state.get(key);
+                byte[] remoteBytes = codec.encode(remote);
+                if (!Arrays.equals(codec.encode(entry.getValue() == NULL ? null : entry.getValue()), remoteBytes)
+                        && replace(key, entry.getValue(), remote, remoteBytes)) { // Unless it was written meanwhile
+                    LOGGER.info("Local copy of " + key + " was out of date");
+                    changed = true;
+                }
+            } catch (IOException | RuntimeException e) {
+                LOGGER.warn("Unable to verify " + key + ". Discarding local copy.", e);
+                forget(key);
+                changed = true;
+            }
+        }
+        LOGGER.info("Verified " + values.size() + " local state entries against zookeeper" + (changed ? ". Some were out of date." : ""));
+        return changed;
+    }
+
+    /**
+     * Writes all values to the snapshot and empties the journal.
+     */
+    public synchronized void snapshot() throws IOException {
+        final List<byte[]> keys = new ArrayList<>();
+        final List<byte[]> encoded = new ArrayList<>();
+        long size = 0;
+        for (Map.Entry<String, Object> entry : values.entrySet()) {
+            byte[] key = entry.getKey().getBytes(StandardCharsets.UTF_8);
+            byte[] value = codec.encode(entry.getValue() == NULL ? null : entry.getValue());
+            keys.add(key);
+            encoded.add(value);
+            size += recordLength(key, value);
+        }
+        final File tmp = new File(directory, SNAPSHOT_FILE + ".tmp");
+        Files.deleteIfExists(tmp.toPath());
+        final MappedByteBuffer buffer = map(tmp, size);
+        for (int i = 0; i < keys.size(); i++) {
+            buffer.putInt(keys.get(i).length).put(keys.get(i)).putInt(encoded.get(i).length).put(encoded.get(i));
+        }
+        buffer.force();
+        Files.move(tmp.toPath(), new File(directory, SNAPSHOT_FILE).toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        journal.putInt(0, 0);
+        journal.position(0);
+        journal.force();
+        LOGGER.debug("Wrote state snapshot of " + keys.size() + " entries (" + size + " bytes)");
+    }
+
+    /**
+     * Writes the journal to disk.
+     */
+    public synchronized void close() {
+        journal.force();
+    }
+
+    private void load() {
+        final File snapshotFile = new File(directory, SNAPSHOT_FILE);
+        try {
+            if (snapshotFile.exists()) {
+                try (FileChannel channel = FileChannel.open(snapshotFile.toPath())) {
+                    replay(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+                }
+            }
+            replay(journal);
+            LOGGER.info("Loaded " + values.size() + " state entries from " + directory);
+        } catch (IOException | RuntimeException e) {
+            LOGGER.warn("Unable to load local state from " + directory + ". Starting from zookeeper.", e);
+            values.clear();
+            journal.putInt(0, 0);
+            journal.position(0);
+        }
+    }
+
+    /**
+     * Applies records from the buffer. Leaves the buffer positioned at the end of the last record.
+     */
+    private void replay(ByteBuffer buffer) throws IOException {
+        while (buffer.remaining() >= Integer.BYTES) {
+            final int keyLength = buffer.getInt();
+            if (keyLength <= 0) {
+                buffer.position(buffer.position() - Integer.BYTES);
+                return;
+            }
+            final byte[] key = new byte[keyLength];
+            buffer.get(key);
+            final int valueLength = buffer.getInt();
+            if (valueLength == DELETED) {
+                values.remove(new String(key, StandardCharsets.UTF_8));
+            } else if (valueLength < 0 || valueLength > buffer.remaining()) {
+                throw new BufferUnderflowException();
+            } else {
+                final byte[] value = new byte[valueLength];
+                buffer.get(value);
+                final Object object = codec.decode(value);
+                values.put(new String(key, StandardCharsets.UTF_8), object == null ? NULL : object);
+            }
+        }
+    }
+
+    private synchronized void record(String key, Object object) {
+        try {
+            byte[] encoded = codec.encode(object);
+            values.put(key, object == null ? NULL : object);
+            append(key, encoded);
+        } catch (IOException e) {
+            LOGGER.warn("Unable to encode " + key + " for the local state journal", e);
+            forget(key);
+        }
+    }
+
+    private synchronized void recordIfAbsent(String key, Object object) {
+        if (!values.containsKey(key)) {
+            record(key, object);
+        }
+    }
+
+    private synchronized boolean replace(String key, Object expected, Object object, byte[] encoded) {
+        if (!values.replace(key, expected, object == null ? NULL : object)) {
+            return false;
+        }
+        append(key, encoded);
+        return true;
+    }
+
+    private synchronized void forget(String key) {
+        if (values.remove(key) != null) {
+            append(key, null);
+        }
+    }
+
+    private synchronized void append(String key, byte[] value) {
+        final byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        final int length = (int) recordLength(keyBytes, value);
+        try {
+            if (journal.remaining() < length + Integer.BYTES) {
+                snapshot(); // The snapshot already holds this value
+                return;
+            }
+        } catch (IOException e) {
+            LOGGER.error("Unable to write state snapshot. Discarding local state.", e);
+            values.clear();
+            journal.putInt(0, 0);
+            journal.position(0);
+            return;
+        }
+        final int start = journal.position();
+        journal.putInt(start + length, 0); // Terminate first, in case of stale records further on
+        journal.position(start + Integer.BYTES);
+        journal.put(keyBytes);
+        if (value == null) {
+            journal.putInt(DELETED);
+        } else {
+            journal.putInt(value.length).put(value);
+        }
+        journal.putInt(start, keyBytes.length);
+    }
+
+    private static long recordLength(byte[] key, byte[] value) {
+        return Integer.BYTES * 2L + key.length + (value == null ? 0 : value.length);
+    }
+
+    private static MappedByteBuffer map(File file, long size) throws IOException {
+        try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw")) {
+            return randomAccessFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+        }
+    }
+}
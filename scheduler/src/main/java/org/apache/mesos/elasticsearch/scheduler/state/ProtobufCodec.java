@@ -0,0 +1,130 @@
+package org.apache.mesos.elasticsearch.scheduler.state;
+
+import com.google.protobuf.Message;
+import com.google.protobuf.Parser;
+import org.apache.mesos.Protos;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Encodes protobuf messages, and lists of protobuf messages, in their native wire format. Each message is written
+ * length-prefixed after a one byte type tag, so no class descriptors are stored.
+ *
+ * Objects that are not registered protobuf messages are delegated to {@link JavaSerializationCodec}. Java serialized
+ * zNodes written by older versions of the framework are detected by their stream header and decoded the same way.
+ */
+public class ProtobufCodec implements StateCodec {
+    private static final byte MAGIC = (byte) 0xE5;
+    private static final byte VERSION = 1;
+    private static final byte TYPE_NULL = 0;
+    private static final byte TYPE_MESSAGE = 1;
+    private static final byte TYPE_LIST = 2;
+
+    private final Map<Class<? extends Message>, Byte> tags = new HashMap<>();
+    private final Map<Byte, Parser<? extends Message>> parsers = new HashMap<>();
+    private final JavaSerializationCodec fallback = new JavaSerializationCodec();
+
+    public ProtobufCodec() {
+        register((byte) 1, Protos.FrameworkID.class, Protos.FrameworkID.PARSER);
+        register((byte) 2, Protos.TaskInfo.class, Protos.TaskInfo.PARSER);
+        register((byte) 3, Protos.TaskStatus.class, Protos.TaskStatus.PARSER);
+        register((byte) 4, Protos.TaskID.class, Protos.TaskID.PARSER);
+    }
+
+    /**
+     * Register a message type. Tags are persisted in zookeeper, so must never be reused for a different type.
+     */
+    public final <M extends Message> void register(byte tag, Class<M> type, Parser<M> parser) {
+        if (parsers.containsKey(tag)) {
+            throw new IllegalArgumentException("Tag already registered: " + tag);
+        }
+        tags.put(type, tag);
+        parsers.put(tag, parser);
+    }
+
+    @Override
+    public byte[] encode(Object object) throws IOException {
+        if (object != null && !isEncodable(object)) {
+            return fallback.encode(object);
+        }
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bos);
+        out.writeByte(MAGIC);
+        out.writeByte(VERSION);
+        if (object == null) {
+            out.writeByte(TYPE_NULL);
+        } else if (object instanceof Message) {
+            out.writeByte(TYPE_MESSAGE);
+            writeMessage(out, (Message) object);
+        } else {
+            List<?> list = (List<?>) object;
+            out.writeByte(TYPE_LIST);
+            out.writeInt(list.size());
+            for (Object element : list) {
+                writeMessage(out, (Message) element);
+            }
+        }
+        out.flush();
+        return bos.toByteArray();
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> T decode(byte[] bytes) throws IOException {
+        if (JavaSerializationCodec.isJavaSerialized(bytes)) {
+            return fallback.decode(bytes);
+        }
+        if (bytes.length < 3 || bytes[0] != MAGIC) {
+            throw new IOException("Unknown zNode encoding");
+        }
+        if (bytes[1] != VERSION) {
+            throw new IOException("Unsupported zNode encoding version: " + bytes[1]);
+        }
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes, 2, bytes.length - 2));
+        byte type = in.readByte();
+        switch (type) {
+            case TYPE_NULL:
+                return null;
+            case TYPE_MESSAGE:
+                return (T) readMessage(in);
+            case TYPE_LIST:
+                int size = in.readInt();
+                List<Message> list = new ArrayList<>(size);
+                for (int i = 0; i < size; i++) {
+                    list.add(readMessage(in));
+                }
+                return (T) list;
+            default:
+                throw new IOException("Unknown zNode value type: " + type);
+        }
+    }
+
+    private boolean isEncodable(Object object) {
+        if (object instanceof Message) {
+            return tags.containsKey(object.getClass());
+        }
+        return object instanceof List && ((List<?>) object).stream().allMatch(element -> element instanceof Message && tags.containsKey(element.getClass()));
+    }
+
+    private void writeMessage(DataOutputStream out, Message message) throws IOException {
+        out.writeByte(tags.get(message.getClass()));
+        message.writeDelimitedTo(out);
+    }
+
+    private Message readMessage(DataInputStream in) throws IOException {
+        byte tag = in.readByte();
+        Parser<? extends Message> parser = parsers.get(tag);
+        if (parser == null) {
+            throw new IOException("Unknown message tag in zNode: " + tag);
+        }
+        Message message = parser.parseDelimitedFrom(in);
+        if (message == null) {
+            throw new EOFException("Truncated zNode");
+        }
+        return message;
+    }
+}
@@ -1,6 +1,7 @@
 package org.apache.mesos.elasticsearch.scheduler.state;
 
 import java.io.IOException;
+import java.util.Map;
 
 /**
  * Represents a serializable interface
@@ -9,4 +10,20 @@ public interface SerializableState {
     <T> T get(String key) throws IOException;
     <T> void set(String key, T object) throws IOException;
     void delete(String key) throws IOException;
+
+    /**
+     * Set several keys, in iteration order. Implementations may issue the writes concurrently.
+     */
+    default void setAll(Map<String, ?> objects) throws IOException {
+        for (Map.Entry<String, ?> entry : objects.entrySet()) {
+            set(entry.getKey(), entry.getValue());
+        }
+    }
+
+    /**
+     * Block until all previous writes are durable. Implementations that write synchronously need do nothing.
+     * @throws IOException if any of the previous writes failed
+     */
+    default void flush() throws IOException {
+    }
 }
@@ -1,19 +1,39 @@
 package org.apache.mesos.elasticsearch.scheduler.state;
 
+import org.apache.log4j.Logger;
 import org.apache.mesos.state.Variable;
 
 import java.io.*;
 import java.security.InvalidParameterException;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 
 /**
- * Writes serializable data to zookeeper
+ * Writes serializable data to zookeeper.
+ *
+ * The last {@link Variable} seen for each key is kept, so that a write can mutate it directly rather than fetching it
+ * first. Variables carry the zNode version; if another writer has changed the zNode in the meantime the store fails,
+ * the variable is re-fetched and the write is retried once.
  */
 public class SerializableZookeeperState implements SerializableState {
+    private static final Logger LOGGER = Logger.getLogger(SerializableZookeeperState.class);
     private org.apache.mesos.state.State zkState;
+    private final StateCodec codec;
+    private final Map<String, Variable> variables = new ConcurrentHashMap<>();
+    private final Set<String> migrated = ConcurrentHashMap.newKeySet(); // Keys known to be stored in the current format
 
     public SerializableZookeeperState(org.apache.mesos.state.State zkState) {
+        this(zkState, new ProtobufCodec());
+    }
+
+    public SerializableZookeeperState(org.apache.mesos.state.State zkState, StateCodec codec) {
         this.zkState = zkState;
+        this.codec = codec;
     }
 
     /**
@@ -23,35 +43,51 @@ public class SerializableZookeeperState implements SerializableState {
      * @return Object
      * @throws IOException
      */
-    @SuppressWarnings("unchecked")
     public <T> T get(String key) throws IOException {
         try {
-            byte[] existingNodes = zkState.fetch(key).get().value();
+            Variable variable = zkState.fetch(key).get();
+            cache(key, variable);
+            byte[] existingNodes = variable.value();
             if (existingNodes.length > 0) {
-                ByteArrayInputStream bis = new ByteArrayInputStream(existingNodes);
-                ObjectInputStream in = null;
-                try {
-                    in = new ObjectInputStream(bis);
-                    return (T) in.readObject();
-                } finally {
-                    try {
-                        bis.close();
-                    } finally {
-                        if (in != null) {
-                            in.close();
-                        }
-                    }
+                T object = codec.decode(existingNodes);
+                if (JavaSerializationCodec.isJavaSerialized(existingNodes) && !migrated.contains(key)) {
+                    migrate(key, variable, existingNodes, object);
                 }
+                return object;
             } else {
                 return null;
             }
         } catch (StreamCorruptedException e) {
             throw new IOException("Corrupted zookeeper zNode. Please delete (rmr) the zNode path using the zookeeper/bin/zkCli.sh tool.", e);
-        } catch (InterruptedException | ClassNotFoundException | ExecutionException | IOException e) {
+        } catch (InterruptedException | ExecutionException | IOException e) {
             throw new IOException("Unable to get zNode", e);
         }
     }
 
+    /**
+     * Rewrite a Java serialized zNode if the current codec stores it in a different format. This is a one-time
+     * migration. Only zNodes with the Java serialization stream header are checked, and each key at most once, because
+     * objects the codec cannot encode natively are still Java serialized and would otherwise be re-encoded on every read.
+     */
+    private void migrate(String key, Variable variable, byte[] stored, Object object) {
+        try {
+            byte[] encoded = codec.encode(object);
+            if (!Arrays.equals(stored, encoded)) {
+                Variable rewritten = zkState.store(variable.mutate(encoded)).get();
+                if (rewritten == null) { // Version mismatch. Checked again on the next read.
+                    variables.remove(key);
+                    return;
+                }
+                cache(key, rewritten);
+                LOGGER.info("Migrated zNode " + key + " to " + codec.getClass().getSimpleName() + " (" + stored.length + " -> " + encoded.length + " bytes)");
+            }
+            migrated.add(key);
+        } catch (InterruptedException | ExecutionException | IOException e) {
+            variables.remove(key);
+            LOGGER.warn("Unable to migrate zNode " + key + ". Will retry on next read.", e);
+        }
+    }
+
     /**
      * Set serializable object in store
      *
@@ -59,28 +95,86 @@ public class SerializableZookeeperState implements SerializableState {
      */
     public <T> void set(String key, T object) throws IOException {
         try {
-            Variable value = zkState.fetch(key).get();
-            ByteArrayOutputStream bos = new ByteArrayOutputStream();
-            ObjectOutputStream out = null;
-            try {
-                out = new ObjectOutputStream(bos);
-                out.writeObject(object);
-                value = value.mutate(bos.toByteArray());
-                zkState.store(value).get();
-            } finally {
-                try {
-                    if (out != null) {
-                        out.close();
-                    }
-                } finally {
-                    bos.close();
-                }
+            byte[] bytes = codec.encode(object);
+            Variable stored = zkState.store(variable(key).mutate(bytes)).get();
+            if (stored == null) { // Version mismatch. The zNode was changed by someone else.
+                retryStore(key, bytes);
+            } else {
+                cache(key, stored);
             }
         } catch (InterruptedException | ExecutionException | IOException e) {
+            variables.remove(key);
             throw new IOException("Unable to set zNode", e);
         }
     }
 
+    /**
+     * Pipelined set. All stores are issued before waiting for any of them, so the batch costs roughly one round trip.
+     * Zookeeper applies requests from one session in order, so parents written earlier in the batch exist before
+     * their children are written.
+     */
+    @Override
+    public void setAll(Map<String, ?> objects) throws IOException {
+        final Map<String, byte[]> encoded = new LinkedHashMap<>();
+        final Map<String, Future<Variable>> futures = new LinkedHashMap<>();
+        IOException failure = null;
+        for (Map.Entry<String, ?> entry : objects.entrySet()) {
+            final String key = entry.getKey();
+            try {
+                byte[] bytes = codec.encode(entry.getValue());
+                encoded.put(key, bytes);
+                futures.put(key, zkState.store(variable(key).mutate(bytes)));
+            } catch (InterruptedException | ExecutionException | IOException e) {
+                variables.remove(key);
+                failure = failure == null ? new IOException("Unable to set zNode: " + key, e) : failure;
+            }
+        }
+        for (Map.Entry<String, Future<Variable>> entry : futures.entrySet()) {
+            final String key = entry.getKey();
+            try {
+                Variable stored = entry.getValue().get();
+                if (stored == null) {
+                    retryStore(key, encoded.get(key));
+                } else {
+                    cache(key, stored);
+                }
+            } catch (InterruptedException | ExecutionException | IOException e) {
+                variables.remove(key);
+                failure = failure == null ? new IOException("Unable to set zNode: " + key, e) : failure;
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    private void retryStore(String key, byte[] bytes) throws InterruptedException, ExecutionException, IOException {
+        LOGGER.warn("zNode " + key + " was changed by another writer. Fetching it again and retrying the write.");
+        variables.remove(key);
+        Variable stored = zkState.store(variable(key).mutate(bytes)).get();
+        if (stored == null) {
+            throw new IOException("zNode was concurrently modified: " + key);
+        }
+        cache(key, stored);
+    }
+
+    private Variable variable(String key) throws InterruptedException, ExecutionException {
+        Variable variable = variables.get(key);
+        if (variable == null) {
+            variable = zkState.fetch(key).get();
+            cache(key, variable);
+        }
+        return variable;
+    }
+
+    private void cache(String key, Variable variable) {
+        if (variable == null) {
+            variables.remove(key);
+        } else {
+            variables.put(key, variable);
+        }
+    }
+
     /**
      * Delete a path in zk
      * @param key the key to delete
@@ -89,6 +183,7 @@ public class SerializableZookeeperState implements SerializableState {
      */
     public void delete(String key) throws IOException {
         try {
+            variables.remove(key);
             Variable value = zkState.fetch(key).get();
             if (value.value().length == 0) {
                 throw new InvalidParameterException("Key does not exist:" + key);
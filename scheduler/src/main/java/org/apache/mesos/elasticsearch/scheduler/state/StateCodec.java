@@ -0,0 +1,11 @@
+package org.apache.mesos.elasticsearch.scheduler.state;
+
+import java.io.IOException;
+
+/**
+ * Converts state objects to and from the bytes stored in a zNode.
+ */
+public interface StateCodec {
+    byte[] encode(Object object) throws IOException;
+    <T> T decode(byte[] bytes) throws IOException;
+}
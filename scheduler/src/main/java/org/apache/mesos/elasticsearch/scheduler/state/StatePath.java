@@ -2,12 +2,16 @@ package org.apache.mesos.elasticsearch.scheduler.state;
 
 import java.io.IOException;
 import java.security.InvalidParameterException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
- * Path utilities
+ * Path utilities. Remembers the paths it has created or seen, so repeated calls to {@link #mkdir(String)} for the same
+ * path do not touch zookeeper. Share one instance to get the benefit.
  */
 public class StatePath {
     private SerializableState zkState;
+    private final Set<String> knownPaths = ConcurrentHashMap.newKeySet();
     public StatePath(SerializableState zkState) {
         this.zkState = zkState;
     }
@@ -25,8 +29,12 @@ public class StatePath {
         StringBuilder builder = new StringBuilder();
         for (String s : split) {
             builder.append(s);
-            if (!s.isEmpty() && !exists(builder.toString())) {
-                zkState.set(builder.toString(), null);
+            final String path = builder.toString();
+            if (!s.isEmpty() && !knownPaths.contains(path)) {
+                if (!exists(path)) {
+                    zkState.set(path, null);
+                }
+                knownPaths.add(path);
             }
             builder.append("/");
         }
@@ -48,6 +56,7 @@ public class StatePath {
      * @throws IOException If unable to remove
      */
     public void rm(String key) throws IOException {
+        knownPaths.removeIf(path -> path.equals(key) || path.startsWith(key + "/"));
         zkState.delete(key);
     }
 }
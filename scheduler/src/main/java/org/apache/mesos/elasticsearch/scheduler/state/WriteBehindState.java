@@ -0,0 +1,286 @@
+package org.apache.mesos.elasticsearch.scheduler.state;
+
+import org.apache.log4j.Logger;
+
+import java.io.IOException;
+import java.security.InvalidParameterException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Queues writes to another {@link SerializableState} and applies them on a background thread, so that callers (e.g.
+ * the Mesos driver callback thread) do not wait for zookeeper.
+ *
+ * Writes to a key that is already queued replace the queued value and move it to the back of the queue, so only the
+ * latest value is written, and it is written after everything queued before it. Queued writes are handed to the
+ * underlying state in batches via {@link SerializableState#setAll(Map)}. Reads see queued values. The queue is bounded;
+ * when it is full, writers block until there is space.
+ *
+ * A write that fails is queued again, ahead of newer writes, and retried after {@link #RETRY_DELAY_MS}, unless a newer
+ * value for the key has been queued in the meantime. Its failure is kept until the key is written.
+ *
+ * Call {@link #flush()} when a write must be durable before continuing, e.g. before launching a task.
+ */
+public class WriteBehindState implements SerializableState {
+    private static final Logger LOGGER = Logger.getLogger(WriteBehindState.class);
+    public static final int DEFAULT_CAPACITY = 1000;
+    public static final long RETRY_DELAY_MS = 1000;
+    private static final Object DELETED = new Object();
+    private static final Object NOT_QUEUED = new Object();
+
+    private final SerializableState state;
+    private final int capacity;
+    private final Object lock = new Object();
+    private final Thread writer;
+    private LinkedHashMap<String, Write> queued = new LinkedHashMap<>();
+    private Map<String, Write> inFlight = Collections.emptyMap();
+    private final Map<String, Failure> failures = new HashMap<>(); // Keys whose last write failed
+    private long enqueuedCount = 0;
+    private long writtenCount = 0;
+    private boolean closed = false;
+
+    public WriteBehindState(SerializableState state) {
+        this(state, DEFAULT_CAPACITY);
+    }
+
+    public WriteBehindState(SerializableState state, int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Capacity must be positive");
+        }
+        this.state = state;
+        this.capacity = capacity;
+        writer = new Thread(this::writeLoop, "state-write-behind");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> T get(String key) throws IOException {
+        Object value;
+        synchronized (lock) {
+            value = queued.containsKey(key) ? queued.get(key).value : inFlight.containsKey(key) ? inFlight.get(key).value : NOT_QUEUED;
+        }
+        if (value == NOT_QUEUED) {
+            return state.get(key);
+        }
+        return value == DELETED ? null : (T) value;
+    }
+
+    @Override
+    public <T> void set(String key, T object) throws IOException {
+        enqueue(key, object);
+    }
+
+    @Override
+    public void delete(String key) throws IOException {
+        enqueue(key, DELETED);
+    }
+
+    /**
+     * Blocks until every write queued before this call has been attempted.
+     * @throws IOException if any of those writes failed and its key has not been written since. Failures of writes
+     * queued after this call are left to later flushes.
+     */
+    @Override
+    public void flush() throws IOException {
+        synchronized (lock) {
+            final long target = enqueuedCount;
+            while (writtenCount < target) {
+                if (!writer.isAlive()) {
+                    throw new IOException("State writer has stopped");
+                }
+                waitOnLock();
+            }
+            for (Failure failure : failures.values()) {
+                if (failure.sequence <= target) {
+                    throw new IOException("Unable to write state", failure.error);
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes everything that is queued and stops the writer thread.
+     */
+    public void close() {
+        synchronized (lock) {
+            closed = true;
+            lock.notifyAll();
+        }
+        try {
+            writer.join();
+            flush();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            LOGGER.error("Unable to write state before closing", e);
+        }
+    }
+
+    private void enqueue(String key, Object value) throws IOException {
+        synchronized (lock) {
+            while (queued.size() >= capacity && !queued.containsKey(key) && !closed) {
+                waitOnLock();
+            }
+            if (closed) {
+                throw new IOException("State writer is closed. Unable to write " + key);
+            }
+            queued.remove(key); // Keep write order: the new value goes to the back
+            queued.put(key, new Write(value, ++enqueuedCount));
+            lock.notifyAll();
+        }
+    }
+
+    private void waitOnLock() throws IOException {
+        try {
+            lock.wait();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for state writer", e);
+        }
+    }
+
+    private void writeLoop() {
+        while (true) {
+            final Map<String, Write> batch;
+            final long batchCount;
+            synchronized (lock) {
+                while (queued.isEmpty() && !closed) {
+                    try {
+                        lock.wait();
+                    } catch (InterruptedException e) {
+                        LOGGER.warn("State writer interrupted", e);
+                        return;
+                    }
+                }
+                if (queued.isEmpty()) {
+                    return; // Closed and drained
+                }
+                batch = queued;
+                batchCount = enqueuedCount;
+                inFlight = batch;
+                queued = new LinkedHashMap<>();
+                lock.notifyAll(); // Wake writers blocked on a full queue
+            }
+            final Map<String, IOException> errors = write(batch);
+            synchronized (lock) {
+                inFlight = Collections.emptyMap();
+                writtenCount = batchCount;
+                for (Map.Entry<String, Write> entry : batch.entrySet()) {
+                    final IOException error = errors.get(entry.getKey());
+                    if (error == null) {
+                        failures.remove(entry.getKey());
+                    } else {
+                        failures.put(entry.getKey(), new Failure(entry.getValue().sequence, error));
+                    }
+                }
+                if (!errors.isEmpty() && !closed) {
+                    requeue(batch, errors.keySet());
+                }
+                lock.notifyAll();
+                if (!errors.isEmpty()) {
+                    waitToRetry();
+                }
+            }
+        }
+    }
+
+    /**
+     * Puts failed writes back at the front of the queue, as they were queued before anything that is queued now. Keys
+     * with a newer queued value are not retried; the newer value replaces them.
+     */
+    private void requeue(Map<String, Write> batch, Set<String> failed) {
+        final LinkedHashMap<String, Write> retries = new LinkedHashMap<>();
+        for (Map.Entry<String, Write> entry : batch.entrySet()) {
+            if (failed.contains(entry.getKey()) && !queued.containsKey(entry.getKey())) {
+                retries.put(entry.getKey(), entry.getValue());
+            }
+        }
+        retries.putAll(queued);
+        queued = retries;
+    }
+
+    /**
+     * Backs off before retrying, so that an unavailable zookeeper is not retried in a tight loop. Returns early on close.
+     */
+    private void waitToRetry() {
+        final long deadline = System.currentTimeMillis() + RETRY_DELAY_MS;
+        long remaining = RETRY_DELAY_MS;
+        while (remaining > 0 && !closed) {
+            try {
+                lock.wait(remaining);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            remaining = deadline - System.currentTimeMillis();
+        }
+    }
+
+    /**
+     * Writes a batch in order. Runs of sets are passed to the underlying state together so they can be pipelined.
+     * @return the error of each key that was not written. Every key of a run that failed is counted as failed.
+     */
+    private Map<String, IOException> write(Map<String, Write> batch) {
+        final Map<String, IOException> errors = new HashMap<>();
+        final Map<String, Object> run = new LinkedHashMap<>();
+        for (Map.Entry<String, Write> entry : batch.entrySet()) {
+            if (entry.getValue().value == DELETED) {
+                setAll(run, errors);
+                run.clear();
+                try {
+                    state.delete(entry.getKey());
+                } catch (InvalidParameterException e) {
+                    LOGGER.warn("Unable to delete " + entry.getKey() + ". It does not exist.");
+                } catch (IOException | RuntimeException e) {
+                    LOGGER.error("Unable to delete " + entry.getKey() + " from zookeeper", e);
+                    errors.put(entry.getKey(), e instanceof IOException ? (IOException) e : new IOException(e));
+                }
+            } else {
+                run.put(entry.getKey(), entry.getValue().value);
+            }
+        }
+        setAll(run, errors);
+        return errors;
+    }
+
+    private void setAll(Map<String, Object> run, Map<String, IOException> errors) {
+        if (run.isEmpty()) {
+            return;
+        }
+        try {
+            state.setAll(run);
+        } catch (IOException | RuntimeException e) {
+            LOGGER.error("Unable to write " + run.keySet() + " to zookeeper", e);
+            final IOException error = e instanceof IOException ? (IOException) e : new IOException(e);
+            run.keySet().forEach(key -> errors.put(key, error));
+        }
+    }
+
+    /**
+     * A queued value, and the number of writes queued up to and including it.
+     */
+    private static class Write {
+        private final Object value;
+        private final long sequence;
+
+        Write(Object value, long sequence) {
+            this.value = value;
+            this.sequence = sequence;
+        }
+    }
+
+    private static class Failure {
+        private final long sequence;
+        private final IOException error;
+
+        Failure(long sequence, IOException error) {
+            this.sequence = sequence;
+            this.error = error;
+        }
+    }
+}
@@ -1,5 +1,6 @@
 package org.apache.mesos.elasticsearch.scheduler;
 
+import com.beust.jcommander.ParameterException;
 import org.apache.mesos.Protos;
 import org.apache.mesos.elasticsearch.common.cli.ZookeeperCLIParameter;
 import org.apache.mesos.elasticsearch.scheduler.state.ClusterState;
@@ -10,7 +11,11 @@ import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.net.UnknownHostException;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
 
 import static org.junit.Assert.*;
 
@@ -78,4 +83,115 @@ public class ConfigurationTest {
         Configuration configuration = new Configuration(ZookeeperCLIParameter.ZOOKEEPER_MESOS_URL, "aa", Configuration.FRAMEWORK_NAME, "test");
         assertEquals("test0data", configuration.dataVolumeName(0L));
     }
-}
\ No newline at end of file
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldRequireRoleForPersistentVolumes() {
+        new Configuration(ZookeeperCLIParameter.ZOOKEEPER_MESOS_URL, "aa", Configuration.FRAMEWORK_USE_PERSISTENT_VOLUMES, "true", Configuration.FRAMEWORK_PRINCIPAL, "es");
+    }
+
+    @Test
+    public void shouldUseVolumeInSandboxForPersistentData() {
+        Configuration configuration = new Configuration(ZookeeperCLIParameter.ZOOKEEPER_MESOS_URL, "aa", Configuration.FRAMEWORK_USE_PERSISTENT_VOLUMES, "true",
+                Configuration.FRAMEWORK_ROLE, "elasticsearch", Configuration.FRAMEWORK_PRINCIPAL, "es");
+        ClusterState clusterState = Mockito.mock(ClusterState.class);
+        Protos.DiscoveryInfo discoveryInfo = Protos.DiscoveryInfo.newBuilder()
+                .setVisibility(Protos.DiscoveryInfo.Visibility.EXTERNAL)
+                .setPorts(Protos.Ports.newBuilder()
+                        .addPorts(Protos.Port.newBuilder().setNumber(9200))
+                        .addPorts(Protos.Port.newBuilder().setNumber(9300)))
+                .build();
+        List<String> args = configuration.esArguments(clusterState, discoveryInfo, Protos.SlaveID.newBuilder().setValue("slave").build());
+        assertTrue(args.contains("--path.data=" + PersistentVolumes.SANDBOX_IN_CONTAINER + "/" + PersistentVolumes.VOLUME_PATH));
+    }
+
+    @Test
+    public void shouldMakeNodesAwareOfSpreadAttributes() {
+        Configuration configuration = new Configuration(ZookeeperCLIParameter.ZOOKEEPER_MESOS_URL, "aa", Configuration.FRAMEWORK_CONSTRAINTS, "rack:GROUP_BY;zone:LIKE:us-.*;hostname:UNIQUE");
+        assertEquals(Collections.singletonList("rack"), configuration.getAwarenessAttributes());
+        Protos.DiscoveryInfo discoveryInfo = Protos.DiscoveryInfo.newBuilder()
+                .setVisibility(Protos.DiscoveryInfo.Visibility.EXTERNAL)
+                .setPorts(Protos.Ports.newBuilder()
+                        .addPorts(Protos.Port.newBuilder().setNumber(9200))
+                        .addPorts(Protos.Port.newBuilder().setNumber(9300)))
+                .build();
+        Map<String, String> attributes = new HashMap<>();
+        attributes.put("rack", "r1");
+        attributes.put("zone", "us-east");
+        List<String> args = configuration.esArguments(Mockito.mock(ClusterState.class), discoveryInfo, Protos.SlaveID.newBuilder().setValue("slave").build(), attributes);
+        assertTrue(args.contains("--node.rack=r1"));
+        assertTrue(args.contains("--default.cluster.routing.allocation.awareness.attributes=rack"));
+        assertFalse(args.toString().contains("zone"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldRejectInvalidConstraints() {
+        new Configuration(ZookeeperCLIParameter.ZOOKEEPER_MESOS_URL, "aa", Configuration.FRAMEWORK_CONSTRAINTS, "rack:SPREAD");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldRejectAutoscaleMinimumAboveMaximum() {
+        new Configuration(ZookeeperCLIParameter.ZOOKEEPER_MESOS_URL, "aa", Configuration.FRAMEWORK_AUTOSCALE_MIN_NODES, "5", Configuration.FRAMEWORK_AUTOSCALE_MAX_NODES, "3");
+    }
+
+    @Test
+    public void shouldGiveDedicatedMastersTheirOwnQuorum() {
+        Configuration configuration = new Configuration(ZookeeperCLIParameter.ZOOKEEPER_MESOS_URL, "aa", "--elasticsearchNodes", "5",
+                Configuration.ELASTICSEARCH_MASTER_NODES, "3", Configuration.ELASTICSEARCH_CLIENT_NODES, "2");
+        assertEquals(10, NodeGroup.totalNodes(configuration));
+        Protos.DiscoveryInfo discoveryInfo = Protos.DiscoveryInfo.newBuilder()
+                .setVisibility(Protos.DiscoveryInfo.Visibility.EXTERNAL)
+                .setPorts(Protos.Ports.newBuilder()
+                        .addPorts(Protos.Port.newBuilder().setNumber(9200))
+                        .addPorts(Protos.Port.newBuilder().setNumber(9300)))
+                .build();
+        Protos.SlaveID slaveID = Protos.SlaveID.newBuilder().setValue("slave").build();
+
+        List<String> master = configuration.esArguments(Mockito.mock(ClusterState.class), discoveryInfo, slaveID, Collections.emptyMap(), NodeGroup.named(configuration, NodeGroup.MASTER).get());
+        assertTrue(master.contains("--node.master=true"));
+        assertTrue(master.contains("--node.data=false"));
+        assertTrue(master.contains("--default.discovery.zen.minimum_master_nodes=2"));
+
+        List<String> data = configuration.esArguments(Mockito.mock(ClusterState.class), discoveryInfo, slaveID);
+        assertTrue(data.contains("--node.master=false"));
+        assertTrue(data.contains("--node.data=true"));
+
+        List<String> client = configuration.esArguments(Mockito.mock(ClusterState.class), discoveryInfo, slaveID, Collections.emptyMap(), NodeGroup.named(configuration, NodeGroup.CLIENT).get());
+        assertTrue(client.contains("--node.master=false"));
+        assertTrue(client.contains("--node.data=false"));
+    }
+
+    @Test
+    public void shouldKeepDataNodesMasterEligibleWithoutDedicatedMasters() {
+        Configuration configuration = new Configuration(ZookeeperCLIParameter.ZOOKEEPER_MESOS_URL, "aa", "--elasticsearchNodes", "3");
+        assertEquals(Collections.singletonList(NodeGroup.DATA), NodeGroup.all(configuration).stream().map(NodeGroup::getName).collect(Collectors.toList()));
+        Protos.DiscoveryInfo discoveryInfo = Protos.DiscoveryInfo.newBuilder()
+                .setVisibility(Protos.DiscoveryInfo.Visibility.EXTERNAL)
+                .setPorts(Protos.Ports.newBuilder()
+                        .addPorts(Protos.Port.newBuilder().setNumber(9200))
+                        .addPorts(Protos.Port.newBuilder().setNumber(9300)))
+                .build();
+        List<String> args = configuration.esArguments(Mockito.mock(ClusterState.class), discoveryInfo, Protos.SlaveID.newBuilder().setValue("slave").build());
+        assertTrue(args.contains("--default.node.master=true"));
+        assertTrue(args.contains("--default.node.data=true"));
+        assertTrue(args.contains("--default.discovery.zen.minimum_master_nodes=3"));
+    }
+
+    @Test
+    public void shouldAcceptSupportedStateBackends() {
+        for (String backend : Arrays.asList(Configuration.STATE_BACKEND_ZOOKEEPER, Configuration.STATE_BACKEND_FILE, Configuration.STATE_BACKEND_MEMORY)) {
+            Configuration configuration = new Configuration(ZookeeperCLIParameter.ZOOKEEPER_MESOS_URL, "aa", Configuration.FRAMEWORK_STATE_BACKEND, backend);
+            assertEquals(backend, configuration.getFrameworkStateBackend());
+        }
+    }
+
+    @Test(expected = ParameterException.class)
+    public void shouldRejectUnknownStateBackend() {
+        new Configuration(ZookeeperCLIParameter.ZOOKEEPER_MESOS_URL, "aa", Configuration.FRAMEWORK_STATE_BACKEND, "etcd");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldRejectNodeGroupsOnPersistentVolumes() {
+        new Configuration(ZookeeperCLIParameter.ZOOKEEPER_MESOS_URL, "aa", Configuration.FRAMEWORK_USE_PERSISTENT_VOLUMES, "true",
+                Configuration.FRAMEWORK_ROLE, "elasticsearch", Configuration.FRAMEWORK_PRINCIPAL, "es", Configuration.ELASTICSEARCH_MASTER_NODES, "3");
+    }
+}
@@ -0,0 +1,125 @@
+package org.apache.mesos.elasticsearch.scheduler;
+
+import org.apache.mesos.Protos;
+import org.apache.mesos.elasticsearch.scheduler.state.ClusterState;
+import org.junit.Test;
+
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.mock;
+
+/**
+ * Tests
+ */
+public class ConstraintTest {
+
+    @Test
+    public void shouldParseConstraints() {
+        final List<Constraint> constraints = Constraint.parse("rack:GROUP_BY:3; zone:like:us-east-1[ab];hostname:UNIQUE");
+        assertEquals(3, constraints.size());
+        assertEquals("rack:GROUP_BY:3", constraints.get(0).toString());
+        assertEquals(Constraint.Operator.LIKE, constraints.get(1).getOperator());
+        assertEquals("hostname", constraints.get(2).getField());
+        assertTrue(Constraint.parse("").isEmpty());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldRejectLikeWithoutRegex() {
+        Constraint.parse("zone:LIKE");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldRejectNonNumericGroupCount() {
+        Constraint.parse("rack:GROUP_BY:many");
+    }
+
+    @Test
+    public void shouldPlaceOneNodePerValueWhenUnique() {
+        final Constraint unique = Constraint.parse("rack:UNIQUE").get(0);
+        final OfferContext context = new OfferContext(Collections.singletonList(task("host1", "r1")), 5);
+        assertFalse(unique.isSatisfied(context, offer("host2", "r1")));
+        assertTrue(unique.isSatisfied(context, offer("host3", "r2")));
+        assertFalse(unique.isSatisfied(context, offer("host4", null)));
+    }
+
+    @Test
+    public void shouldPlaceAllNodesTogetherWhenClustered() {
+        final OfferContext context = new OfferContext(Collections.singletonList(task("host1", "r1")), 5);
+        assertTrue(Constraint.parse("rack:CLUSTER").get(0).isSatisfied(context, offer("host2", "r1")));
+        assertFalse(Constraint.parse("rack:CLUSTER").get(0).isSatisfied(context, offer("host3", "r2")));
+        assertTrue(Constraint.parse("rack:CLUSTER:r2").get(0).isSatisfied(context, offer("host3", "r2")));
+        assertTrue(Constraint.parse("rack:CLUSTER").get(0).isSatisfied(new OfferContext(Collections.emptyList(), 5), offer("host3", "r2")));
+    }
+
+    @Test
+    public void shouldSpreadNodesEvenlyWhenGroupedBy() {
+        final Constraint groupBy = Constraint.parse("rack:GROUP_BY").get(0);
+        final List<Protos.TaskInfo> tasks = new ArrayList<>();
+        tasks.add(task("host1", "r1"));
+        tasks.add(task("host2", "r2"));
+        tasks.add(task("host3", "r1"));
+        final OfferContext context = new OfferContext(tasks, 5);
+        assertFalse(groupBy.isSatisfied(context, offer("host4", "r1")));
+        assertTrue(groupBy.isSatisfied(context, offer("host5", "r2")));
+        assertTrue(groupBy.isSatisfied(context, offer("host6", "r3")));
+    }
+
+    @Test
+    public void shouldWaitForUnseenGroups() {
+        final OfferContext context = new OfferContext(Collections.singletonList(task("host1", "r1")), 5);
+        assertTrue(Constraint.parse("rack:GROUP_BY").get(0).isSatisfied(context, offer("host2", "r1")));
+        assertFalse(Constraint.parse("rack:GROUP_BY:2").get(0).isSatisfied(context, offer("host2", "r1")));
+    }
+
+    @Test
+    public void shouldMatchRegexWhenLike() {
+        final Constraint like = Constraint.parse("rack:LIKE:r[12]").get(0);
+        final OfferContext context = new OfferContext(Collections.emptyList(), 5);
+        assertTrue(like.isSatisfied(context, offer("host1", "r2")));
+        assertFalse(like.isSatisfied(context, offer("host2", "r10")));
+    }
+
+    @Test
+    public void shouldConstrainHostname() {
+        final OfferContext context = new OfferContext(Collections.emptyList(), 5);
+        assertTrue(Constraint.parse("hostname:LIKE:host[0-9]").get(0).isSatisfied(context, offer("host1", null)));
+    }
+
+    @Test
+    public void shouldCountNodesPlacedInTheBatch() {
+        final Constraint unique = Constraint.parse("rack:UNIQUE").get(0);
+        final OfferContext context = new OfferContext(Collections.emptyList(), 5);
+        context.place(offer("host1", "r1"));
+        assertFalse(unique.isSatisfied(context, offer("host2", "r1")));
+    }
+
+    private static Protos.Offer offer(String host, String rack) {
+        final Protos.Offer.Builder offer = Protos.Offer.newBuilder()
+                .setId(Protos.OfferID.newBuilder().setValue("offer-" + host))
+                .setFrameworkId(Protos.FrameworkID.newBuilder().setValue("testframework"))
+                .setSlaveId(Protos.SlaveID.newBuilder().setValue(host))
+                .setHostname(host);
+        if (rack != null) {
+            offer.addAttributes(Protos.Attribute.newBuilder()
+                    .setName("rack")
+                    .setType(Protos.Value.Type.TEXT)
+                    .setText(Protos.Value.Text.newBuilder().setValue(rack)));
+        }
+        return offer.build();
+    }
+
+    private static Protos.TaskInfo task(String host, String rack) {
+        final Protos.Offer offer = offer(host, rack);
+        return Protos.TaskInfo.newBuilder()
+                .setName("Test")
+                .setTaskId(Protos.TaskID.newBuilder().setValue(host))
+                .setSlaveId(offer.getSlaveId())
+                .setData(new TaskInfoFactory(mock(ClusterState.class))
+                        .toData(host, "127.0.0.1", ZonedDateTime.now(), Constraint.attributesOf(offer)))
+                .build();
+    }
+}
@@ -7,17 +7,22 @@ import org.apache.mesos.elasticsearch.scheduler.matcher.RequestMatcher;
 import org.apache.mesos.elasticsearch.scheduler.state.ClusterState;
 import org.apache.mesos.elasticsearch.scheduler.state.FrameworkState;
 import org.apache.mesos.elasticsearch.scheduler.state.SerializableState;
+import org.apache.mesos.elasticsearch.scheduler.state.StatePath;
 import org.apache.mesos.elasticsearch.scheduler.util.ProtoTestUtil;
 import org.junit.Before;
 import org.junit.Test;
 import org.mockito.ArgumentMatcher;
 import org.mockito.Mockito;
 
+import java.io.IOException;
+import java.util.Optional;
 import java.util.UUID;
 
+import static java.util.Arrays.asList;
 import static java.util.Collections.singleton;
 import static java.util.Collections.singletonList;
 import static org.apache.mesos.elasticsearch.common.Offers.newOfferBuilder;
+import static org.mockito.Matchers.anyCollectionOf;
 import static org.mockito.Matchers.argThat;
 import static org.mockito.Mockito.*;
 
@@ -49,6 +54,7 @@ public class ElasticsearchSchedulerTest {
     @Before
     public void before() {
         when(frameworkState.getFrameworkID()).thenReturn(frameworkID);
+        when(clusterState.getStatePath()).thenReturn(new StatePath(serializableState));
 
         configuration = mock(org.apache.mesos.elasticsearch.scheduler.Configuration.class);
         when(configuration.getElasticsearchNodes()).thenReturn(3);
@@ -56,8 +62,12 @@ public class ElasticsearchSchedulerTest {
         when(configuration.getTaskName()).thenReturn("esdemo");
         when(configuration.getFrameworkRole()).thenReturn("*");
         when(configuration.getFrameworkName()).thenReturn("FrameworkName");
+        when(configuration.getOfferRefuseSeconds()).thenReturn(30.0);
 
         taskInfoFactory = mock(TaskInfoFactory.class);
+        when(offerStrategy.brokenConstraint(any(OfferContext.class), any(Protos.Offer.class))).thenReturn(Optional.empty());
+        final NodeGroup dataGroup = NodeGroup.data(configuration);
+        when(offerStrategy.groupFor(any(OfferContext.class), any(Protos.Offer.class))).thenReturn(Optional.of(dataGroup));
 
         scheduler = new ElasticsearchScheduler(configuration, frameworkState, clusterState, taskInfoFactory, offerStrategy, serializableState);
 
@@ -105,7 +115,18 @@ public class ElasticsearchSchedulerTest {
     public void willDeclineOfferIfStrategyDeclinesOffer() {
         Protos.Offer offer = newOffer("host1").build();
 
-        when(offerStrategy.evaluate(offer)).thenReturn(OfferStrategy.OfferResult.decline("Test"));
+        when(offerStrategy.evaluate(any(OfferContext.class), eq(offer))).thenReturn(OfferStrategy.OfferResult.decline("Test"));
+        when(frameworkState.isRegistered()).thenReturn(true);
+
+        scheduler.resourceOffers(driver, singletonList(offer));
+
+        verify(driver).declineOffer(offer.getId(), Protos.Filters.newBuilder().setRefuseSeconds(30.0).build());
+    }
+
+    @Test
+    public void shouldDeclineWithoutFilterIfFirstNodeIsNotResponding() {
+        Protos.Offer offer = newOffer("host1").build();
+        when(offerStrategy.evaluate(any(OfferContext.class), eq(offer))).thenReturn(OfferStrategy.OfferResult.decline(OfferStrategy.FIRST_NODE_NOT_RESPONDING));
         when(frameworkState.isRegistered()).thenReturn(true);
 
         scheduler.resourceOffers(driver, singletonList(offer));
@@ -113,21 +134,87 @@ public class ElasticsearchSchedulerTest {
         verify(driver).declineOffer(offer.getId());
     }
 
+    @Test
+    public void shouldSuppressOffersWhenClusterSizeIsFulfilled() {
+        when(clusterState.getTaskList()).thenReturn(asList(ProtoTestUtil.getDefaultTaskInfo(), ProtoTestUtil.getDefaultTaskInfo(), ProtoTestUtil.getDefaultTaskInfo()));
+        Protos.Offer offer = newOffer("host4").build();
+        when(offerStrategy.evaluate(any(OfferContext.class), eq(offer))).thenReturn(OfferStrategy.OfferResult.decline(OfferStrategy.CLUSTER_SIZE_FULFILLED));
+        when(frameworkState.isRegistered()).thenReturn(true);
+
+        scheduler.resourceOffers(driver, singletonList(offer));
+        scheduler.resourceOffers(driver, singletonList(offer));
+
+        verify(driver, times(1)).suppressOffers();
+        verify(driver, never()).reviveOffers();
+    }
+
+    @Test
+    public void shouldReviveOffersWhenClusterSizeIsNoLongerFulfilled() {
+        when(clusterState.getTaskList()).thenReturn(asList(ProtoTestUtil.getDefaultTaskInfo(), ProtoTestUtil.getDefaultTaskInfo(), ProtoTestUtil.getDefaultTaskInfo()));
+        scheduler.reviewOfferInterest(driver);
+        verify(driver).suppressOffers();
+
+        when(configuration.getElasticsearchNodes()).thenReturn(5);
+        scheduler.reviewOfferInterest(driver);
+        scheduler.reviewOfferInterest(driver);
+        verify(driver, times(1)).reviveOffers();
+    }
+
+    @Test
+    public void shouldSuppressAgainAfterReregistration() {
+        when(clusterState.getTaskList()).thenReturn(asList(ProtoTestUtil.getDefaultTaskInfo(), ProtoTestUtil.getDefaultTaskInfo(), ProtoTestUtil.getDefaultTaskInfo()));
+        scheduler.reviewOfferInterest(driver);
+        scheduler.reregistered(driver, masterInfo);
+        verify(driver, times(2)).suppressOffers();
+    }
+
     @Test
     public void testResourceOffers_launchTasks() {
         final Protos.Offer offer = newOffer("host3").build();
-        when(offerStrategy.evaluate(offer)).thenReturn(OfferStrategy.OfferResult.accept());
+        when(offerStrategy.evaluate(any(OfferContext.class), eq(offer))).thenReturn(OfferStrategy.OfferResult.accept());
         when(frameworkState.isRegistered()).thenReturn(true);
 
         Protos.TaskInfo taskInfo = ProtoTestUtil.getDefaultTaskInfo();
 
-        when(taskInfoFactory.createTask(any(), any(), any(), any())).thenReturn(taskInfo);
+        when(taskInfoFactory.createTask(any(), any(), any(), any(), any())).thenReturn(taskInfo);
 
         scheduler.resourceOffers(driver, singletonList(offer));
 
         verify(driver).launchTasks(singleton(offer.getId()), singleton(taskInfo));
     }
 
+    @Test
+    public void shouldDeclineOfferIfTaskCanNotBeStored() throws IOException {
+        final Protos.Offer offer = newOffer("host3").build();
+        when(offerStrategy.evaluate(any(OfferContext.class), eq(offer))).thenReturn(OfferStrategy.OfferResult.accept());
+        when(frameworkState.isRegistered()).thenReturn(true);
+        Protos.TaskInfo taskInfo = ProtoTestUtil.getDefaultTaskInfo();
+        when(taskInfoFactory.createTask(any(), any(), any(), any(), any())).thenReturn(taskInfo);
+        doThrow(new IOException("Test exception")).when(serializableState).flush();
+
+        scheduler.resourceOffers(driver, singletonList(offer));
+
+        verify(driver, never()).launchTasks(anyCollectionOf(Protos.OfferID.class), anyCollectionOf(Protos.TaskInfo.class));
+        verify(driver).declineOffer(offer.getId());
+        verify(clusterState).removeTask(taskInfo);
+    }
+
+    @Test
+    public void shouldLaunchSeveralTasksWithOneFlush() throws IOException {
+        final Protos.Offer first = newOffer("host1").build();
+        final Protos.Offer second = newOffer("host2").build();
+        when(offerStrategy.evaluate(any(OfferContext.class), any(Protos.Offer.class))).thenReturn(OfferStrategy.OfferResult.accept());
+        when(frameworkState.isRegistered()).thenReturn(true);
+        Protos.TaskInfo taskInfo = ProtoTestUtil.getDefaultTaskInfo();
+        when(taskInfoFactory.createTask(any(), any(), any(), any(), any())).thenReturn(taskInfo);
+
+        scheduler.resourceOffers(driver, asList(first, second));
+
+        verify(serializableState, times(1)).flush();
+        verify(driver).launchTasks(singleton(first.getId()), singleton(taskInfo));
+        verify(driver).launchTasks(singleton(second.getId()), singleton(taskInfo));
+    }
+
     private Protos.Offer.Builder newOffer(String hostname) {
         return newOfferBuilder(UUID.randomUUID().toString(), hostname, UUID.randomUUID().toString(), frameworkID);
     }
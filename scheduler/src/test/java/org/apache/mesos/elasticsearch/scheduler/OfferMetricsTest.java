@@ -0,0 +1,49 @@
+package org.apache.mesos.elasticsearch.scheduler;
+
+import org.junit.Test;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests
+ */
+public class OfferMetricsTest {
+    private final OfferMetrics metrics = new OfferMetrics();
+
+    @Test
+    public void shouldCountDeclinesByReason() {
+        metrics.recordDeclined("Host already running task");
+        metrics.recordDeclined("Offer did not have 2 ports");
+        metrics.recordDeclined("Host already running task");
+        metrics.recordAccepted();
+
+        assertEquals(1, metrics.getAccepted());
+        assertEquals(2L, (long) metrics.getDeclined().get("Host already running task"));
+        assertEquals(1L, (long) metrics.getDeclined().get("Offer did not have 2 ports"));
+    }
+
+    @Test
+    public void shouldBucketEvaluationLatency() {
+        metrics.recordEvaluation(TimeUnit.MICROSECONDS.toNanos(5));
+        metrics.recordEvaluation(TimeUnit.MICROSECONDS.toNanos(100));
+        metrics.recordEvaluation(TimeUnit.MICROSECONDS.toNanos(101));
+        metrics.recordEvaluation(TimeUnit.SECONDS.toNanos(2));
+
+        final Map<String, Long> histogram = metrics.getEvaluationHistogram();
+        assertEquals(OfferMetrics.BUCKET_BOUNDS_MICROS.length + 1, histogram.size());
+        assertEquals(1L, (long) histogram.get("le_10us"));
+        assertEquals(1L, (long) histogram.get("le_100us"));
+        assertEquals(1L, (long) histogram.get("le_500us"));
+        assertEquals(1L, (long) histogram.get("gt_1000000us"));
+        assertEquals(4, metrics.getEvaluations());
+        assertEquals(TimeUnit.SECONDS.toMicros(2), metrics.getMaxEvaluationMicros());
+    }
+
+    @Test
+    public void shouldReportZeroMeanWithoutEvaluations() {
+        assertEquals(0.0, metrics.getMeanEvaluationMicros(), 0.0);
+    }
+}
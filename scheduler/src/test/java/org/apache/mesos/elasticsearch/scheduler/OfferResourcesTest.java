@@ -0,0 +1,89 @@
+package org.apache.mesos.elasticsearch.scheduler;
+
+import org.apache.mesos.Protos;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.List;
+
+import static java.util.Arrays.asList;
+import static org.apache.mesos.elasticsearch.scheduler.Resources.*;
+import static org.junit.Assert.*;
+
+/**
+ * Tests
+ */
+public class OfferResourcesTest {
+
+    @Test
+    public void shouldSumScalarsPerNameAndRole() {
+        final OfferResources resources = new OfferResources(asList(cpus(1, "*"), cpus(2, "es"), mem(256, "*"), mem(256, "*")), "es");
+        assertEquals(3.0, resources.getScalar(RESOURCE_CPUS), 0.0);
+        assertEquals(2.0, resources.getScalar(RESOURCE_CPUS, "es"), 0.0);
+        assertEquals(512.0, resources.getScalar(RESOURCE_MEM, "*"), 0.0);
+        assertEquals(0.0, resources.getScalar(RESOURCE_DISK), 0.0);
+        assertTrue(resources.isEnough(RESOURCE_CPUS, 3));
+        assertFalse(resources.isEnough(RESOURCE_DISK, 1));
+    }
+
+    @Test
+    public void shouldFindPortsInUnsortedOverlappingRanges() {
+        final OfferResources resources = new OfferResources(asList(
+                portRange(31005, 31010, "*"), portRange(9200, 9200, "*"), portRange(31000, 31006, "*"), portRange(31011, 31011, "*")), "*");
+        assertTrue(resources.isPortAvailable(9200));
+        assertFalse(resources.isPortAvailable(9201));
+        assertTrue(resources.isPortAvailable(31000));
+        assertTrue(resources.isPortAvailable(31011));
+        assertFalse(resources.isPortAvailable(31012));
+        assertFalse(resources.isPortAvailable(80));
+    }
+
+    @Test
+    public void shouldSelectLowestPorts() {
+        final OfferResources resources = new OfferResources(asList(portRange(31000, 31001, "*"), singlePortRange(9200, "*")), "*");
+        assertEquals(asList(9200, 31000), resources.selectPorts(2));
+        assertEquals(asList(9200, 31000, 31001), resources.selectPorts(5));
+    }
+
+    @Test
+    public void shouldNotSelectExcludedPorts() {
+        final OfferResources resources = new OfferResources(Collections.singletonList(portRange(9200, 9300, "*")), "*");
+        assertEquals(asList(9201, 9203), resources.selectPorts(2, asList(9200, 9202)));
+    }
+
+    @Test
+    public void shouldIgnoreScalarPorts() {
+        final OfferResources resources = new OfferResources(Collections.singletonList(cpus(1, "*")), "*");
+        assertTrue(resources.selectPorts(2).isEmpty());
+        assertFalse(resources.isPortAvailable(0));
+    }
+
+    @Test
+    public void shouldIgnoreResourcesOfOtherRoles() {
+        final OfferResources resources = new OfferResources(asList(cpus(1, "*"), cpus(4, "other"), singlePortRange(9200, "other")), "es");
+        assertEquals(1.0, resources.getScalar(RESOURCE_CPUS), 0.0);
+        assertFalse(resources.isPortAvailable(9200));
+    }
+
+    @Test
+    public void shouldTakeReservedResourcesFirst() {
+        final OfferResources resources = new OfferResources(asList(cpus(2, "*"), cpus(1, "es")), "es");
+        final List<Protos.Resource> taken = resources.take(RESOURCE_CPUS, 2.5);
+        assertEquals(asList(cpus(1, "es"), cpus(1.5, "*")), taken);
+        assertEquals(Collections.singletonList(cpus(0.5, "es")), resources.take(RESOURCE_CPUS, 0.5));
+    }
+
+    @Test
+    public void shouldOnlyTakeUnreservedResourcesWhenNoneAreReserved() {
+        final OfferResources resources = new OfferResources(Collections.singletonList(mem(1024, "*")), "es");
+        assertEquals(Collections.singletonList(mem(256, "*")), resources.take(RESOURCE_MEM, 256));
+    }
+
+    @Test
+    public void shouldKeepPortRoles() {
+        final OfferResources resources = new OfferResources(asList(portRange(9200, 9200, "es"), portRange(9201, 9300, "*")), "es");
+        assertEquals(asList(9200, 9201), resources.selectPorts(2));
+        assertEquals(singlePortRange(9200, "es"), resources.takePort(9200));
+        assertEquals(singlePortRange(9201, "*"), resources.takePort(9201));
+    }
+}
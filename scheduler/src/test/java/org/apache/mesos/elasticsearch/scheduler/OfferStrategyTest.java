@@ -2,6 +2,7 @@ package org.apache.mesos.elasticsearch.scheduler;
 
 import com.google.protobuf.InvalidProtocolBufferException;
 import org.apache.mesos.Protos;
+import org.apache.mesos.elasticsearch.scheduler.cluster.ClusterHealthMonitor;
 import org.apache.mesos.elasticsearch.scheduler.state.ClusterState;
 import org.apache.mesos.elasticsearch.scheduler.state.ESTaskStatus;
 import org.junit.Before;
@@ -14,11 +15,15 @@ import org.mockito.runners.MockitoJUnitRunner;
 import java.util.Arrays;
 
 import static java.util.Arrays.asList;
+import static java.util.Collections.singleton;
 import static java.util.Collections.singletonList;
 import static org.apache.mesos.elasticsearch.scheduler.Resources.*;
 import static org.junit.Assert.*;
 import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyLong;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 /**
@@ -34,6 +39,9 @@ public class OfferStrategyTest {
     @Mock
     ClusterState clusterState;
 
+    @Mock
+    ClusterHealthMonitor healthMonitor;
+
     @InjectMocks
     OfferStrategyNormal offerStrategy;
 
@@ -43,6 +51,7 @@ public class OfferStrategyTest {
         ESTaskStatus esTaskStatus = mock(ESTaskStatus.class);
         when(esTaskStatus.getStatus()).thenReturn(taskStatus());
         when(clusterState.getStatus(any(Protos.TaskID.class))).thenReturn(esTaskStatus);
+        when(healthMonitor.isFirstNodeResponding()).thenReturn(true);
     }
     
     @Test
@@ -51,7 +60,18 @@ public class OfferStrategyTest {
 
         final OfferStrategyNormal.OfferResult result = offerStrategy.evaluate(validOffer("host1"));
         assertFalse(result.acceptable);
-        assertEquals("Host already running task", result.reason.get());
+        assertEquals(OfferStrategy.HOST_ALREADY_RUNNING_TASK, result.reason.get());
+    }
+
+    @Test
+    public void willDeclineIfFirstNodeIsNotResponding() throws Exception {
+        when(clusterState.getTaskList()).thenReturn(singletonList(createTask("host1")));
+        when(configuration.getElasticsearchNodes()).thenReturn(3);
+        when(healthMonitor.isFirstNodeResponding()).thenReturn(false);
+
+        final OfferStrategyNormal.OfferResult result = offerStrategy.evaluate(acceptableOffer("host2"));
+        assertFalse(result.acceptable);
+        assertEquals("First ES node is not responding", result.reason.get());
     }
 
     @Test
@@ -61,7 +81,7 @@ public class OfferStrategyTest {
 
         final OfferStrategyNormal.OfferResult result = offerStrategy.evaluate(validOffer("host4"));
         assertFalse(result.acceptable);
-        assertEquals("Cluster size already fulfilled", result.reason.get());
+        assertEquals(OfferStrategy.CLUSTER_SIZE_FULFILLED, result.reason.get());
     }
 
     @Test
@@ -181,6 +201,39 @@ public class OfferStrategyTest {
         assertFalse(offerResult.reason.isPresent());
     }
 
+    @Test
+    public void shouldAcceptOfferWithResourcesSplitOverRoles() throws Exception {
+        when(clusterState.getTaskList()).thenReturn(asList(createTask("host1"), createTask("host2")));
+        when(configuration.getElasticsearchNodes()).thenReturn(3);
+        when(configuration.getCpus()).thenReturn(1.0);
+        when(configuration.getMem()).thenReturn(256.0);
+
+        final OfferStrategyNormal.OfferResult offerResult = offerStrategy.evaluate(baseOfferBuilder("host3")
+                .addResources(portRange(9200, 9200, configuration.getFrameworkRole()))
+                .addResources(portRange(9300, 9300, "*"))
+                .addResources(cpus(0.5, configuration.getFrameworkRole()))
+                .addResources(cpus(0.5, "*"))
+                .addResources(mem(128, "*"))
+                .addResources(mem(128, configuration.getFrameworkRole()))
+                .build());
+        assertTrue(offerResult.acceptable);
+    }
+
+    @Test
+    public void shouldNotCountResourcesReservedForOtherRoles() throws Exception {
+        when(clusterState.getTaskList()).thenReturn(asList(createTask("host1"), createTask("host2")));
+        when(configuration.getElasticsearchNodes()).thenReturn(3);
+        when(configuration.getCpus()).thenReturn(1.0);
+
+        final OfferStrategyNormal.OfferResult offerResult = offerStrategy.evaluate(baseOfferBuilder("host3")
+                .addResources(portRange(9200, 9300, "*"))
+                .addResources(cpus(0.5, "*"))
+                .addResources(cpus(4, "otherRole"))
+                .build());
+        assertFalse(offerResult.acceptable);
+        assertEquals("Offer did not have enough CPU resources", offerResult.reason.get());
+    }
+
     @Test
     public void shouldDeclineWhenHostIsUnresolveable() throws InvalidProtocolBufferException {
         when(clusterState.getTaskList()).thenReturn(asList(createTask("host1"), createTask("host2")));
@@ -210,6 +263,78 @@ public class OfferStrategyTest {
         assertTrue(offerResult.acceptable);
     }
 
+    @Test
+    public void shouldNotFillTheLastPlaceTwiceInOneBatch() throws Exception {
+        when(clusterState.getTaskList()).thenReturn(asList(createTask("host1"), createTask("host2")));
+        when(configuration.getElasticsearchNodes()).thenReturn(3);
+        final OfferContext context = OfferContext.of(clusterState, configuration);
+
+        final Protos.Offer first = acceptableOffer("host3");
+        assertTrue(offerStrategy.evaluate(context, first).acceptable);
+        context.place(first);
+
+        final Protos.Offer other = Protos.Offer.newBuilder(acceptableOffer("host4")).setHostname("127.0.0.1").build();
+        final OfferStrategyNormal.OfferResult second = offerStrategy.evaluate(context, other);
+        assertFalse(second.acceptable);
+        assertEquals(OfferStrategy.CLUSTER_SIZE_FULFILLED, second.reason.get());
+    }
+
+    @Test
+    public void shouldDeclineSecondOfferFromSameHostInOneBatch() throws Exception {
+        when(configuration.getElasticsearchNodes()).thenReturn(3);
+        final OfferContext context = OfferContext.of(clusterState, configuration);
+        context.place(acceptableOffer("host3"));
+
+        final OfferStrategyNormal.OfferResult result = offerStrategy.evaluate(context, acceptableOffer("host3"));
+        assertFalse(result.acceptable);
+        assertEquals(OfferStrategy.HOST_ALREADY_RUNNING_TASK, result.reason.get());
+    }
+
+    @Test
+    public void shouldKeepLastPlaceForFailedNodeDuringGracePeriod() throws Exception {
+        when(clusterState.getTaskList()).thenReturn(asList(createTask("host1"), createTask("host2")));
+        when(clusterState.getLostDataLocations(anyLong())).thenReturn(singleton(Protos.SlaveID.newBuilder().setValue("host3").build()));
+        when(configuration.getElasticsearchNodes()).thenReturn(3);
+        when(configuration.getRelaunchGracePeriod()).thenReturn(60000L);
+        final OfferContext context = OfferContext.of(clusterState, configuration);
+
+        final OfferStrategyNormal.OfferResult other = offerStrategy.evaluate(context, acceptableOffer("host4"));
+        assertFalse(other.acceptable);
+        assertEquals(OfferStrategy.AWAITING_LOST_DATA_HOST, other.reason.get());
+        assertTrue(offerStrategy.evaluate(context, acceptableOffer("host3")).acceptable);
+    }
+
+    @Test
+    public void shouldLaunchAnywhereAfterGracePeriod() throws Exception {
+        when(clusterState.getTaskList()).thenReturn(asList(createTask("host1"), createTask("host2")));
+        when(configuration.getElasticsearchNodes()).thenReturn(3);
+        when(configuration.getRelaunchGracePeriod()).thenReturn(60000L);
+        final OfferContext context = OfferContext.of(clusterState, configuration); // The cluster state has forgotten the failed node
+
+        assertTrue(offerStrategy.evaluate(context, acceptableOffer("host4")).acceptable);
+    }
+
+    @Test
+    public void shouldReadClusterStateOncePerBatch() throws Exception {
+        when(clusterState.getTaskList()).thenReturn(asList(createTask("host1"), createTask("host2")));
+        when(configuration.getElasticsearchNodes()).thenReturn(5);
+        final OfferContext context = OfferContext.of(clusterState, configuration);
+        for (int i = 0; i < 10; i++) {
+            offerStrategy.evaluate(context, acceptableOffer("host" + (i + 3)));
+        }
+        verify(clusterState, times(1)).getTaskList();
+    }
+
+    private Protos.Offer acceptableOffer(String slaveId) {
+        return baseOfferBuilder(slaveId)
+                .addResources(portRange(9200, 9200, configuration.getFrameworkRole()))
+                .addResources(portRange(9300, 9300, configuration.getFrameworkRole()))
+                .addResources(cpus(configuration.getCpus(), configuration.getFrameworkRole()))
+                .addResources(mem(configuration.getMem(), configuration.getFrameworkRole()))
+                .addResources(disk(configuration.getDisk(), configuration.getFrameworkRole()))
+                .build();
+    }
+
     private Protos.TaskInfo createTask(String hostname) throws InvalidProtocolBufferException {
         return Protos.TaskInfo.newBuilder()
                 .setName("Test")
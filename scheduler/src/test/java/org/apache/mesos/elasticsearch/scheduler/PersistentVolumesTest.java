@@ -0,0 +1,110 @@
+package org.apache.mesos.elasticsearch.scheduler;
+
+import org.apache.mesos.Protos;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.List;
+
+import static java.util.Arrays.asList;
+import static org.apache.mesos.elasticsearch.scheduler.Resources.*;
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests
+ */
+public class PersistentVolumesTest {
+    private static final String ROLE = "elasticsearch";
+    private static final Protos.SlaveID SLAVE_ID = Protos.SlaveID.newBuilder().setValue("slave1").build();
+    private static final Protos.Resource.ReservationInfo RESERVATION = Protos.Resource.ReservationInfo.newBuilder().setPrincipal("es").build();
+
+    private final Configuration configuration = mock(Configuration.class);
+    private PersistentVolumes persistentVolumes;
+
+    @Before
+    public void before() {
+        when(configuration.isFrameworkUsePersistentVolumes()).thenReturn(true);
+        when(configuration.getFrameworkRole()).thenReturn(ROLE);
+        when(configuration.getFrameworkPrincipal()).thenReturn("es");
+        when(configuration.getFrameworkName()).thenReturn("elasticsearch");
+        when(configuration.getElasticsearchClusterName()).thenReturn("cluster");
+        when(configuration.getCpus()).thenReturn(1.0);
+        when(configuration.getMem()).thenReturn(256.0);
+        when(configuration.getDisk()).thenReturn(1024.0);
+        persistentVolumes = new PersistentVolumes(configuration);
+    }
+
+    @Test
+    public void shouldReserveCreateAndLaunchOnNewSlave() {
+        final OfferResources offered = new OfferResources(asList(cpus(4, "*"), mem(1024, "*"), disk(4096, "*")), ROLE);
+        assertFalse(persistentVolumes.hasVolume(offered, SLAVE_ID));
+        assertTrue(persistentVolumes.canPlaceVolume(offered, SLAVE_ID));
+
+        final List<Protos.Resource> taskResources = persistentVolumes.taskResources(offered, SLAVE_ID);
+        assertTrue(taskResources.contains(reserved(cpus(1, ROLE))));
+        assertTrue(taskResources.contains(reserved(mem(256, ROLE))));
+        final Protos.Resource volume = taskResources.get(2);
+        assertEquals("elasticsearch_cluster_slave1", volume.getDisk().getPersistence().getId());
+        assertEquals(PersistentVolumes.VOLUME_PATH, volume.getDisk().getVolume().getContainerPath());
+        assertEquals(ROLE, volume.getRole());
+        assertEquals(RESERVATION, volume.getReservation());
+
+        final List<Protos.Offer.Operation> operations = persistentVolumes.operations(offered, task(taskResources));
+        assertEquals(3, operations.size());
+        assertEquals(Protos.Offer.Operation.Type.RESERVE, operations.get(0).getType());
+        assertEquals(asList(reserved(cpus(1, ROLE)), reserved(mem(256, ROLE)), reserved(disk(1024, ROLE))), operations.get(0).getReserve().getResourcesList());
+        assertEquals(Protos.Offer.Operation.Type.CREATE, operations.get(1).getType());
+        assertEquals(volume, operations.get(1).getCreate().getVolumes(0));
+        assertEquals(Protos.Offer.Operation.Type.LAUNCH, operations.get(2).getType());
+    }
+
+    @Test
+    public void shouldOnlyLaunchOnSlaveWithVolume() {
+        final Protos.Resource volume = Protos.Resource.newBuilder(reserved(disk(1024, ROLE)))
+                .setDisk(Protos.Resource.DiskInfo.newBuilder()
+                        .setPersistence(Protos.Resource.DiskInfo.Persistence.newBuilder().setId("elasticsearch_cluster_slave1"))
+                        .setVolume(Protos.Volume.newBuilder().setContainerPath(PersistentVolumes.VOLUME_PATH).setMode(Protos.Volume.Mode.RW)))
+                .build();
+        final OfferResources offered = new OfferResources(asList(reserved(cpus(1, ROLE)), reserved(mem(256, ROLE)), volume, disk(10, "*")), ROLE);
+        assertTrue(persistentVolumes.hasVolume(offered, SLAVE_ID));
+        assertEquals(10.0, offered.getScalar(RESOURCE_DISK), 0.0); // The volume is not free disk
+
+        final List<Protos.Resource> taskResources = persistentVolumes.taskResources(offered, SLAVE_ID);
+        assertEquals(asList(reserved(cpus(1, ROLE)), reserved(mem(256, ROLE)), volume), taskResources);
+
+        final List<Protos.Offer.Operation> operations = persistentVolumes.operations(offered, task(taskResources));
+        assertEquals(1, operations.size());
+        assertEquals(Protos.Offer.Operation.Type.LAUNCH, operations.get(0).getType());
+    }
+
+    @Test
+    public void shouldCreateVolumeOnDiskAlreadyReserved() {
+        final OfferResources offered = new OfferResources(asList(cpus(1, "*"), mem(256, ROLE), disk(2048, ROLE)), ROLE);
+        final List<Protos.Offer.Operation> operations = persistentVolumes.operations(offered, task(persistentVolumes.taskResources(offered, SLAVE_ID)));
+        assertEquals(Collections.singletonList(reserved(cpus(1, ROLE))), operations.get(0).getReserve().getResourcesList());
+        assertEquals(ROLE, operations.get(1).getCreate().getVolumes(0).getRole());
+        assertFalse(operations.get(1).getCreate().getVolumes(0).hasReservation()); // Statically reserved
+    }
+
+    @Test
+    public void shouldNotPlaceVolumeOnDiskSplitOverRoles() {
+        final OfferResources offered = new OfferResources(asList(disk(512, ROLE), disk(512, "*")), ROLE);
+        assertFalse(persistentVolumes.canPlaceVolume(offered, SLAVE_ID));
+    }
+
+    private Protos.Resource reserved(Protos.Resource resource) {
+        return Protos.Resource.newBuilder(resource).setReservation(RESERVATION).build();
+    }
+
+    private Protos.TaskInfo task(List<Protos.Resource> resources) {
+        return Protos.TaskInfo.newBuilder()
+                .setName("Test")
+                .setTaskId(Protos.TaskID.newBuilder().setValue("TestId"))
+                .setSlaveId(SLAVE_ID)
+                .addAllResources(resources)
+                .build();
+    }
+}
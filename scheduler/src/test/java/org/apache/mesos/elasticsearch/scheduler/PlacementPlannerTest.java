@@ -0,0 +1,232 @@
+package org.apache.mesos.elasticsearch.scheduler;
+
+import org.apache.log4j.Logger;
+import org.apache.mesos.Protos;
+import org.apache.mesos.elasticsearch.scheduler.cluster.ClusterHealthMonitor;
+import org.apache.mesos.elasticsearch.scheduler.state.ClusterState;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static java.util.Arrays.asList;
+import static org.apache.mesos.elasticsearch.scheduler.Resources.cpus;
+import static org.apache.mesos.elasticsearch.scheduler.Resources.mem;
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests
+ */
+public class PlacementPlannerTest {
+    private static final Logger LOGGER = Logger.getLogger(PlacementPlannerTest.class);
+    private static final String ROLE = "*";
+
+    private final Configuration configuration = mock(Configuration.class);
+    private PlacementPlanner planner;
+
+    @Before
+    public void before() {
+        when(configuration.getCpus()).thenReturn(1.0);
+        when(configuration.getMem()).thenReturn(256.0);
+        when(configuration.getFrameworkRole()).thenReturn(ROLE);
+        planner = new PlacementPlanner(new ResourceOnlyStrategy(configuration), configuration);
+    }
+
+    @Test
+    public void shouldAcceptSeveralOffersInOneBatch() {
+        final OfferContext context = new OfferContext(Collections.emptyList(), 3);
+        final PlacementPlanner.Plan plan = planner.plan(context, asList(offer("host1", 1, 256), offer("host2", 1, 256), offer("host3", 1, 256)));
+        assertEquals(3, plan.getAccepted().size());
+        assertTrue(plan.getDeclined().isEmpty());
+        assertEquals(0, context.getRemainingCapacity());
+    }
+
+    @Test
+    public void shouldPreferOffersWithMostHeadroom() {
+        final Protos.Offer small = offer("small", 1, 256);
+        final Protos.Offer large = offer("large", 4, 1024);
+        final Protos.Offer medium = offer("medium", 2, 2048);
+        final PlacementPlanner.Plan plan = planner.plan(new OfferContext(Collections.emptyList(), 2), asList(small, large, medium));
+        assertEquals(asList(large, medium), plan.getAccepted());
+        assertEquals(OfferStrategy.CLUSTER_SIZE_FULFILLED, plan.getDeclined().get(small));
+    }
+
+    @Test
+    public void shouldNotPlaceTwoTasksOnOneHost() {
+        final Protos.Offer first = offer("host1", 2, 512);
+        final Protos.Offer second = Protos.Offer.newBuilder(offer("other", 1, 256)).setHostname("host1").build();
+        final PlacementPlanner.Plan plan = planner.plan(new OfferContext(Collections.emptyList(), 3), asList(second, first));
+        assertEquals(Collections.singletonList(first), plan.getAccepted());
+        assertEquals(OfferStrategy.HOST_ALREADY_RUNNING_TASK, plan.getDeclined().get(second));
+    }
+
+    @Test
+    public void shouldRecordDecisionsInMetrics() {
+        final OfferMetrics metrics = new OfferMetrics();
+        final PlacementPlanner measured = new PlacementPlanner(new ResourceOnlyStrategy(configuration), configuration, metrics);
+        measured.plan(new OfferContext(Collections.emptyList(), 1), asList(offer("host1", 2, 512), offer("host2", 1, 256), offer("host3", 0.1, 256)));
+        assertEquals(1, metrics.getAccepted());
+        assertEquals(1L, (long) metrics.getDeclined().get(OfferStrategy.CLUSTER_SIZE_FULFILLED));
+        assertEquals(1L, (long) metrics.getDeclined().get("Offer did not have enough CPU resources"));
+        assertEquals(3, metrics.getEvaluations());
+    }
+
+    @Test
+    public void shouldDeclineWithTheRuleReason() {
+        final Protos.Offer tooSmall = offer("host1", 0.1, 256);
+        final PlacementPlanner.Plan plan = planner.plan(new OfferContext(Collections.emptyList(), 3), Collections.singletonList(tooSmall));
+        assertTrue(plan.getAccepted().isEmpty());
+        assertEquals("Offer did not have enough CPU resources", plan.getDeclined().get(tooSmall));
+    }
+
+    @Test
+    public void shouldReturnFailedNodeToItsDataBeforeRoomierHosts() {
+        final Protos.Offer dataHost = offer("dataHost", 1, 256);
+        final Protos.Offer large = offer("large", 4, 1024);
+        final OfferContext context = new OfferContext(Collections.emptyList(), 1, ROLE, Collections.singleton(dataHost.getSlaveId()));
+        final PlacementPlanner.Plan plan = planner.plan(context, asList(large, dataHost));
+        assertEquals(Collections.singletonList(dataHost), plan.getAccepted());
+    }
+
+    @Test
+    public void shouldKeepPlacesForFailedNodesDuringGracePeriod() {
+        final Protos.SlaveID dataHost = Protos.SlaveID.newBuilder().setValue("dataHost").build();
+        final Protos.Offer first = offer("host1", 2, 512);
+        final Protos.Offer second = offer("host2", 1, 256);
+        final PlacementPlanner.Plan plan = planner.plan(new OfferContext(Collections.emptyList(), 2, ROLE, Collections.singleton(dataHost)), asList(first, second));
+        assertEquals(Collections.singletonList(first), plan.getAccepted());
+        assertEquals(OfferStrategy.AWAITING_LOST_DATA_HOST, plan.getDeclined().get(second));
+    }
+
+    @Test
+    public void shouldNotBreakConstraintWithTwoOffersOfOneBatch() {
+        when(configuration.getConstraints()).thenReturn(Constraint.parse("rack:UNIQUE"));
+        final PlacementPlanner constrained = new PlacementPlanner(new ResourceOnlyStrategy(configuration), configuration);
+        final Protos.Offer first = rackOffer("host1", "r1");
+        final Protos.Offer sameRack = rackOffer("host2", "r1");
+        final Protos.Offer otherRack = rackOffer("host3", "r2");
+        final PlacementPlanner.Plan plan = constrained.plan(new OfferContext(Collections.emptyList(), 3), asList(first, sameRack, otherRack));
+        assertEquals(asList(first, otherRack), plan.getAccepted());
+        assertEquals("Offer does not satisfy constraint rack:UNIQUE", plan.getDeclined().get(sameRack));
+    }
+
+    private static Protos.Offer rackOffer(String host, String rack) {
+        return Protos.Offer.newBuilder(offer(host, 1, 256))
+                .addAttributes(Protos.Attribute.newBuilder().setName("rack").setType(Protos.Value.Type.TEXT).setText(Protos.Value.Text.newBuilder().setValue(rack)))
+                .build();
+    }
+
+    @Test
+    public void shouldFillEachNodeGroupWithOffersThatFitIt() {
+        when(configuration.getMasterNodes()).thenReturn(1);
+        when(configuration.getMasterCpus()).thenReturn(0.5);
+        when(configuration.getMasterMem()).thenReturn(512.0);
+        final Map<String, Integer> targets = new LinkedHashMap<>();
+        targets.put(NodeGroup.MASTER, 1);
+        targets.put(NodeGroup.DATA, 2);
+        final OfferContext context = new OfferContext(Collections.emptyList(), targets, ROLE, Collections.emptySet());
+        final Protos.Offer large = offer("large", 2, 1024);
+        final Protos.Offer small = offer("small", 1, 256);
+        final Protos.Offer neither = offer("neither", 0.5, 300); // Enough CPU for a master and RAM for a data node
+        final PlacementPlanner.Plan plan = planner.plan(context, asList(small, neither, large));
+        assertEquals(asList(large, small), plan.getAccepted());
+        assertEquals(NodeGroup.MASTER, plan.getGroup(large).getName());
+        assertEquals(NodeGroup.DATA, plan.getGroup(small).getName());
+        assertEquals(OfferStrategy.NO_NODE_GROUP_FITS, plan.getDeclined().get(neither));
+        assertEquals(1, context.getRemainingCapacity(NodeGroup.DATA));
+    }
+
+    @Test
+    public void shouldRankOffersByHeadroomForTheirNodeGroup() {
+        when(configuration.getMasterNodes()).thenReturn(1);
+        when(configuration.getMasterCpus()).thenReturn(0.5);
+        when(configuration.getMasterMem()).thenReturn(2048.0);
+        final Map<String, Integer> targets = new LinkedHashMap<>();
+        targets.put(NodeGroup.MASTER, 1);
+        targets.put(NodeGroup.DATA, 0);
+        final OfferContext context = new OfferContext(Collections.emptyList(), targets, ROLE, Collections.emptySet());
+        final Protos.Offer manyCpus = offer("manyCpus", 4, 2048); // Roomy for a data node, but only just fits a master
+        final Protos.Offer muchRam = offer("muchRam", 1, 4096);
+        final PlacementPlanner.Plan plan = planner.plan(context, asList(manyCpus, muchRam));
+        assertEquals(asList(muchRam), plan.getAccepted());
+        assertEquals(NodeGroup.MASTER, plan.getGroup(muchRam).getName());
+    }
+
+    /**
+     * Simulates offer cycles where Mesos offers a random subset of the agents each time, and counts the cycles until
+     * the cluster reaches its target size. The baseline launches at most one task per cycle.
+     */
+    @Test
+    public void shouldReachTargetSizeInFewerCycles() {
+        for (int target : asList(3, 10, 30)) {
+            final int planned = cyclesToTarget(target, Integer.MAX_VALUE);
+            final int baseline = cyclesToTarget(target, 1);
+            LOGGER.info("Target " + target + " nodes: " + planned + " cycles with the planner, " + baseline + " cycles launching one per cycle");
+            assertTrue(planned <= baseline);
+            if (target >= 10) {
+                assertTrue(planned < baseline);
+            }
+        }
+    }
+
+    private int cyclesToTarget(int target, int launchesPerCycle) {
+        final Random random = new Random(target);
+        final List<Protos.Offer> agents = new ArrayList<>();
+        for (int i = 0; i < target * 2; i++) {
+            final boolean tooSmall = i % 4 == 0;
+            agents.add(offer("agent" + i, tooSmall ? 0.5 : 1 + random.nextInt(4), tooSmall ? 128 : 256 * (1 + random.nextInt(4))));
+        }
+        final List<Protos.TaskInfo> tasks = new ArrayList<>();
+        int cycles = 0;
+        while (tasks.size() < target) {
+            cycles++;
+            final List<Protos.Offer> offered = new ArrayList<>();
+            agents.stream().filter(agent -> random.nextDouble() < 0.3).forEach(offered::add);
+            final PlacementPlanner.Plan plan = planner.plan(new OfferContext(tasks, target), offered);
+            plan.getAccepted().stream().limit(launchesPerCycle).forEach(offer -> tasks.add(task(offer)));
+            assertTrue(cycles < 1000);
+        }
+        return cycles;
+    }
+
+    private static Protos.TaskInfo task(Protos.Offer offer) {
+        return Protos.TaskInfo.newBuilder()
+                .setName("Test")
+                .setTaskId(Protos.TaskID.newBuilder().setValue(offer.getHostname()))
+                .setSlaveId(offer.getSlaveId())
+                .build();
+    }
+
+    private static Protos.Offer offer(String host, double cpus, double mem) {
+        return Protos.Offer.newBuilder()
+                .setId(Protos.OfferID.newBuilder().setValue("offer-" + host))
+                .setFrameworkId(Protos.FrameworkID.newBuilder().setValue("testframework"))
+                .setSlaveId(Protos.SlaveID.newBuilder().setValue(host))
+                .setHostname(host)
+                .addResources(cpus(cpus, ROLE))
+                .addResources(mem(mem, ROLE))
+                .build();
+    }
+
+    /**
+     * Only checks placement and resources, so the test needs neither DNS nor a running cluster.
+     */
+    private static class ResourceOnlyStrategy extends OfferStrategy {
+        ResourceOnlyStrategy(Configuration configuration) {
+            super(configuration, mock(ClusterState.class), mock(ClusterHealthMonitor.class));
+            acceptanceRules = withConstraints(asList(
+                    new OfferRule(HOST_ALREADY_RUNNING_TASK, this::isHostAlreadyRunningTask),
+                    new OfferRule(CLUSTER_SIZE_FULFILLED, (context, offer) -> isClusterSizeFulfilled(context)),
+                    new OfferRule("Offer did not have enough CPU resources", (context, offer) -> !isEnoughCPU(context, offer)),
+                    new OfferRule("Offer did not have enough RAM resources", (context, offer) -> !isEnoughRAM(context, offer))
+            ));
+        }
+    }
+}
@@ -3,28 +3,51 @@ package org.apache.mesos.elasticsearch.scheduler;
 import com.mashape.unirest.http.HttpResponse;
 import com.mashape.unirest.http.Unirest;
 import com.mashape.unirest.http.exceptions.UnirestException;
+import org.apache.commons.io.IOUtils;
+import org.apache.log4j.Logger;
 import org.apache.mesos.elasticsearch.common.util.NetworkUtils;
+import org.junit.After;
 import org.junit.Test;
 
+import java.io.InputStream;
+import java.net.HttpURLConnection;
 import java.net.InetSocketAddress;
+import java.net.URL;
 import java.net.UnknownHostException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
 
 
 /**
  */
 public class SimpleFileServerTest {
+    private static final Logger LOGGER = Logger.getLogger(SimpleFileServerTest.class);
     public static final String TEST_FILE = "test.file";
+    public static final String TEST_CONTENT = "This is a test file for the simple file server unit test.";
+
+    private SimpleFileServer simpleFileServer;
+
+    @After
+    public void after() {
+        if (simpleFileServer != null) {
+            simpleFileServer.stop();
+        }
+    }
 
     @Test
     public void shouldStartAndServeFile() throws UnknownHostException, UnirestException, InterruptedException {
-        final SimpleFileServer simpleFileServer = new SimpleFileServer(TEST_FILE);
-        simpleFileServer.run();
-        InetSocketAddress address = simpleFileServer.getAddress();
-        String serverAddress = NetworkUtils.addressToString(address, true);
-        HttpResponse<String> response = Unirest.get(serverAddress + "/get").asString();
+        HttpResponse<String> response = Unirest.get(start() + "/get").asString();
         assertEquals(200, response.getStatus());
         assertTrue(response.getBody().contains("This is a test file"));
     }
@@ -34,4 +57,114 @@ public class SimpleFileServerTest {
         final SimpleFileServer simpleFileServer = new SimpleFileServer(TEST_FILE);
         simpleFileServer.getAddress();
     }
-}
\ No newline at end of file
+
+    @Test
+    public void shouldSendLengthAndValidators() throws UnirestException {
+        HttpResponse<String> response = Unirest.get(start() + "/get").asString();
+        assertEquals(Integer.toString(TEST_CONTENT.length()), response.getHeaders().getFirst("Content-Length"));
+        assertEquals("bytes", response.getHeaders().getFirst("Accept-Ranges"));
+        assertTrue(response.getHeaders().getFirst("ETag").matches("\"[0-9a-f]{40}\""));
+        assertNotNull(response.getHeaders().getFirst("Last-Modified"));
+    }
+
+    @Test
+    public void shouldAnswerNotModifiedToCurrentETag() throws UnirestException {
+        final String url = start() + "/get";
+        final String etag = Unirest.head(url).asString().getHeaders().getFirst("ETag");
+
+        assertEquals(304, Unirest.get(url).header("If-None-Match", etag).asString().getStatus());
+        assertEquals(200, Unirest.get(url).header("If-None-Match", "\"stale\"").asString().getStatus());
+    }
+
+    @Test
+    public void shouldAnswerNotModifiedSinceLastModified() throws UnirestException {
+        final String url = start() + "/get";
+        final String lastModified = Unirest.head(url).asString().getHeaders().getFirst("Last-Modified");
+
+        assertEquals(304, Unirest.get(url).header("If-Modified-Since", lastModified).asString().getStatus());
+        assertEquals(200, Unirest.get(url).header("If-Modified-Since", "Thu, 01 Jan 1970 00:00:00 GMT").asString().getStatus());
+    }
+
+    @Test
+    public void shouldServeRanges() throws UnirestException {
+        final String url = start() + "/get";
+
+        HttpResponse<String> response = Unirest.get(url).header("Range", "bytes=10-13").asString();
+        assertEquals(206, response.getStatus());
+        assertEquals("test", response.getBody());
+        assertEquals("bytes 10-13/" + TEST_CONTENT.length(), response.getHeaders().getFirst("Content-Range"));
+
+        assertEquals("test.", Unirest.get(url).header("Range", "bytes=-5").asString().getBody());
+        assertEquals(TEST_CONTENT.substring(50), Unirest.get(url).header("Range", "bytes=50-").asString().getBody());
+        assertEquals(TEST_CONTENT.substring(50), Unirest.get(url).header("Range", "bytes=50-1000").asString().getBody());
+    }
+
+    @Test
+    public void shouldRejectRangePastTheEnd() throws UnirestException {
+        HttpResponse<String> response = Unirest.get(start() + "/get").header("Range", "bytes=1000-").asString();
+        assertEquals(416, response.getStatus());
+        assertEquals("bytes */" + TEST_CONTENT.length(), response.getHeaders().getFirst("Content-Range"));
+    }
+
+    @Test
+    public void shouldSendWholeFileWhenIfRangeIsStale() throws UnirestException {
+        HttpResponse<String> response = Unirest.get(start() + "/get").header("Range", "bytes=10-13").header("If-Range", "\"stale\"").asString();
+        assertEquals(200, response.getStatus());
+        assertEquals(TEST_CONTENT, response.getBody());
+    }
+
+    @Test
+    public void shouldParseRanges() {
+        assertFalse(SimpleFileServer.ByteRange.parse(null, 100).isPresent());
+        assertFalse(SimpleFileServer.ByteRange.parse("bytes=0-1,5-6", 100).isPresent());
+        assertFalse(SimpleFileServer.ByteRange.parse("bytes=5-1", 100).isPresent());
+        assertFalse(SimpleFileServer.ByteRange.parse("items=0-1", 100).isPresent());
+        assertEquals(0, SimpleFileServer.ByteRange.parse("bytes=-200", 100).get().start);
+        assertFalse(SimpleFileServer.ByteRange.parse("bytes=-0", 100).get().isSatisfiable(100));
+        assertEquals(99, SimpleFileServer.ByteRange.parse("bytes=90-", 100).get().end);
+    }
+
+    /**
+     * Like a batch launch of 50 nodes, whose fetchers all download the file at once. Half of them resume with a range.
+     */
+    @Test
+    public void shouldServeManyFetchersAtOnce() throws Exception {
+        final String url = start() + "/get";
+        final int fetchers = 50;
+        final ExecutorService pool = Executors.newFixedThreadPool(fetchers);
+        final CountDownLatch ready = new CountDownLatch(fetchers);
+        final List<Future<String>> bodies = new ArrayList<>();
+        final long begin = System.nanoTime();
+        for (int i = 0; i < fetchers; i++) {
+            final String range = i % 2 == 0 ? null : "bytes=10-";
+            bodies.add(pool.submit((Callable<String>) () -> {
+                ready.countDown();
+                ready.await();
+                return fetch(url, range);
+            }));
+        }
+        for (int i = 0; i < fetchers; i++) {
+            assertEquals(i % 2 == 0 ? TEST_CONTENT : TEST_CONTENT.substring(10), bodies.get(i).get());
+        }
+        LOGGER.info(fetchers + " concurrent fetches took " + (System.nanoTime() - begin) / 1000000 + "ms");
+        pool.shutdown();
+    }
+
+    private String start() {
+        simpleFileServer = new SimpleFileServer(TEST_FILE);
+        simpleFileServer.run();
+        InetSocketAddress address = simpleFileServer.getAddress();
+        return NetworkUtils.addressToString(address, true);
+    }
+
+    private static String fetch(String url, String range) throws Exception {
+        final HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+        if (range != null) {
+            connection.setRequestProperty("Range", range);
+        }
+        assertEquals(range == null ? 200 : 206, connection.getResponseCode());
+        try (InputStream in = connection.getInputStream()) {
+            return IOUtils.toString(in, StandardCharsets.UTF_8);
+        }
+    }
+}
@@ -110,6 +110,32 @@ public class TaskInfoFactoryTest {
         assertEquals(Protos.Volume.Mode.RO, taskInfo.getContainer().getVolumes(1).getMode());
     }
 
+    @Test
+    public void shouldSplitResourcesByRolePreferringReserved() {
+        when(configuration.getCpus()).thenReturn(2.0);
+        when(configuration.getMem()).thenReturn(512.0);
+        when(clock.nowUTC()).thenReturn(ZonedDateTime.now(ZoneOffset.UTC));
+        final Protos.Offer offer = Protos.Offer.newBuilder(getOffer(frameworkState.getFrameworkID()))
+                .clearResources()
+                .addAllResources(asList(
+                        Resources.portRange(9200, 9200, "some-framework-role"),
+                        Resources.portRange(31000, 32000, "*"),
+                        Resources.cpus(1.5, "some-framework-role"),
+                        Resources.cpus(4.0, "*"),
+                        Resources.mem(1024.0, "*"),
+                        Resources.disk(2.0, "some-framework-role")))
+                .build();
+
+        final Protos.TaskInfo taskInfo = new TaskInfoFactory(clusterState).createTask(configuration, frameworkState, offer, clock);
+
+        final List<Protos.Resource> resources = taskInfo.getResourcesList();
+        assertTrue(resources.contains(Resources.cpus(1.5, "some-framework-role")));
+        assertTrue(resources.contains(Resources.cpus(0.5, "*")));
+        assertTrue(resources.contains(Resources.mem(512.0, "*")));
+        assertTrue(resources.contains(Resources.singlePortRange(9200, "some-framework-role")));
+        assertTrue(resources.contains(Resources.singlePortRange(31000, "*")));
+    }
+
     private Protos.Resource getResourceByName(List<Protos.Resource> resourceList, String name) {
         return resourceList.stream().filter(resource -> resource.getName().equals(name)).findFirst().get();
     }
@@ -0,0 +1,253 @@
+package org.apache.mesos.elasticsearch.scheduler.cluster;
+
+import org.apache.mesos.Protos;
+import org.apache.mesos.elasticsearch.common.cli.ZookeeperCLIParameter;
+import org.apache.mesos.elasticsearch.scheduler.Configuration;
+import org.apache.mesos.elasticsearch.scheduler.Task;
+import org.apache.mesos.elasticsearch.scheduler.state.ClusterState;
+import org.apache.mesos.elasticsearch.scheduler.util.Clock;
+import org.apache.mesos.elasticsearch.scheduler.util.ProtoTestUtil;
+import org.json.JSONObject;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * Tests the autoscaler control loop against a simulated cluster, whose load spreads over the nodes it has.
+ */
+public class AutoscalerTest {
+    private static final long MINUTE = 60000;
+
+    private ClusterState state;
+    private Clock clock;
+    private SimulatedCluster cluster;
+    private final List<Integer> resizes = new ArrayList<>();
+    private long time = 0;
+    private boolean busy = false;
+
+    @Before
+    public void before() {
+        clock = mock(Clock.class);
+        when(clock.now()).thenAnswer(invocation -> new Date(time));
+        state = mock(ClusterState.class);
+        final Protos.TaskInfo taskInfo = ProtoTestUtil.getDefaultTaskInfo();
+        when(state.getGuiTaskList()).thenReturn(Collections.singletonMap(taskInfo.getTaskId().getValue(),
+                new Task("host1", taskInfo.getTaskId().getValue(), Protos.TaskState.TASK_RUNNING, ZonedDateTime.now(),
+                        new InetSocketAddress("10.0.0.1", 9200), new InetSocketAddress("10.0.0.1", 9300))));
+        when(state.getTaskList()).thenAnswer(invocation -> Collections.nCopies(cluster.lagging ? cluster.nodes - 1 : cluster.nodes, taskInfo));
+    }
+
+    @Test
+    public void shouldAddNodesUntilRequestsStopQueueing() {
+        autoscaler(3, 1, 9, 2);
+        cluster.requests = 600;
+        runFor(60);
+
+        assertEquals(Arrays.asList(5, 7), resizes);
+        assertEquals(7, cluster.nodes);
+    }
+
+    @Test
+    public void shouldWaitForCooldownBeforeAddingMore() {
+        final Autoscaler autoscaler = autoscaler(3, 1, 9, 1);
+        cluster.requests = 1000;
+        autoscaler.run();
+        autoscaler.run();
+        time += 4 * MINUTE;
+        autoscaler.run();
+        assertEquals(Collections.singletonList(4), resizes);
+
+        time += MINUTE;
+        autoscaler.run();
+        assertEquals(Arrays.asList(4, 5), resizes);
+    }
+
+    @Test
+    public void shouldNotExceedMaximum() {
+        autoscaler(3, 1, 5, 1);
+        cluster.requests = 10000;
+        runFor(120);
+
+        assertEquals(5, cluster.nodes);
+    }
+
+    @Test
+    public void shouldRemoveIdleNodesDownToMinimum() {
+        final Autoscaler autoscaler = autoscaler(7, 3, 9, 1);
+        autoscaler.run();
+        assertEquals(Collections.singletonList(6), resizes);
+        time += 5 * MINUTE;
+        autoscaler.run();
+        assertEquals(Collections.singletonList(6), resizes); // Removing waits longer than adding
+
+        runFor(120);
+        assertEquals(Arrays.asList(6, 5, 4, 3), resizes);
+    }
+
+    @Test
+    public void shouldKeepAQuorumWhenRemovingNodes() {
+        autoscaler(7, 3, 9, 1); // No dedicated masters, so every node is required to elect a master
+        runFor(120);
+
+        assertEquals(Arrays.asList(6, 5, 4, 3), resizes);
+        assertFalse(cluster.lostQuorum);
+        assertEquals(2, cluster.minimumMasterNodes);
+    }
+
+    @Test
+    public void shouldNotRemoveNodesIfQuorumCannotBeLowered() {
+        autoscaler(7, 3, 9, 1);
+        cluster.settingsFail = true;
+        runFor(120);
+
+        assertTrue(resizes.isEmpty());
+        assertEquals(7, cluster.minimumMasterNodes);
+    }
+
+    @Test
+    public void shouldAddNodesWhenDisksFillUp() {
+        autoscaler(3, 1, 9, 1);
+        cluster.dataGb = 270; // 90% of three 100GB disks
+        runFor(30);
+
+        assertEquals(4, cluster.nodes);
+    }
+
+    @Test
+    public void shouldNotRemoveNodesTheDataWouldNotFitWithout() {
+        autoscaler(4, 1, 9, 1);
+        cluster.dataGb = 200; // 50% now, 67% on three nodes
+        runFor(120);
+
+        assertEquals(4, cluster.nodes);
+    }
+
+    @Test
+    public void shouldSettleUnderSteadyLoad() {
+        autoscaler(3, 1, 15, 1);
+        cluster.requests = 900;
+        runFor(600);
+
+        assertEquals(Arrays.asList(4, 5, 6, 7, 8, 9), resizes);
+    }
+
+    @Test
+    public void shouldBringClusterIntoRange() {
+        autoscaler(1, 3, 9, 1);
+        runFor(1);
+
+        assertEquals(Collections.singletonList(3), resizes);
+    }
+
+    @Test
+    public void shouldWaitWhileClusterIsChanging() {
+        final Autoscaler autoscaler = autoscaler(3, 1, 9, 1);
+        cluster.requests = 1000;
+        cluster.lagging = true;
+        autoscaler.run();
+        cluster.lagging = false;
+        busy = true;
+        autoscaler.run();
+
+        assertTrue(resizes.isEmpty());
+    }
+
+    @Test
+    public void shouldParseNodeStats() {
+        final List<Autoscaler.NodeLoad> loads = Autoscaler.NodeLoad.parse(new JSONObject("{\"nodes\": {\"abc\": {" +
+                "\"name\": \"node1\"," +
+                "\"jvm\": {\"mem\": {\"heap_used_percent\": 42}}," +
+                "\"fs\": {\"total\": {\"total_in_bytes\": 1000, \"available_in_bytes\": 250}}," +
+                "\"thread_pool\": {\"search\": {\"queue\": 3}, \"index\": {\"queue\": 2}, \"bulk\": {\"queue\": 1}, \"get\": {\"queue\": 100}}" +
+                "}}}"));
+        assertEquals(1, loads.size());
+        assertEquals("node1", loads.get(0).name);
+        assertEquals(6, loads.get(0).queue);
+        assertEquals(42, loads.get(0).heapPercent, 0.01);
+        assertEquals(75, loads.get(0).diskPercent, 0.01);
+    }
+
+    private Autoscaler autoscaler(int nodes, int min, int max, int step) {
+        final Configuration configuration = new Configuration(ZookeeperCLIParameter.ZOOKEEPER_MESOS_URL, "aa",
+                "--elasticsearchNodes", Integer.toString(nodes),
+                Configuration.FRAMEWORK_AUTOSCALE_MIN_NODES, Integer.toString(min),
+                Configuration.FRAMEWORK_AUTOSCALE_MAX_NODES, Integer.toString(max),
+                Configuration.FRAMEWORK_AUTOSCALE_STEP, Integer.toString(step),
+                Configuration.FRAMEWORK_AUTOSCALE_UP_COOLDOWN, Long.toString(5 * MINUTE),
+                Configuration.FRAMEWORK_AUTOSCALE_DOWN_COOLDOWN, Long.toString(15 * MINUTE));
+        cluster = new SimulatedCluster(nodes);
+        return cluster.autoscaler = new Autoscaler(configuration, state, () -> {
+            resizes.add(configuration.getElasticsearchNodes());
+            cluster.nodes = configuration.getElasticsearchNodes(); // New nodes start, and drained nodes go, at once
+            cluster.lostQuorum |= cluster.nodes < cluster.minimumMasterNodes;
+        }, () -> busy, clock, MINUTE, 1000) {
+            @Override
+            protected List<NodeLoad> sample(String url) {
+                return cluster.sample();
+            }
+
+            @Override
+            protected void setSetting(String url, String setting, String value) throws IOException {
+                assertEquals(ElasticsearchAdminClient.MINIMUM_MASTER_NODES, setting);
+                if (cluster.settingsFail) {
+                    throw new IOException("Test exception");
+                }
+                cluster.minimumMasterNodes = Integer.parseInt(value);
+            }
+        };
+    }
+
+    /**
+     * Runs the control loop once a minute.
+     */
+    private void runFor(int minutes) {
+        for (int i = 0; i < minutes; i++) {
+            cluster.autoscaler.run();
+            time += MINUTE;
+        }
+    }
+
+    /**
+     * A cluster whose nodes each serve 100 requests at a time and have a 100GB disk. Requests beyond that queue up,
+     * and the data and requests spread evenly over the nodes.
+     */
+    private static class SimulatedCluster {
+        private static final double CAPACITY = 100;
+        private static final double DISK_GB = 100;
+        private Autoscaler autoscaler;
+        private int nodes;
+        private double requests = 0;
+        private double dataGb = 0;
+        private boolean lagging = false; // A node has not started yet
+        private int minimumMasterNodes; // Nodes start requiring all of them, without dedicated masters
+        private boolean lostQuorum = false;
+        private boolean settingsFail = false;
+
+        SimulatedCluster(int nodes) {
+            this.nodes = nodes;
+            this.minimumMasterNodes = nodes;
+        }
+
+        List<Autoscaler.NodeLoad> sample() {
+            final List<Autoscaler.NodeLoad> loads = new ArrayList<>();
+            for (int i = 0; i < nodes; i++) {
+                final double perNode = requests / nodes;
+                final long queue = (long) Math.max(0, perNode - CAPACITY);
+                final double heap = 30 + 50 * Math.min(1, perNode / CAPACITY);
+                loads.add(new Autoscaler.NodeLoad("node" + i, queue, heap, 100 * dataGb / nodes / DISK_GB));
+            }
+            return loads;
+        }
+    }
+}
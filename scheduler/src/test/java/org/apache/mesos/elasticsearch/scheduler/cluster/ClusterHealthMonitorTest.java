@@ -0,0 +1,94 @@
+package org.apache.mesos.elasticsearch.scheduler.cluster;
+
+import org.apache.mesos.Protos;
+import org.apache.mesos.elasticsearch.scheduler.Configuration;
+import org.apache.mesos.elasticsearch.scheduler.Task;
+import org.apache.mesos.elasticsearch.scheduler.state.ClusterState;
+import org.apache.mesos.elasticsearch.scheduler.util.ProtoTestUtil;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.time.ZonedDateTime;
+import java.util.Collections;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests
+ */
+public class ClusterHealthMonitorTest {
+    private final ClusterState clusterState = mock(ClusterState.class);
+    private final Configuration configuration = mock(Configuration.class);
+    private final Protos.TaskInfo taskInfo = ProtoTestUtil.getDefaultTaskInfo();
+
+    @Before
+    public void before() {
+        when(configuration.getIsUseIpAddress()).thenReturn(true);
+    }
+
+    @Test
+    public void shouldNotRespondBeforeFirstCheck() {
+        assertFalse(new ClusterHealthMonitor(clusterState, configuration).isFirstNodeResponding());
+    }
+
+    @Test
+    public void shouldRespondWhenThereAreNoNodes() {
+        ClusterHealthMonitor monitor = new ClusterHealthMonitor(clusterState, configuration);
+        monitor.check();
+        assertTrue(monitor.isFirstNodeResponding());
+    }
+
+    @Test
+    public void shouldAcceptOkAndServiceUnavailable() {
+        givenFirstNodeAt(new InetSocketAddress(InetAddress.getLoopbackAddress(), 9200));
+        assertTrue(monitorReturning(200).isFirstNodeResponding());
+        assertTrue(monitorReturning(503).isFirstNodeResponding());
+        assertFalse(monitorReturning(500).isFirstNodeResponding());
+    }
+
+    @Test
+    public void shouldTimeOutOnHungNode() throws IOException {
+        try (ServerSocket hungNode = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+            givenFirstNodeAt(new InetSocketAddress(InetAddress.getLoopbackAddress(), hungNode.getLocalPort()));
+            ClusterHealthMonitor monitor = new ClusterHealthMonitor(clusterState, configuration, 1000, 200);
+            Thread acceptor = new Thread(() -> {
+                try (Socket ignored = hungNode.accept()) {
+                    Thread.sleep(5000); // Accept, but never answer
+                } catch (IOException | InterruptedException e) {
+                    // Test finished
+                }
+            });
+            acceptor.start();
+            long start = System.currentTimeMillis();
+            monitor.check();
+            assertFalse(monitor.isFirstNodeResponding());
+            assertTrue(System.currentTimeMillis() - start < 3000);
+            acceptor.interrupt();
+            monitor.stop();
+        }
+    }
+
+    private void givenFirstNodeAt(InetSocketAddress clientAddress) {
+        when(clusterState.getTaskList()).thenReturn(Collections.singletonList(taskInfo));
+        Task task = new Task("host", taskInfo.getTaskId().getValue(), Protos.TaskState.TASK_RUNNING, ZonedDateTime.now(), clientAddress, clientAddress);
+        when(clusterState.getGuiTaskList()).thenReturn(Collections.singletonMap(taskInfo.getTaskId().getValue(), task));
+    }
+
+    private ClusterHealthMonitor monitorReturning(int status) {
+        ClusterHealthMonitor monitor = new ClusterHealthMonitor(clusterState, configuration) {
+            @Override
+            protected int getStatus(String url) {
+                return status;
+            }
+        };
+        monitor.check();
+        return monitor;
+    }
+}
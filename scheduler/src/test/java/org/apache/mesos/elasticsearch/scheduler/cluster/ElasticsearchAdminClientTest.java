@@ -0,0 +1,53 @@
+package org.apache.mesos.elasticsearch.scheduler.cluster;
+
+import org.apache.mesos.Protos;
+import org.apache.mesos.elasticsearch.scheduler.Task;
+import org.apache.mesos.elasticsearch.scheduler.util.ProtoTestUtil;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests
+ */
+public class ElasticsearchAdminClientTest {
+    private final List<Protos.TaskInfo> tasks = new ArrayList<>();
+    private final Map<String, Task> nodes = new HashMap<>();
+
+    @Test
+    public void shouldAskTheFirstUsableNode() throws IOException {
+        givenNode("task1", "10.0.0.1");
+        givenNode("task2", "10.0.0.2");
+        givenNode("task3", "10.0.0.3");
+        assertEquals("http://10.0.0.1:9200", ElasticsearchAdminClient.address(tasks, nodes, taskId -> true, true));
+        assertEquals("http://10.0.0.3:9200", ElasticsearchAdminClient.address(tasks, nodes, taskId -> !taskId.equals("task1") && !taskId.equals("task2"), true));
+    }
+
+    @Test
+    public void shouldSkipTasksWithoutAddress() throws IOException {
+        givenNode("task1", "10.0.0.1");
+        givenNode("task2", "10.0.0.2");
+        nodes.remove("task1");
+        assertEquals("http://10.0.0.2:9200", ElasticsearchAdminClient.address(tasks, nodes, taskId -> true, true));
+    }
+
+    @Test(expected = IOException.class)
+    public void shouldExceptWithoutUsableNode() throws IOException {
+        givenNode("task1", "10.0.0.1");
+        ElasticsearchAdminClient.address(tasks, nodes, taskId -> false, true);
+    }
+
+    private void givenNode(String taskId, String ip) {
+        tasks.add(Protos.TaskInfo.newBuilder(ProtoTestUtil.getDefaultTaskInfo()).setTaskId(Protos.TaskID.newBuilder().setValue(taskId)).build());
+        nodes.put(taskId, new Task("host", taskId, Protos.TaskState.TASK_RUNNING, ZonedDateTime.now(),
+                new InetSocketAddress(ip, 9200), new InetSocketAddress(ip, 9300)));
+    }
+}
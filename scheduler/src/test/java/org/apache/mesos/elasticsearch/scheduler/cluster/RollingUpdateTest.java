@@ -0,0 +1,333 @@
+package org.apache.mesos.elasticsearch.scheduler.cluster;
+
+import com.google.protobuf.ByteString;
+import org.apache.mesos.Protos;
+import org.apache.mesos.SchedulerDriver;
+import org.apache.mesos.elasticsearch.scheduler.Configuration;
+import org.apache.mesos.elasticsearch.scheduler.NodeGroup;
+import org.apache.mesos.elasticsearch.scheduler.Task;
+import org.apache.mesos.elasticsearch.scheduler.state.ClusterState;
+import org.apache.mesos.elasticsearch.scheduler.util.ProtoTestUtil;
+import org.json.JSONObject;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.net.InetSocketAddress;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * Tests for the rolling update
+ */
+public class RollingUpdateTest {
+
+    private SchedulerDriver driver;
+    private Configuration config;
+    private ClusterState state;
+    private final List<Protos.TaskInfo> tasks = new ArrayList<>();
+    private final Map<String, Task> nodes = new HashMap<>();
+    private FakeRollingUpdate rollingUpdate;
+
+    @Before
+    public void before() {
+        driver = mock(SchedulerDriver.class);
+        config = mock(Configuration.class);
+        when(config.getElasticsearchNodes()).thenReturn(3);
+        when(config.getIsUseIpAddress()).thenReturn(true);
+
+        state = mock(ClusterState.class);
+        for (int i = 1; i <= 3; i++) {
+            addTask("task" + i);
+        }
+        when(state.getTaskList()).thenReturn(tasks);
+        when(state.getGuiTaskList()).thenReturn(nodes);
+        rollingUpdate = new FakeRollingUpdate();
+    }
+
+    @Test
+    public void shouldChangeConfigurationOfNewNodes() {
+        rollingUpdate.rollout("elasticsearch:2.2.0", "http://config/elasticsearch.yml", 1);
+
+        verify(config).setExecutorImage("elasticsearch:2.2.0");
+        verify(config).setElasticsearchSettingsLocation("http://config/elasticsearch.yml");
+    }
+
+    @Test
+    public void shouldKeepSettingsThatAreLeftOut() {
+        rollingUpdate.rollout(null, null, 1);
+
+        verify(config, never()).setExecutorImage(any());
+        verify(config, never()).setElasticsearchSettingsLocation(any());
+    }
+
+    @Test
+    public void shouldReplaceOneNodeAtATime() {
+        rollingUpdate.rollout(null, null, 1);
+        rollingUpdate.run();
+
+        verify(driver, times(1)).killTask(any());
+        verify(driver).killTask(taskId("task3")); // The discovery seed is replaced last
+        assertEquals(Arrays.asList("primaries"), rollingUpdate.settings);
+        assertEquals(RollingUpdate.Phase.RESTARTING, rollout().getPhase());
+
+        rollingUpdate.run(); // The task is not gone yet
+        replace("task3", "task4");
+        rollingUpdate.health = health("yellow", 3);
+        rollingUpdate.run();
+
+        assertEquals(Arrays.asList("primaries", "all"), rollingUpdate.settings);
+        assertEquals(RollingUpdate.Phase.RECOVERING, rollout().getPhase());
+
+        rollingUpdate.run(); // Still yellow
+        rollingUpdate.health = health("green", 3);
+        rollingUpdate.run();
+
+        assertEquals(1, rollout().getReplaced());
+        assertEquals(RollingUpdate.Phase.WAITING_FOR_GREEN, rollout().getPhase());
+        verify(driver, times(1)).killTask(any());
+
+        rollingUpdate.run();
+        verify(driver).killTask(taskId("task2"));
+    }
+
+    @Test
+    public void shouldNotStartBatchUntilGreen() {
+        rollingUpdate.health = health("yellow", 3);
+        rollingUpdate.rollout(null, null, 1);
+        rollingUpdate.run();
+
+        verify(driver, never()).killTask(any());
+        assertTrue(rollingUpdate.settings.isEmpty());
+    }
+
+    @Test
+    public void shouldWaitForReplacementsToJoinCluster() {
+        rollingUpdate.rollout(null, null, 1);
+        rollingUpdate.run();
+        replace("task3", "task4");
+        rollingUpdate.health = health("yellow", 2);
+        rollingUpdate.run();
+
+        assertEquals(RollingUpdate.Phase.RESTARTING, rollout().getPhase());
+        assertEquals(Arrays.asList("primaries"), rollingUpdate.settings);
+    }
+
+    @Test
+    public void shouldCompleteWhenAllNodesReplaced() {
+        when(config.getElasticsearchNodes()).thenReturn(5);
+        addTask("task4");
+        addTask("task5");
+        rollingUpdate.health = health("green", 5);
+        rollingUpdate.rollout(null, null, 2);
+        rollingUpdate.run();
+        assertEquals(Arrays.asList("task5", "task4"), rollout().getBatch());
+        replace("task5", "new5");
+        replace("task4", "new4");
+        rollingUpdate.run();
+        rollingUpdate.run();
+        rollingUpdate.run();
+        assertEquals(Arrays.asList("task3", "task2"), rollout().getBatch());
+        replace("task3", "new3");
+        replace("task2", "new2");
+        rollingUpdate.run();
+        rollingUpdate.run();
+        rollingUpdate.run();
+        assertEquals(Collections.singletonList("task1"), rollout().getBatch());
+        replace("task1", "new1");
+        rollingUpdate.run();
+        rollingUpdate.run();
+        rollingUpdate.run();
+
+        assertEquals(RollingUpdate.Phase.COMPLETED, rollout().getPhase());
+        assertEquals(5, rollout().getReplaced());
+        verify(driver, times(5)).killTask(any());
+        assertEquals(Arrays.asList("primaries", "all", "primaries", "all", "primaries", "all"), rollingUpdate.settings);
+    }
+
+    @Test
+    public void shouldLowerMinimumMasterNodesToQuorumDuringRollout() {
+        rollingUpdate.rollout(null, null, 1);
+        for (String[] replacement : new String[][] {{"task3", "task4"}, {"task2", "task5"}, {"task1", "task6"}}) {
+            rollingUpdate.run();
+            replace(replacement[0], replacement[1]);
+            rollingUpdate.run();
+            rollingUpdate.run();
+        }
+        rollingUpdate.run();
+
+        assertEquals(RollingUpdate.Phase.COMPLETED, rollout().getPhase());
+        assertEquals(Arrays.asList("2", "2", "2", "3"), rollingUpdate.minimumMasterNodes); // Every node is required again
+    }
+
+    @Test
+    public void shouldRestoreMinimumMasterNodesWhenAborted() {
+        rollingUpdate.rollout(null, null, 1);
+        rollingUpdate.run();
+        rollingUpdate.abort();
+
+        assertEquals(Arrays.asList("2", "3"), rollingUpdate.minimumMasterNodes);
+    }
+
+    @Test
+    public void shouldLeaveMinimumMasterNodesOfDedicatedMasters() {
+        useDedicatedMasters();
+        rollingUpdate.rollout(null, null, 1);
+        rollingUpdate.run();
+
+        assertTrue(rollingUpdate.minimumMasterNodes.isEmpty());
+    }
+
+    @Test
+    public void shouldReplaceOneDedicatedMasterAtATime() {
+        useDedicatedMasters();
+        rollingUpdate.rollout(null, null, 4);
+        rollingUpdate.run();
+
+        assertEquals(Arrays.asList("task3", "master3"), rollout().getBatch()); // Two masters down would lose their quorum
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldNotLoseQuorumOfDataNodes() {
+        rollingUpdate.rollout(null, null, 2); // Two of three nodes down leaves no quorum
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void shouldNotReplaceNodesOfClusterWithoutSpareMasters() {
+        when(config.getElasticsearchNodes()).thenReturn(2);
+        tasks.remove(2);
+        rollingUpdate.rollout(null, null, 1);
+    }
+
+    @Test
+    public void shouldEnableAllocationWhenAborted() {
+        rollingUpdate.rollout(null, null, 1);
+        rollingUpdate.run();
+        rollingUpdate.abort();
+        replace("task3", "task4");
+        rollingUpdate.run();
+
+        assertEquals(RollingUpdate.Phase.ABORTED, rollout().getPhase());
+        assertEquals(Arrays.asList("primaries", "all"), rollingUpdate.settings);
+        verify(driver, times(1)).killTask(any());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldNotReplaceAllNodesAtOnce() {
+        rollingUpdate.rollout(null, null, 3);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void shouldNotStartTwoRollouts() {
+        rollingUpdate.rollout(null, null, 1);
+        rollingUpdate.rollout(null, null, 1);
+    }
+
+    /**
+     * Three dedicated masters among the data nodes. They are replaced in the order task3, master3, master2, task2,
+     * master1, and the discovery seed task1 last.
+     */
+    private void useDedicatedMasters() {
+        when(config.getMasterNodes()).thenReturn(3);
+        tasks.clear();
+        nodes.clear();
+        addTask("task1");
+        addMasterTask("master1");
+        addTask("task2");
+        addMasterTask("master2");
+        addMasterTask("master3");
+        addTask("task3");
+        rollingUpdate.health = health("green", 6);
+    }
+
+    private void addMasterTask(String taskId) {
+        addTask(taskId);
+        final int last = tasks.size() - 1;
+        tasks.set(last, Protos.TaskInfo.newBuilder(tasks.get(last)).setData(ByteString.copyFromUtf8(NodeGroup.DATA_KEY + "=" + NodeGroup.MASTER)).build());
+    }
+
+    private RollingUpdate.Rollout rollout() {
+        return rollingUpdate.getRollout().get();
+    }
+
+    private void addTask(String taskId) {
+        final int i = nodes.size() + 1;
+        tasks.add(Protos.TaskInfo.newBuilder(ProtoTestUtil.getDefaultTaskInfo()).setTaskId(taskId(taskId)).build());
+        nodes.put(taskId, new Task("host" + i, taskId, Protos.TaskState.TASK_RUNNING, ZonedDateTime.now(),
+                new InetSocketAddress("10.0.0." + i, 9200), new InetSocketAddress("10.0.0." + i, 9300)));
+    }
+
+    private void replace(String oldTaskId, String newTaskId) {
+        tasks.removeIf(taskInfo -> taskInfo.getTaskId().getValue().equals(oldTaskId));
+        nodes.remove(oldTaskId);
+        addTask(newTaskId);
+    }
+
+    @Test(timeout = 5000)
+    public void shouldLetAnAbortWinOverTheBatchBeingStarted() {
+        rollingUpdate = new FakeRollingUpdate() {
+            @Override
+            protected void setSetting(String url, String setting, String value) {
+                super.setSetting(url, setting, value);
+                if ("primaries".equals(value)) { // Abort from another thread, which needs the monitor
+                    final Thread abort = new Thread(this::abort);
+                    abort.start();
+                    try {
+                        abort.join();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            }
+        };
+        rollingUpdate.rollout(null, null, 1);
+        rollingUpdate.run();
+
+        verify(driver, never()).killTask(any());
+        assertEquals(RollingUpdate.Phase.ABORTED, rollout().getPhase());
+        assertEquals("all", rollingUpdate.settings.get(rollingUpdate.settings.size() - 1));
+    }
+
+    private static JSONObject health(String status, int numberOfNodes) {
+        return new JSONObject().put("status", status).put("number_of_nodes", numberOfNodes);
+    }
+
+    private static Protos.TaskID taskId(String value) {
+        return Protos.TaskID.newBuilder().setValue(value).build();
+    }
+
+    /**
+     * Answers with the given health instead of asking Elasticsearch, and records the settings.
+     */
+    private class FakeRollingUpdate extends RollingUpdate {
+        private JSONObject health = health("green", 3);
+        private final List<String> settings = new ArrayList<>(); // Allocation
+        private final List<String> minimumMasterNodes = new ArrayList<>();
+
+        FakeRollingUpdate() {
+            super(driver, config, state);
+        }
+
+        @Override
+        protected JSONObject getHealth(String url) {
+            return health;
+        }
+
+        @Override
+        protected void setSetting(String url, String setting, String value) {
+            if (ElasticsearchAdminClient.MINIMUM_MASTER_NODES.equals(setting)) {
+                minimumMasterNodes.add(value);
+            } else {
+                assertEquals(ElasticsearchAdminClient.ALLOCATION_ENABLE, setting);
+                settings.add(value);
+            }
+        }
+    }
+}
@@ -1,16 +1,27 @@
 package org.apache.mesos.elasticsearch.scheduler.cluster;
 
+import com.google.protobuf.ByteString;
 import org.apache.mesos.Protos;
 import org.apache.mesos.SchedulerDriver;
 import org.apache.mesos.elasticsearch.scheduler.Configuration;
+import org.apache.mesos.elasticsearch.scheduler.NodeGroup;
+import org.apache.mesos.elasticsearch.scheduler.Task;
 import org.apache.mesos.elasticsearch.scheduler.state.ClusterState;
 import org.apache.mesos.elasticsearch.scheduler.util.ProtoTestUtil;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.net.InetSocketAddress;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import static org.junit.Assert.*;
 import static org.mockito.Mockito.*;
 
 /**
@@ -21,6 +32,7 @@ public class TaskReaperTest {
     private SchedulerDriver driver;
     private Configuration config;
     private ClusterState state;
+    private final List<Protos.TaskInfo> tasks = new ArrayList<>();
 
     @Before
     public void before() {
@@ -30,20 +42,48 @@ public class TaskReaperTest {
 
         config = mock(Configuration.class);
         when(config.getElasticsearchNodes()).thenReturn(2);
+        when(config.getIsUseIpAddress()).thenReturn(true);
 
         state = mock(ClusterState.class);
-        List<Protos.TaskInfo> list = Arrays.asList(ProtoTestUtil.getDefaultTaskInfo(), ProtoTestUtil.getDefaultTaskInfo(), ProtoTestUtil.getDefaultTaskInfo());
-        when(state.getTaskList()).thenReturn(list);
+        final Map<String, Task> nodes = new HashMap<>();
+        for (int i = 1; i <= 3; i++) {
+            final Protos.TaskInfo taskInfo = Protos.TaskInfo.newBuilder(ProtoTestUtil.getDefaultTaskInfo()).setTaskId(Protos.TaskID.newBuilder().setValue("task" + i)).build();
+            tasks.add(taskInfo);
+            nodes.put("task" + i, new Task("host" + i, "task" + i, Protos.TaskState.TASK_RUNNING, ZonedDateTime.now(),
+                    new InetSocketAddress("10.0.0." + i, 9200), new InetSocketAddress("10.0.0." + i, 9300)));
+        }
+        when(state.getTaskList()).thenReturn(tasks);
+        when(state.getGuiTaskList()).thenReturn(nodes);
     }
 
     @Test
     public void shouldRemoveTask() {
         // Start task reaper.
-        TaskReaper taskReaper = new TaskReaper(driver, config, state);
+        FakeReaper taskReaper = new FakeReaper(shard("a", "0", 100, "10.0.0.1"), shard("b", "0", 100, "10.0.0.2"));
+        taskReaper.run();
+
+        // Should kill the task that holds no shards
+        verify(driver, times(1)).killTask(taskId("task3"));
+    }
+
+    @Test
+    public void shouldKillSurplusMastersWithoutDraining() {
+        when(config.getElasticsearchNodes()).thenReturn(3);
+        when(config.getMasterNodes()).thenReturn(1);
+        for (int i = 1; i <= 2; i++) {
+            tasks.add(Protos.TaskInfo.newBuilder(ProtoTestUtil.getDefaultTaskInfo())
+                    .setTaskId(taskId("master" + i))
+                    .setData(ByteString.copyFromUtf8(NodeGroup.DATA_KEY + "=" + NodeGroup.MASTER))
+                    .build());
+        }
+
+        FakeReaper taskReaper = new FakeReaper();
+        taskReaper.run();
         taskReaper.run();
 
-        // Should try to kill a task
-        verify(driver, atLeastOnce()).killTask(any());
+        verify(driver, times(1)).killTask(any());
+        verify(driver).killTask(taskId("master2"));
+        assertTrue(taskReaper.getDecommissions().isEmpty());
     }
 
     @Test
@@ -51,11 +91,12 @@ public class TaskReaperTest {
         when(config.getElasticsearchNodes()).thenReturn(3); // Override before
 
         // Start task reaper.
-        TaskReaper taskReaper = new TaskReaper(driver, config, state);
+        FakeReaper taskReaper = new FakeReaper();
         taskReaper.run();
 
         // Should not call kill
         verify(driver, never()).killTask(any());
+        assertTrue(taskReaper.settings.isEmpty());
     }
 
     @Test
@@ -78,7 +119,165 @@ public class TaskReaperTest {
         TaskReaper taskReaper = new TaskReaper(driver, config, state);
         taskReaper.run();
 
-        // Should not call kill
+        // There is nowhere to move shards to, so all are killed at once
         verify(driver, times(3)).killTask(any());
     }
-}
\ No newline at end of file
+
+    @Test
+    public void shouldDrainNodeWithFewestShardsBeforeKillingIt() {
+        FakeReaper taskReaper = new FakeReaper(
+                shard("a", "0", 100, "10.0.0.1"), shard("a", "1", 100, "10.0.0.1"),
+                shard("b", "0", 100, "10.0.0.2"), shard("b", "1", 100, "10.0.0.2"),
+                shard("c", "0", 100, "10.0.0.3"));
+        taskReaper.run();
+
+        verify(driver, never()).killTask(any());
+        assertEquals(Arrays.asList("10.0.0.3"), taskReaper.settings);
+        assertEquals(1, taskReaper.getDecommissions().size());
+        assertEquals("task3", taskReaper.getDecommissions().get(0).getTaskId());
+        assertEquals(1, taskReaper.getDecommissions().get(0).getShards());
+        assertEquals(100, taskReaper.getDecommissions().get(0).getBytes());
+
+        taskReaper.shards = Arrays.asList(
+                shard("a", "0", 100, "10.0.0.1"), shard("a", "1", 100, "10.0.0.1"),
+                shard("b", "0", 100, "10.0.0.2"), shard("b", "1", 100, "10.0.0.2"),
+                shard("c", "0", 100, "10.0.0.1"));
+        taskReaper.run();
+
+        verify(driver, times(1)).killTask(taskId("task3"));
+        assertTrue(taskReaper.getDecommissions().get(0).isKilled());
+    }
+
+    @Test
+    public void shouldPreferNodeWithFewestBytes() {
+        FakeReaper taskReaper = new FakeReaper(
+                shard("a", "0", 500, "10.0.0.1"), shard("b", "0", 100, "10.0.0.2"), shard("c", "0", 300, "10.0.0.3"));
+        taskReaper.run();
+
+        assertEquals("task2", taskReaper.getDecommissions().get(0).getTaskId());
+    }
+
+    @Test
+    public void shouldKillNodeWhoseShardsAreStartedElsewhere() {
+        FakeReaper taskReaper = new FakeReaper(
+                shard("a", "0", 100, "10.0.0.1"), shard("a", "0", 100, "10.0.0.2"), shard("a", "0", 100, "10.0.0.3"),
+                shard("b", "0", 100, "10.0.0.1"), shard("b", "0", 100, "10.0.0.2"));
+        taskReaper.run();
+
+        verify(driver, times(1)).killTask(taskId("task3"));
+    }
+
+    @Test
+    public void shouldNotCountRelocatingCopiesAsSafe() {
+        FakeReaper taskReaper = new FakeReaper(
+                shard("a", "0", 100, "10.0.0.1"), shard("b", "0", 100, "10.0.0.2"), shard("b", "1", 100, "10.0.0.2"),
+                new TaskReaper.ShardCopy("c", "0", "RELOCATING", 100, "10.0.0.3"), new TaskReaper.ShardCopy("c", "0", "INITIALIZING", 0, "10.0.0.1"));
+        taskReaper.run();
+
+        verify(driver, never()).killTask(any());
+        assertEquals(1, taskReaper.getDecommissions().get(0).getShards());
+    }
+
+    @Test
+    public void shouldStopDrainWhenClusterNoLongerShrinks() {
+        FakeReaper taskReaper = new FakeReaper(shard("a", "0", 100, "10.0.0.1"), shard("b", "0", 100, "10.0.0.2"), shard("c", "0", 100, "10.0.0.3"));
+        taskReaper.run();
+        when(config.getElasticsearchNodes()).thenReturn(3);
+        taskReaper.run();
+
+        verify(driver, never()).killTask(any());
+        assertTrue(taskReaper.getDecommissions().isEmpty());
+        assertEquals(Arrays.asList("10.0.0.1", ""), taskReaper.settings);
+    }
+
+    @Test
+    public void shouldLiftExclusionWhenKilledNodesAreGone() {
+        FakeReaper taskReaper = new FakeReaper(shard("a", "0", 100, "10.0.0.1"), shard("b", "0", 100, "10.0.0.2"));
+        taskReaper.run();
+        verify(driver, times(1)).killTask(taskId("task3"));
+        tasks.remove(2);
+        taskReaper.run();
+
+        assertTrue(taskReaper.getDecommissions().isEmpty());
+        assertEquals(Arrays.asList("10.0.0.3", ""), taskReaper.settings);
+    }
+
+    @Test(timeout = 5000)
+    public void shouldNotHoldTheMonitorWhileAskingElasticsearch() throws InterruptedException {
+        final CountDownLatch asking = new CountDownLatch(1);
+        final CountDownLatch answer = new CountDownLatch(1);
+        final AtomicInteger asked = new AtomicInteger();
+        FakeReaper taskReaper = new FakeReaper(shard("a", "0", 100, "10.0.0.1"), shard("b", "0", 100, "10.0.0.2"), shard("c", "0", 100, "10.0.0.3")) {
+            @Override
+            protected List<ShardCopy> getShards(String url) {
+                asked.incrementAndGet();
+                asking.countDown();
+                try {
+                    answer.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return super.getShards(url);
+            }
+        };
+        final Thread check = new Thread(taskReaper::run);
+        check.start();
+        asking.await();
+        assertTrue(taskReaper.getDecommissions().isEmpty());
+        taskReaper.run(); // Returns at once. The running check checks again.
+        answer.countDown();
+        check.join();
+        assertEquals(2, asked.get());
+        assertEquals(1, taskReaper.getDecommissions().size());
+    }
+
+    @Test
+    public void shouldParseCatShards() {
+        final List<TaskReaper.ShardCopy> shards = TaskReaper.ShardCopy.parse(
+                "twitter 0 p STARTED      3014 10.0.0.1\n" +
+                "twitter 0 r UNASSIGNED\n" +
+                "twitter 1 p INITIALIZING      10.0.0.2\n" +
+                "twitter 2 p RELOCATING   1024 10.0.0.3\n");
+        assertEquals(4, shards.size());
+        assertEquals(3014, shards.get(0).bytes);
+        assertEquals("10.0.0.1", shards.get(0).ip);
+        assertEquals("", shards.get(1).ip);
+        assertFalse(shards.get(1).isHeld());
+        assertEquals("10.0.0.2", shards.get(2).ip);
+        assertEquals(0, shards.get(2).bytes);
+        assertTrue(shards.get(3).isHeld());
+        assertFalse(shards.get(3).isStarted());
+    }
+
+    private static TaskReaper.ShardCopy shard(String index, String shard, long bytes, String ip) {
+        return new TaskReaper.ShardCopy(index, shard, "STARTED", bytes, ip);
+    }
+
+    private static Protos.TaskID taskId(String value) {
+        return Protos.TaskID.newBuilder().setValue(value).build();
+    }
+
+    /**
+     * Answers with the given shards instead of asking Elasticsearch, and records the excluded IPs.
+     */
+    private class FakeReaper extends TaskReaper {
+        private List<ShardCopy> shards;
+        private final List<String> settings = new ArrayList<>();
+
+        FakeReaper(ShardCopy... shards) {
+            super(driver, config, state);
+            this.shards = Arrays.asList(shards);
+        }
+
+        @Override
+        protected List<ShardCopy> getShards(String url) {
+            return shards;
+        }
+
+        @Override
+        protected void setSetting(String url, String setting, String value) {
+            assertEquals(ElasticsearchAdminClient.EXCLUDE_IP, setting);
+            settings.add(value);
+        }
+    }
+}
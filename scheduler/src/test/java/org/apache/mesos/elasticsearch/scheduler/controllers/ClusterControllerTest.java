@@ -1,12 +1,20 @@
 package org.apache.mesos.elasticsearch.scheduler.controllers;
 
-
+import org.apache.mesos.elasticsearch.scheduler.ElasticsearchScheduler;
+import org.apache.mesos.elasticsearch.scheduler.cluster.TaskReaper;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.mockito.Mockito;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.SpringApplicationConfiguration;
 import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
 
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 
@@ -20,6 +28,9 @@ public class ClusterControllerTest {
     @Autowired
     private ClusterController clusterController;
 
+    @Autowired
+    private ElasticsearchScheduler scheduler;
+
     @Test
     public void shouldNotExceptionWhenGeneratingConfiguration() {
         clusterController.clusterInfo();
@@ -34,4 +45,34 @@ public class ClusterControllerTest {
     public void willNotExposePasswordFieldsFromConfigurationInClearText() throws Exception {
         assertEquals("************", clusterController.clusterInfo().configuration.get("FakePassword"));
     }
-}
\ No newline at end of file
+
+    @Test
+    public void shouldReportDecommissionProgress() {
+        final TaskReaper.Decommission decommission = Mockito.mock(TaskReaper.Decommission.class);
+        Mockito.when(decommission.getTaskId()).thenReturn("task3");
+        Mockito.when(decommission.getStartedAt()).thenReturn(ZonedDateTime.of(2016, 1, 1, 0, 0, 0, 0, ZoneOffset.UTC));
+        Mockito.when(decommission.getShards()).thenReturn(4);
+        Mockito.when(decommission.getBytes()).thenReturn(1024L);
+        Mockito.when(scheduler.getDecommissions()).thenReturn(Collections.singletonList(decommission));
+
+        final List<ClusterController.DecommissionResponse> response = clusterController.getDecommissions();
+        assertEquals(1, response.size());
+        assertEquals("task3", response.get(0).taskId);
+        assertEquals("DRAINING", response.get(0).state);
+        assertEquals(4, response.get(0).shards);
+        assertEquals(1024L, response.get(0).bytes);
+        assertEquals("2016-01-01T00:00:00Z", response.get(0).startedAt);
+    }
+
+    @Test
+    public void shouldStartRolloutWithRequestedSettings() {
+        final ClusterController.RolloutRequest request = new ClusterController.RolloutRequest();
+        request.executorImage = "elasticsearch:2.2.0";
+        request.parallelism = 2;
+        Mockito.when(scheduler.getRollout()).thenReturn(Optional.empty());
+
+        final ClusterController.RolloutResponse response = clusterController.startRollout(request);
+        Mockito.verify(scheduler).startRollout("elasticsearch:2.2.0", null, 2);
+        assertEquals("NONE", response.phase);
+    }
+}
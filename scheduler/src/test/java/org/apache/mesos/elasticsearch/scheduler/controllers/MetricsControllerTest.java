@@ -0,0 +1,41 @@
+package org.apache.mesos.elasticsearch.scheduler.controllers;
+
+import org.apache.mesos.elasticsearch.scheduler.ElasticsearchScheduler;
+import org.apache.mesos.elasticsearch.scheduler.OfferMetrics;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mockito;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.SpringApplicationConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Test metrics controller.
+ */
+@RunWith(SpringJUnit4ClassRunner.class)
+@SpringApplicationConfiguration(classes = TestConfiguration.class)
+public class MetricsControllerTest {
+
+    @Autowired
+    MetricsController controller;
+
+    @Autowired
+    ElasticsearchScheduler scheduler;
+
+    @Test
+    public void shouldReportOfferMetrics() {
+        final OfferMetrics metrics = new OfferMetrics();
+        metrics.recordDeclined("Host already running task");
+        metrics.recordAccepted();
+        metrics.recordEvaluation(1000);
+        Mockito.when(scheduler.getOfferMetrics()).thenReturn(metrics);
+
+        final MetricsController.OfferMetricsResponse response = controller.offerMetrics();
+        assertEquals(1, response.accepted);
+        assertEquals(1L, (long) response.declined.get("Host already running task"));
+        assertEquals(1, response.evaluations);
+        assertEquals(1L, (long) response.evaluationHistogram.get("le_10us"));
+    }
+}
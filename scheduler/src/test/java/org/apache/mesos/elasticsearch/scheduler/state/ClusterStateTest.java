@@ -21,7 +21,9 @@ import static org.mockito.Mockito.*;
  */
 @SuppressWarnings({"PMD.TooManyMethods"})
 public class ClusterStateTest {
-    private SerializableState state = mock(SerializableState.class);
+    private static final String TASKS_KEY = "FrameworkID/" + ClusterState.TASKS;
+
+    private TestSerializableStateImpl state = spy(new TestSerializableStateImpl());
 
     private FrameworkState frameworkState = mock(FrameworkState.class);
 
@@ -36,21 +38,13 @@ public class ClusterStateTest {
     @Test
     public void shouldGetListFromZK() throws IOException {
         List<Protos.TaskInfo> taskList = clusterState.getTaskList();
-        verify(state, times(1)).get(anyString());
+        verify(state, times(1)).get(TASKS_KEY);
         assertEquals(0, taskList.size());
     }
 
     @Test
     public void shouldHandleGetException() throws IOException {
-        when(state.<List<String>>get(anyString())).thenThrow(new IOException("Test exception"));
-        List<Protos.TaskInfo> taskList = clusterState.getTaskList();
-        verify(state, times(1)).get(anyString());
-        assertEquals(0, taskList.size());
-    }
-
-    @Test
-    public void shouldHandleGetNull() throws IOException {
-        when(state.get(anyString())).thenReturn(null);
+        doThrow(new IOException("Test exception")).when(state).get(anyString());
         List<Protos.TaskInfo> taskList = clusterState.getTaskList();
         verify(state, times(1)).get(anyString());
         assertEquals(0, taskList.size());
@@ -63,29 +57,24 @@ public class ClusterStateTest {
 
     @Test
     public void shouldReturnStatusWhenDoesExist() throws IOException {
-        ArrayList<Protos.TaskInfo> taskInfos = new ArrayList<>();
-        taskInfos.add(ProtoTestUtil.getDefaultTaskInfo());
         Protos.TaskInfo defaultTaskInfo = ProtoTestUtil.getDefaultTaskInfo();
-        taskInfos.add(defaultTaskInfo);
-        when(state.get(anyString())).thenReturn(taskInfos).thenReturn(ProtoTestUtil.getDefaultTaskStatus(Protos.TaskState.TASK_FINISHED));
+        clusterState.addTask(taskInfo("Task2"));
+        clusterState.addTask(defaultTaskInfo);
         ESTaskStatus status = clusterState.getStatus(defaultTaskInfo.getTaskId());
         assertNotNull(status);
     }
 
     @Test
     public void shouldAddTask() throws IOException {
-        ArrayList<Protos.TaskInfo> mock = Mockito.spy(new ArrayList<>());
-        when(state.get(anyString())).thenReturn(mock);
         Protos.TaskInfo defaultTaskInfo = ProtoTestUtil.getDefaultTaskInfo();
         clusterState.addTask(defaultTaskInfo);
-        verify(state, times(1)).set(anyString(), any());
-        verify(mock, times(1)).add(eq(defaultTaskInfo));
+        assertTrue(clusterState.getTaskList().contains(defaultTaskInfo));
+        assertEquals(defaultTaskInfo, state.get(taskKey(defaultTaskInfo)));
+        assertEquals(Arrays.asList(defaultTaskInfo.getTaskId()), state.get(TASKS_KEY));
     }
 
     @Test
     public void shouldHandleExceptionWhenAddingTask() throws IOException {
-        ArrayList<Protos.TaskInfo> mock = Mockito.spy(new ArrayList<>());
-        when(state.get(anyString())).thenReturn(mock);
         doThrow(IOException.class).when(state).set(anyString(), any());
         Protos.TaskInfo defaultTaskInfo = ProtoTestUtil.getDefaultTaskInfo();
         clusterState.addTask(defaultTaskInfo);
@@ -93,21 +82,29 @@ public class ClusterStateTest {
 
     @Test
     public void shouldDeleteTask() throws IOException {
-        ArrayList<Protos.TaskInfo> mock = Mockito.spy(new ArrayList<>());
         Protos.TaskInfo defaultTaskInfo = ProtoTestUtil.getDefaultTaskInfo();
-        mock.add(defaultTaskInfo);
-        when(state.get(anyString())).thenReturn(mock).thenReturn(ProtoTestUtil.getDefaultTaskStatus(Protos.TaskState.TASK_FINISHED));
+        clusterState.addTask(defaultTaskInfo);
         clusterState.removeTask(defaultTaskInfo);
-        verify(state, times(1)).set(anyString(), any());
-        verify(mock, times(1)).remove(eq(defaultTaskInfo));
+        assertTrue(clusterState.getTaskList().isEmpty());
+        assertNull(state.get(taskKey(defaultTaskInfo)));
+        assertEquals(new ArrayList<>(), state.get(TASKS_KEY));
+    }
+
+    @Test
+    public void shouldOnlyWriteTheChangedTask() throws IOException {
+        Protos.TaskInfo existingTask = taskInfo("Task1");
+        clusterState.addTask(existingTask);
+        Mockito.reset(state);
+        Protos.TaskInfo newTask = taskInfo("Task2");
+        clusterState.addTask(newTask);
+        verify(state, times(1)).set(eq(taskKey(newTask)), eq(newTask));
+        verify(state, never()).set(eq(taskKey(existingTask)), any());
     }
 
     @Test
     public void shouldReturnTrueIfExists() throws IOException {
-        ArrayList<Protos.TaskInfo> mock = Mockito.spy(new ArrayList<>());
         Protos.TaskInfo defaultTaskInfo = ProtoTestUtil.getDefaultTaskInfo();
-        mock.add(defaultTaskInfo);
-        when(state.get(anyString())).thenReturn(mock);
+        clusterState.addTask(defaultTaskInfo);
         assertTrue(clusterState.exists(defaultTaskInfo.getTaskId()));
         verify(state, atLeastOnce()).get(anyString());
     }
@@ -116,17 +113,14 @@ public class ClusterStateTest {
     public void shouldReturnFalseIfNotExists() throws IOException {
         Protos.TaskInfo defaultTaskInfo = ProtoTestUtil.getDefaultTaskInfo();
         assertFalse(clusterState.exists(defaultTaskInfo.getTaskId()));
-        verify(state, times(1)).get(anyString());
+        verify(state, times(1)).get(TASKS_KEY);
     }
 
     @Test
     public void shouldReturnCorrectNumberOfExecutors() throws IOException {
-        ArrayList<Protos.TaskInfo> mock = Mockito.spy(new ArrayList<>());
-        mock.add(ProtoTestUtil.getDefaultTaskInfo());
-        Protos.TaskInfo defaultTaskInfo = Protos.TaskInfo.newBuilder().mergeFrom(ProtoTestUtil.getDefaultTaskInfo()).setTaskId(Protos.TaskID.newBuilder().setValue("Task2")).build();
-        mock.add(defaultTaskInfo);
-        when(state.get(contains(ESTaskStatus.STATE_KEY))).thenReturn(ProtoTestUtil.getDefaultTaskStatus(Protos.TaskState.TASK_RUNNING));
-        when(state.get(contains(ClusterState.STATE_LIST))).thenReturn(mock); // Be careful, the state list and state key both have the word state in them. Order is important.
+        clusterState.addTask(ProtoTestUtil.getDefaultTaskInfo());
+        Protos.TaskInfo defaultTaskInfo = taskInfo("Task2");
+        clusterState.addTask(defaultTaskInfo);
         assertEquals(2, clusterState.getGuiTaskList().size());
         clusterState.removeTask(defaultTaskInfo);
         assertEquals(1, clusterState.getGuiTaskList().size());
@@ -136,16 +130,132 @@ public class ClusterStateTest {
     @Test
     public void shouldIncrementEsNodeId() throws IOException {
         assertEquals(0, clusterState.getElasticNodeId().intValue());
-        when(state.get(any())).thenReturn(Collections.singletonList(ProtoTestUtil.getTaskInfoExternalVolume(0)));
+        clusterState.addTask(ProtoTestUtil.getTaskInfoExternalVolume(0));
         assertEquals(1, clusterState.getElasticNodeId().intValue());
     }
 
     @Test
     public void shouldReplaceNodeId() throws IOException {
-        when(state.get(any())).thenReturn(Collections.singletonList(ProtoTestUtil.getTaskInfoExternalVolume(1)));
+        clusterState.addTask(Protos.TaskInfo.newBuilder(ProtoTestUtil.getTaskInfoExternalVolume(1)).setTaskId(Protos.TaskID.newBuilder().setValue("Task1")).build());
         assertEquals(0, clusterState.getElasticNodeId().intValue());
-        when(state.get(any())).thenReturn(Arrays.asList(ProtoTestUtil.getTaskInfoExternalVolume(0), ProtoTestUtil.getTaskInfoExternalVolume(1)));
+        clusterState.addTask(ProtoTestUtil.getTaskInfoExternalVolume(0));
         assertEquals(2, clusterState.getElasticNodeId().intValue());
+    }
+
+    @Test
+    public void shouldOnlyReadTaskListFromZKOnce() throws IOException {
+        new ClusterState(state, frameworkState).addTask(ProtoTestUtil.getDefaultTaskInfo());
+        Mockito.reset(state);
+        clusterState.getTaskList();
+        clusterState.getTask(ProtoTestUtil.getDefaultTaskInfo().getTaskId());
+        clusterState.exists(ProtoTestUtil.getDefaultTaskInfo().getTaskId());
+        assertEquals(1, clusterState.getTaskList().size());
+        verify(state, times(1)).get(TASKS_KEY);
+    }
+
+    @Test
+    public void shouldRebuildFromZKOnReload() throws IOException {
+        assertEquals(0, clusterState.getTaskList().size());
+        new ClusterState(state, frameworkState).addTask(ProtoTestUtil.getDefaultTaskInfo());
+        assertEquals(0, clusterState.getTaskList().size());
+        clusterState.reload();
+        assertEquals(1, clusterState.getTaskList().size());
+    }
+
+    @Test
+    public void shouldMigrateLegacyStateList() throws IOException {
+        final String legacyKey = "FrameworkID/" + ClusterState.STATE_LIST;
+        List<Protos.TaskInfo> legacyList = new ArrayList<>(Arrays.asList(taskInfo("Task1"), taskInfo("Task2")));
+        state.set(legacyKey, legacyList);
+        assertEquals(legacyList, clusterState.getTaskList());
+        assertNull(state.get(legacyKey));
+        assertEquals(legacyList.get(0), state.get(taskKey(legacyList.get(0))));
+        assertEquals(legacyList.get(1), state.get(taskKey(legacyList.get(1))));
+        assertEquals(Arrays.asList(legacyList.get(0).getTaskId(), legacyList.get(1).getTaskId()), state.get(TASKS_KEY));
+    }
+
+    @Test
+    public void shouldRewriteLegacyTaskIdIndex() throws IOException {
+        Protos.TaskInfo task = taskInfo("Task1");
+        state.set(taskKey(task), task);
+        state.set(TASKS_KEY, new ArrayList<>(Arrays.asList("Task1")));
+        assertEquals(Arrays.asList(task), clusterState.getTaskList());
+        assertEquals(Arrays.asList(task.getTaskId()), state.get(TASKS_KEY));
+    }
+
+    @Test
+    public void shouldNotWriteUnchangedStatus() throws IOException {
+        Protos.TaskInfo defaultTaskInfo = ProtoTestUtil.getDefaultTaskInfo();
+        clusterState.addTask(defaultTaskInfo);
+        Protos.TaskStatus running = Protos.TaskStatus.newBuilder().setTaskId(defaultTaskInfo.getTaskId()).setState(Protos.TaskState.TASK_RUNNING).build();
+        clusterState.update(running);
+        Mockito.reset(state);
+        Protos.TaskStatus reconciled = Protos.TaskStatus.newBuilder(running).setMessage("Reconciliation: Latest task state").build();
+        clusterState.update(reconciled);
+        verify(state, never()).set(anyString(), any());
+        assertEquals(Protos.TaskState.TASK_RUNNING, clusterState.getStatus(defaultTaskInfo.getTaskId()).getStatus().getState());
+    }
+
+    @Test
+    public void shouldWriteChangedStatus() throws IOException {
+        Protos.TaskInfo defaultTaskInfo = ProtoTestUtil.getDefaultTaskInfo();
+        clusterState.addTask(defaultTaskInfo);
+        Protos.TaskStatus running = Protos.TaskStatus.newBuilder().setTaskId(defaultTaskInfo.getTaskId()).setState(Protos.TaskState.TASK_RUNNING).build();
+        Mockito.reset(state);
+        clusterState.update(running);
+        verify(state, times(1)).set(anyString(), eq(running));
+    }
+
+    @Test
+    public void shouldListTasksWithoutZookeeperAccess() throws IOException {
+        Protos.TaskInfo defaultTaskInfo = ProtoTestUtil.getDefaultTaskInfo();
+        clusterState.addTask(defaultTaskInfo);
+        clusterState.update(Protos.TaskStatus.newBuilder().setTaskId(defaultTaskInfo.getTaskId()).setState(Protos.TaskState.TASK_RUNNING).build());
+        Mockito.reset(state);
+        clusterState.getGuiTaskList();
+        clusterState.getTaskList();
+        verifyZeroInteractions(state);
+    }
+
+    @Test
+    public void shouldLoadStatusesOnReload() throws IOException {
+        Protos.TaskInfo defaultTaskInfo = ProtoTestUtil.getDefaultTaskInfo();
+        clusterState.addTask(defaultTaskInfo);
+        clusterState.update(Protos.TaskStatus.newBuilder().setTaskId(defaultTaskInfo.getTaskId()).setState(Protos.TaskState.TASK_RUNNING).build());
+        clusterState.reload();
+        Mockito.reset(state);
+        assertEquals(Protos.TaskState.TASK_RUNNING, clusterState.getGuiTaskList().get(defaultTaskInfo.getTaskId().getValue()).getState());
+        verifyZeroInteractions(state);
+    }
+
+    @Test
+    public void shouldRememberWhereFailedTasksLeftTheirData() throws IOException {
+        Protos.TaskInfo defaultTaskInfo = ProtoTestUtil.getDefaultTaskInfo();
+        clusterState.addTask(defaultTaskInfo);
+        final long before = System.currentTimeMillis();
+        clusterState.updateTask(Protos.TaskStatus.newBuilder().setTaskId(defaultTaskInfo.getTaskId()).setState(Protos.TaskState.TASK_FAILED).build());
+
+        assertFalse(clusterState.exists(defaultTaskInfo.getTaskId()));
+        assertEquals(Collections.singleton(defaultTaskInfo.getSlaveId()), clusterState.getLostDataLocations(before));
+        clusterState.addTask(taskInfo("Replacement"));
+        assertTrue(clusterState.getLostDataLocations(before).isEmpty());
+    }
+
+    @Test
+    public void shouldForgetDataLocationsAfterGracePeriod() throws IOException {
+        Protos.TaskInfo defaultTaskInfo = ProtoTestUtil.getDefaultTaskInfo();
+        clusterState.addTask(defaultTaskInfo);
+        clusterState.updateTask(Protos.TaskStatus.newBuilder().setTaskId(defaultTaskInfo.getTaskId()).setState(Protos.TaskState.TASK_LOST).build());
+
+        assertTrue(clusterState.getLostDataLocations(System.currentTimeMillis() + 1).isEmpty());
+        assertTrue(clusterState.getLostDataLocations(0).isEmpty());
+    }
+
+    private Protos.TaskInfo taskInfo(String taskId) {
+        return Protos.TaskInfo.newBuilder(ProtoTestUtil.getDefaultTaskInfo()).setTaskId(Protos.TaskID.newBuilder().setValue(taskId)).build();
+    }
 
+    private String taskKey(Protos.TaskInfo taskInfo) {
+        return TASKS_KEY + "/" + taskInfo.getTaskId().getValue();
     }
-}
\ No newline at end of file
+}
@@ -12,6 +12,7 @@ import java.security.InvalidParameterException;
 
 import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.*;
 
 /**
@@ -34,11 +35,16 @@ public class ESTaskStatusTest {
     }
 
     @Test
-    public void shouldCheckIfStatusIsValid() throws IOException {
+    public void shouldNotAccessZookeeperOnConstruction() throws IOException {
         Mockito.reset(state);
-        when(state.get(anyString())).thenThrow(new IllegalStateException("Test")).thenReturn(taskStatus);
-        status = new ESTaskStatus(state, frameworkID, taskInfo, new StatePath(state));
-        verify(state, atLeastOnce()).set(anyString(), any());
+        new ESTaskStatus(state, frameworkID, taskInfo, new StatePath(state));
+        verifyZeroInteractions(state);
+    }
+
+    @Test
+    public void shouldWriteDefaultStatusOnInitialize() throws IOException {
+        status.initialize();
+        verify(state, times(1)).set(anyString(), eq(taskStatus));
     }
 
     @Test(expected = IllegalStateException.class)
@@ -0,0 +1,52 @@
+package org.apache.mesos.elasticsearch.scheduler.state;
+
+import org.apache.mesos.Protos;
+import org.apache.mesos.elasticsearch.scheduler.util.ProtoTestUtil;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.security.InvalidParameterException;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests
+ */
+public class FileStateTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void shouldKeepStateAcrossInstances() throws IOException {
+        Protos.TaskInfo taskInfo = ProtoTestUtil.getDefaultTaskInfo();
+        FileState state = new FileState(folder.getRoot());
+        state.set("frameworkId/tasks", new ArrayList<>(Arrays.asList("task1")));
+        state.set("frameworkId/tasks/task1", taskInfo);
+
+        FileState reopened = new FileState(folder.getRoot());
+        assertEquals(Arrays.asList("task1"), reopened.get("frameworkId/tasks"));
+        assertEquals(taskInfo, reopened.get("frameworkId/tasks/task1"));
+    }
+
+    @Test
+    public void shouldReturnNullForMissingKey() throws IOException {
+        assertNull(new FileState(folder.getRoot()).get("missing"));
+    }
+
+    @Test
+    public void shouldDelete() throws IOException {
+        FileState state = new FileState(folder.getRoot());
+        state.set("key", "value");
+        state.delete("key");
+        assertNull(state.get("key"));
+    }
+
+    @Test(expected = InvalidParameterException.class)
+    public void shouldExceptWhenDeletingMissingKey() throws IOException {
+        new FileState(folder.getRoot()).delete("missing");
+    }
+}
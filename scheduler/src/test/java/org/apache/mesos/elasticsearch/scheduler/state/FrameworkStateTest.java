@@ -1,12 +1,17 @@
 package org.apache.mesos.elasticsearch.scheduler.state;
 
+import org.apache.log4j.Logger;
 import org.apache.mesos.Protos;
 import org.apache.mesos.SchedulerDriver;
+import org.apache.mesos.elasticsearch.scheduler.util.ProtoTestUtil;
+import org.junit.Before;
 import org.junit.Test;
 
 import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 import static org.mockito.Matchers.anyString;
 import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.*;
@@ -15,12 +20,18 @@ import static org.mockito.Mockito.*;
  * Tests
  */
 public class FrameworkStateTest {
+    private static final Logger LOGGER = Logger.getLogger(FrameworkStateTest.class);
 
     public static final Protos.FrameworkID FRAMEWORK_ID = Protos.FrameworkID.newBuilder().setValue("FrameworkID").build();
     public final SerializableState state = mock(SerializableState.class);
     private final FrameworkState frameworkState = new FrameworkState(state);
     private SchedulerDriver driver = mock(SchedulerDriver.class);
 
+    @Before
+    public void before() {
+        frameworkState.attach(new ClusterState(state, frameworkState));
+    }
+
     @Test
     public void testSetFrameworkID() throws IOException {
         frameworkState.markRegistered(FRAMEWORK_ID, driver);
@@ -42,12 +53,98 @@ public class FrameworkStateTest {
         assertEquals("", frameworkID.getValue());
     }
 
+    @Test
+    public void shouldOnlyReadFrameworkIDOnce() throws IOException {
+        when(state.get(anyString())).thenReturn(FRAMEWORK_ID);
+        frameworkState.getFrameworkID();
+        frameworkState.getFrameworkID();
+        assertEquals(FRAMEWORK_ID, frameworkState.getFrameworkID());
+        verify(state, times(1)).get(anyString());
+    }
+
+    @Test
+    public void shouldNotReadFrameworkIDAfterRegistering() throws IOException {
+        frameworkState.markRegistered(FRAMEWORK_ID, driver);
+        reset(state);
+        assertEquals(FRAMEWORK_ID, frameworkState.getFrameworkID());
+        verify(state, never()).get(anyString());
+    }
+
+    @Test
+    public void shouldReadFrameworkIDAgainAfterDestroy() throws IOException {
+        when(state.get(anyString())).thenReturn(FRAMEWORK_ID);
+        frameworkState.getFrameworkID();
+        frameworkState.destroy();
+        when(state.get(anyString())).thenReturn(null);
+        assertEquals("", frameworkState.getFrameworkID().getValue());
+    }
+
+    @Test
+    public void shouldNotCacheEmptyFrameworkID() throws IOException {
+        assertEquals("", frameworkState.getFrameworkID().getValue());
+        when(state.get(anyString())).thenReturn(FRAMEWORK_ID);
+        assertEquals(FRAMEWORK_ID, frameworkState.getFrameworkID());
+    }
+
+    /**
+     * Counts FrameworkID lookups and the zookeeper reads behind them over a number of offer cycles. Before the ID was
+     * cached, every lookup was a zookeeper read.
+     */
+    @Test
+    public void benchmarkFrameworkIDReadsPerOfferCycle() throws IOException {
+        final int cycles = 100;
+        final AtomicInteger lookups = new AtomicInteger();
+        final AtomicInteger reads = new AtomicInteger();
+        final TestSerializableStateImpl zkState = new TestSerializableStateImpl() {
+            @Override
+            public <T> T get(String key) throws IOException {
+                if (key.equals("frameworkId")) {
+                    reads.incrementAndGet();
+                }
+                return super.get(key);
+            }
+        };
+        final FrameworkState registeredState = new FrameworkState(zkState) {
+            @Override
+            public Protos.FrameworkID getFrameworkID() {
+                lookups.incrementAndGet();
+                return super.getFrameworkID();
+            }
+        };
+        final ClusterState clusterState = new ClusterState(zkState, registeredState);
+        registeredState.attach(clusterState);
+        registeredState.markRegistered(FRAMEWORK_ID, driver);
+        lookups.set(0);
+        reads.set(0);
+
+        long start = System.nanoTime();
+        for (int i = 0; i < cycles; i++) {
+            Protos.TaskInfo taskInfo = Protos.TaskInfo.newBuilder(ProtoTestUtil.getDefaultTaskInfo()).setTaskId(Protos.TaskID.newBuilder().setValue("Task" + i)).build();
+            ESTaskStatus esTask = new ESTaskStatus(zkState, registeredState.getFrameworkID(), taskInfo, new StatePath(zkState));
+            esTask.initialize();
+            clusterState.addTask(esTask);
+            registeredState.announceStatusUpdate(Protos.TaskStatus.newBuilder().setTaskId(taskInfo.getTaskId()).setState(Protos.TaskState.TASK_RUNNING).build());
+            clusterState.getGuiTaskList();
+        }
+        long elapsed = System.nanoTime() - start;
+
+        LOGGER.info("Per offer cycle: " + lookups.get() / cycles + " FrameworkID lookups (previously one zookeeper read each), "
+                + reads.get() / cycles + " zookeeper reads, " + elapsed / cycles / 1000 + "us");
+        assertTrue(lookups.get() >= cycles);
+        assertEquals(0, reads.get());
+    }
+
     @Test
     public void testHandleSetException() throws IOException {
         doThrow(IOException.class).when(state).set(anyString(), any());
         frameworkState.markRegistered(FRAMEWORK_ID, driver);
     }
 
+    @Test(expected = IllegalStateException.class)
+    public void shouldNotRegisterWithoutClusterState() {
+        new FrameworkState(state).markRegistered(FRAMEWORK_ID, driver);
+    }
+
     @Test
     public void testHandleGetException() throws IOException {
         doThrow(IOException.class).when(state).get(anyString());
@@ -0,0 +1,91 @@
+package org.apache.mesos.elasticsearch.scheduler.state;
+
+import org.apache.log4j.Logger;
+import org.apache.mesos.Protos;
+import org.apache.mesos.elasticsearch.scheduler.util.ProtoTestUtil;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.security.InvalidParameterException;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests
+ */
+public class InMemoryStateTest {
+    private static final Logger LOGGER = Logger.getLogger(InMemoryStateTest.class);
+    private final InMemoryState state = new InMemoryState();
+
+    @Test
+    public void shouldStoreCopies() throws IOException {
+        Protos.TaskInfo taskInfo = ProtoTestUtil.getDefaultTaskInfo();
+        state.set("key", taskInfo);
+        assertEquals(taskInfo, state.get("key"));
+        assertNotSame(taskInfo, state.get("key"));
+        assertNull(state.get("missing"));
+    }
+
+    @Test(expected = InvalidParameterException.class)
+    public void shouldExceptWhenDeletingMissingKey() throws IOException {
+        state.delete("missing");
+    }
+
+    @Test
+    public void shouldFailNextOperations() throws IOException {
+        state.failNext(2);
+        assertFails(() -> state.set("key", "value"));
+        assertFails(() -> state.get("key"));
+        state.set("key", "value");
+        assertEquals("value", state.get("key"));
+    }
+
+    @Test
+    public void shouldFailAllOperationsAtFullFailureRate() {
+        state.setFailureRate(1.0);
+        assertFails(() -> state.set("key", "value"));
+    }
+
+    @Test
+    public void shouldDelayOperations() throws IOException {
+        state.setLatency(20);
+        long start = System.nanoTime();
+        state.set("key", "value");
+        assertTrue(System.nanoTime() - start >= 20_000_000L);
+    }
+
+    /**
+     * Adds a task and updates its status with the state behind a 5ms round trip, as a slow zookeeper would be.
+     */
+    @Test
+    public void benchmarkClusterStateUnderLatency() {
+        state.setLatency(5);
+        FrameworkState frameworkState = mock(FrameworkState.class);
+        when(frameworkState.getFrameworkID()).thenReturn(Protos.FrameworkID.newBuilder().setValue("FrameworkID").build());
+        ClusterState clusterState = new ClusterState(state, frameworkState);
+        Protos.TaskInfo taskInfo = ProtoTestUtil.getDefaultTaskInfo();
+
+        long start = System.nanoTime();
+        clusterState.addTask(taskInfo);
+        clusterState.update(Protos.TaskStatus.newBuilder().setTaskId(taskInfo.getTaskId()).setState(Protos.TaskState.TASK_RUNNING).build());
+        clusterState.getGuiTaskList();
+        long elapsedMs = (System.nanoTime() - start) / 1_000_000;
+        LOGGER.info("Launch cycle with 5ms state latency: " + elapsedMs + "ms");
+        assertEquals(1, clusterState.getTaskList().size());
+    }
+
+    private static void assertFails(Operation operation) {
+        try {
+            operation.run();
+            fail("Expected injected failure");
+        } catch (IOException e) {
+            assertTrue(e.getMessage().startsWith("Injected failure"));
+        }
+    }
+
+    private interface Operation {
+        void run() throws IOException;
+    }
+}
@@ -0,0 +1,130 @@
+package org.apache.mesos.elasticsearch.scheduler.state;
+
+import org.apache.mesos.Protos;
+import org.apache.mesos.elasticsearch.scheduler.util.ProtoTestUtil;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.*;
+
+/**
+ * Tests
+ */
+public class LocalJournalStateTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final TestSerializableStateImpl zkState = spy(new TestSerializableStateImpl());
+
+    @Test
+    public void shouldServeWritesFromLocalCopyAfterRestart() throws IOException {
+        LocalJournalState journalState = new LocalJournalState(zkState, folder.getRoot());
+        Protos.TaskInfo taskInfo = ProtoTestUtil.getDefaultTaskInfo();
+        journalState.set("task", taskInfo);
+        journalState.set("ids", new ArrayList<>(Arrays.asList("a", "b")));
+        journalState.close();
+
+        reset(zkState);
+        LocalJournalState restarted = new LocalJournalState(zkState, folder.getRoot());
+        assertEquals(taskInfo, restarted.get("task"));
+        assertEquals(Arrays.asList("a", "b"), restarted.get("ids"));
+        verify(zkState, never()).get(anyString());
+    }
+
+    @Test
+    public void shouldReadThroughOnceForUnknownKeys() throws IOException {
+        zkState.set("key", "value");
+        LocalJournalState journalState = new LocalJournalState(zkState, folder.getRoot());
+        assertEquals("value", journalState.get("key"));
+        assertEquals("value", journalState.get("key"));
+        verify(zkState, times(1)).get("key");
+    }
+
+    @Test
+    public void shouldNotReplaceWriteMadeWhileFetching() throws IOException {
+        final LocalJournalState journalState = new LocalJournalState(zkState, folder.getRoot());
+        doAnswer(invocation -> {
+            journalState.set("key", "new"); // Written by another thread while the old value was being fetched
+            return "old";
+        }).when(zkState).get("key");
+        assertEquals("old", journalState.get("key"));
+        assertEquals("new", journalState.get("key"));
+        journalState.close();
+
+        LocalJournalState restarted = new LocalJournalState(zkState, folder.getRoot());
+        assertEquals("new", restarted.get("key"));
+    }
+
+    @Test
+    public void shouldForgetDeletedKeys() throws IOException {
+        LocalJournalState journalState = new LocalJournalState(zkState, folder.getRoot());
+        journalState.set("key", "value");
+        journalState.delete("key");
+        LocalJournalState restarted = new LocalJournalState(zkState, folder.getRoot());
+        assertNull(restarted.get("key"));
+        verify(zkState, times(1)).get("key");
+    }
+
+    @Test
+    public void shouldSnapshotWhenJournalIsFull() throws IOException {
+        LocalJournalState journalState = new LocalJournalState(zkState, folder.getRoot(), new ProtobufCodec(), 256);
+        for (int i = 0; i < 100; i++) {
+            journalState.set("key" + (i % 5), "value" + i);
+        }
+        assertTrue(new File(folder.getRoot(), LocalJournalState.SNAPSHOT_FILE).exists());
+        reset(zkState);
+        LocalJournalState restarted = new LocalJournalState(zkState, folder.getRoot(), new ProtobufCodec(), 256);
+        for (int i = 95; i < 100; i++) {
+            assertEquals("value" + i, restarted.get("key" + (i % 5)));
+        }
+        verify(zkState, never()).get(anyString());
+    }
+
+    @Test
+    public void shouldCorrectStaleLocalCopyOnVerify() throws IOException {
+        LocalJournalState journalState = new LocalJournalState(zkState, folder.getRoot());
+        journalState.set("same", "value");
+        journalState.set("changed", "old");
+        zkState.set("changed", "new"); // Written by another scheduler
+        assertTrue(journalState.verify());
+        assertEquals("new", journalState.get("changed"));
+        assertFalse(journalState.verify());
+    }
+
+    @Test
+    public void shouldStartFromZookeeperIfJournalIsCorrupt() throws IOException {
+        LocalJournalState journalState = new LocalJournalState(zkState, folder.getRoot());
+        journalState.set("key", "value");
+        journalState.close();
+        try (RandomAccessFile file = new RandomAccessFile(new File(folder.getRoot(), LocalJournalState.JOURNAL_FILE), "rw")) {
+            file.seek(Integer.BYTES + "key".length() + Integer.BYTES);
+            file.write(new byte[]{1, 2, 3, 4});
+        }
+        LocalJournalState restarted = new LocalJournalState(zkState, folder.getRoot());
+        assertEquals("value", restarted.get("key"));
+        verify(zkState, times(1)).get("key");
+    }
+
+    @Test
+    public void shouldNotKeepValueIfWriteFails() throws IOException {
+        LocalJournalState journalState = new LocalJournalState(zkState, folder.getRoot());
+        journalState.set("key", "value");
+        doThrow(new IOException("Test exception")).when(zkState).set("key", "other");
+        try {
+            journalState.set("key", "other");
+            fail("Expected exception");
+        } catch (IOException e) {
+            assertEquals("value", journalState.get("key"));
+            verify(zkState, times(1)).get("key");
+        }
+    }
+}
@@ -0,0 +1,112 @@
+package org.apache.mesos.elasticsearch.scheduler.state;
+
+import org.apache.log4j.Logger;
+import org.apache.mesos.Protos;
+import org.apache.mesos.elasticsearch.scheduler.util.ProtoTestUtil;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Tests for the protobuf state codec
+ */
+public class ProtobufCodecTest {
+    private static final Logger LOGGER = Logger.getLogger(ProtobufCodecTest.class);
+    private static final int CLUSTER_SIZE = 60;
+    private static final int ITERATIONS = 200;
+    private final ProtobufCodec codec = new ProtobufCodec();
+    private final JavaSerializationCodec javaCodec = new JavaSerializationCodec();
+
+    @Test
+    public void shouldRoundTripTaskList() throws IOException {
+        List<Protos.TaskInfo> taskList = taskList(CLUSTER_SIZE);
+        List<Protos.TaskInfo> decoded = codec.decode(codec.encode(taskList));
+        assertEquals(taskList, decoded);
+    }
+
+    @Test
+    public void shouldRoundTripEmptyList() throws IOException {
+        List<Protos.TaskInfo> decoded = codec.decode(codec.encode(new ArrayList<>()));
+        assertTrue(decoded.isEmpty());
+    }
+
+    @Test
+    public void shouldRoundTripSingleMessages() throws IOException {
+        Protos.TaskStatus status = ProtoTestUtil.getDefaultTaskStatus(Protos.TaskState.TASK_RUNNING);
+        assertEquals(status, codec.decode(codec.encode(status)));
+        Protos.FrameworkID frameworkID = Protos.FrameworkID.newBuilder().setValue("frameworkId").build();
+        assertEquals(frameworkID, codec.decode(codec.encode(frameworkID)));
+    }
+
+    @Test
+    public void shouldRoundTripTaskIdList() throws IOException {
+        List<Protos.TaskID> taskIds = Arrays.asList(Protos.TaskID.newBuilder().setValue("Task1").build(), Protos.TaskID.newBuilder().setValue("Task2").build());
+        byte[] bytes = codec.encode(taskIds);
+        assertFalse(JavaSerializationCodec.isJavaSerialized(bytes));
+        assertEquals(taskIds, codec.decode(bytes));
+    }
+
+    @Test
+    public void shouldEncodeNullAsNonEmptyValue() throws IOException {
+        byte[] bytes = codec.encode(null);
+        assertTrue(bytes.length > 0);
+        assertNull(codec.decode(bytes));
+    }
+
+    @Test
+    public void shouldReadJavaSerializedValues() throws IOException {
+        List<Protos.TaskInfo> taskList = taskList(3);
+        List<Protos.TaskInfo> decoded = codec.decode(javaCodec.encode(taskList));
+        assertEquals(taskList, decoded);
+    }
+
+    @Test
+    public void shouldFallBackToJavaSerializationForOtherObjects() throws IOException {
+        byte[] bytes = codec.encode("Serializable object");
+        assertTrue(JavaSerializationCodec.isJavaSerialized(bytes));
+        assertEquals("Serializable object", codec.decode(bytes));
+    }
+
+    @Test(expected = IOException.class)
+    public void shouldExceptOnUnknownEncoding() throws IOException {
+        codec.decode(new byte[]{1, 2, 3, 4});
+    }
+
+    @Test
+    public void shouldBeSmallerAndFasterThanJavaSerialization() throws IOException {
+        List<Protos.TaskInfo> taskList = taskList(CLUSTER_SIZE);
+        byte[] protobufBytes = codec.encode(taskList);
+        byte[] javaBytes = javaCodec.encode(taskList);
+        long protobufNanos = timeRoundTrip(codec, taskList);
+        long javaNanos = timeRoundTrip(javaCodec, taskList);
+        LOGGER.info(CLUSTER_SIZE + " tasks. Protobuf: " + protobufBytes.length + " bytes, " + protobufNanos / ITERATIONS / 1000 + "us/round trip." +
+                " Java: " + javaBytes.length + " bytes, " + javaNanos / ITERATIONS / 1000 + "us/round trip.");
+        assertTrue("Protobuf encoding should be smaller than Java serialization", protobufBytes.length < javaBytes.length);
+    }
+
+    private long timeRoundTrip(StateCodec stateCodec, List<Protos.TaskInfo> taskList) throws IOException {
+        for (int i = 0; i < ITERATIONS; i++) { // Warm up
+            stateCodec.decode(stateCodec.encode(taskList));
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            stateCodec.decode(stateCodec.encode(taskList));
+        }
+        return System.nanoTime() - start;
+    }
+
+    private List<Protos.TaskInfo> taskList(int size) {
+        List<Protos.TaskInfo> taskList = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            taskList.add(Protos.TaskInfo.newBuilder(ProtoTestUtil.getTaskInfoExternalVolume(i))
+                    .setTaskId(Protos.TaskID.newBuilder().setValue("elasticsearch_host" + i + "_20160301T120000.000Z"))
+                    .build());
+        }
+        return taskList;
+    }
+}
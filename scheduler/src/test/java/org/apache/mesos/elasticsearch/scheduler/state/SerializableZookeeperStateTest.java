@@ -1,5 +1,7 @@
 package org.apache.mesos.elasticsearch.scheduler.state;
 
+import org.apache.mesos.Protos;
+import org.apache.mesos.elasticsearch.scheduler.util.ProtoTestUtil;
 import org.apache.mesos.state.State;
 import org.apache.mesos.state.Variable;
 import org.junit.Before;
@@ -126,6 +128,79 @@ public class SerializableZookeeperStateTest {
     }
 
 
+    @Test
+    public void shouldMigrateJavaSerializedProtobufs() throws IOException {
+        Protos.TaskStatus taskStatus = ProtoTestUtil.getDefaultTaskStatus(Protos.TaskState.TASK_RUNNING);
+        when(variable.value()).thenReturn(writeVariable(taskStatus));
+        assertEquals(taskStatus, serializableState.get("test"));
+        verify(variable, times(1)).mutate(eq(new ProtobufCodec().encode(taskStatus)));
+        verify(state, times(1)).store(any(Variable.class));
+    }
+
+    @Test
+    public void shouldNotRewriteCurrentFormat() throws IOException {
+        Protos.TaskStatus taskStatus = ProtoTestUtil.getDefaultTaskStatus(Protos.TaskState.TASK_RUNNING);
+        when(variable.value()).thenReturn(new ProtobufCodec().encode(taskStatus));
+        assertEquals(taskStatus, serializableState.get("test"));
+        verify(state, never()).store(any(Variable.class));
+    }
+
+    @Test
+    public void shouldOnlyCheckJavaSerializedZNodesOnce() throws IOException {
+        StateCodec codec = spy(new ProtobufCodec());
+        serializableState = new SerializableZookeeperState(state, codec);
+        serializableState.get("test"); // A Java serialized String, which the codec also Java serializes
+        serializableState.get("test");
+        verify(codec, times(1)).encode(any());
+        verify(state, never()).store(any(Variable.class));
+    }
+
+    @Test
+    public void shouldNotEncodeCurrentFormatOnRead() throws IOException {
+        Protos.TaskStatus taskStatus = ProtoTestUtil.getDefaultTaskStatus(Protos.TaskState.TASK_RUNNING);
+        when(variable.value()).thenReturn(new ProtobufCodec().encode(taskStatus));
+        StateCodec codec = spy(new ProtobufCodec());
+        serializableState = new SerializableZookeeperState(state, codec);
+        serializableState.get("test");
+        verify(codec, never()).encode(any());
+    }
+
+    @Test
+    public void shouldNotFetchBeforeRepeatedSets() throws IOException {
+        serializableState.set("test", "Serializable object");
+        serializableState.set("test", "Serializable object");
+        verify(state, times(1)).fetch(anyString());
+        verify(state, times(2)).store(any(Variable.class));
+    }
+
+    @Test
+    public void shouldRefetchOnVersionMismatch() throws IOException {
+        serializableState.set("test", "Serializable object");
+        when(state.store(any(Variable.class))).thenReturn(CompletableFuture.completedFuture(null)).thenReturn(future);
+        serializableState.set("test", "Serializable object");
+        verify(state, times(2)).fetch(anyString());
+        verify(state, times(3)).store(any(Variable.class));
+    }
+
+    @Test
+    public void shouldWriteSteadyStateStatusUpdateInOneRoundTrip() throws IOException {
+        when(variable.value()).thenReturn(new byte[0]);
+        when(variable.mutate(any(byte[].class))).thenReturn(variable);
+        ESTaskStatus taskStatus = new ESTaskStatus(serializableState, Protos.FrameworkID.newBuilder().setValue("frameworkId").build(),
+                ProtoTestUtil.getDefaultTaskInfo(), new StatePath(serializableState));
+        taskStatus.setStatus(ProtoTestUtil.getDefaultTaskStatus(Protos.TaskState.TASK_STAGING)); // Paths are now known
+
+        reset(state);
+        when(state.fetch(anyString())).thenReturn(future);
+        when(state.store(any(Variable.class))).thenReturn(future);
+        final int updates = 10;
+        for (int i = 0; i < updates; i++) {
+            taskStatus.setStatus(ProtoTestUtil.getDefaultTaskStatus(Protos.TaskState.TASK_RUNNING, (double) i));
+        }
+        verify(state, never()).fetch(anyString());
+        verify(state, times(updates)).store(any(Variable.class));
+    }
+
     // Data must be serialized/deserialized in exactly the same way to be readable.
     private byte[] writeVariable(Object object) throws IOException {
         ByteArrayOutputStream bos = null;
@@ -0,0 +1,175 @@
+package org.apache.mesos.elasticsearch.scheduler.state;
+
+import org.junit.After;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.*;
+import static org.mockito.Matchers.anyMapOf;
+import static org.mockito.Mockito.*;
+
+/**
+ * Tests
+ */
+public class WriteBehindStateTest {
+    private final TestSerializableStateImpl state = spy(new TestSerializableStateImpl());
+    private WriteBehindState writeBehindState = new WriteBehindState(state);
+
+    @After
+    public void after() {
+        writeBehindState.close();
+    }
+
+    @Test
+    public void shouldWriteOnFlush() throws IOException {
+        writeBehindState.set("key", "value");
+        writeBehindState.flush();
+        assertEquals("value", state.get("key"));
+    }
+
+    @Test
+    public void shouldReadQueuedWrites() throws IOException, InterruptedException {
+        final CountDownLatch blocked = blockWriter();
+        writeBehindState.set("key", "value");
+        assertEquals("value", writeBehindState.get("key"));
+        writeBehindState.delete("key");
+        assertNull(writeBehindState.get("key"));
+        blocked.countDown();
+        writeBehindState.flush();
+        assertNull(state.get("key"));
+    }
+
+    @Test
+    public void shouldOnlyWriteLatestValueOfQueuedKey() throws IOException, InterruptedException {
+        final CountDownLatch blocked = blockWriter();
+        writeBehindState.set("key", "value1");
+        writeBehindState.set("key", "value2");
+        writeBehindState.set("key", "value3");
+        blocked.countDown();
+        writeBehindState.flush();
+        verify(state, never()).set("key", "value1");
+        verify(state, never()).set("key", "value2");
+        verify(state, times(1)).set("key", "value3");
+        assertEquals("value3", state.get("key"));
+    }
+
+    @Test
+    public void shouldReportWriteFailureOnFlush() throws IOException {
+        doThrow(new IOException("Test exception")).when(state).set("key", "value");
+        writeBehindState.set("key", "value");
+        try {
+            writeBehindState.flush();
+            fail("Expected write failure to be reported");
+        } catch (IOException e) {
+            assertEquals("Test exception", e.getCause().getMessage());
+        }
+    }
+
+    @Test
+    public void shouldRetryFailedWrite() throws IOException, InterruptedException {
+        doThrow(new IOException("Test exception")).doCallRealMethod().when(state).set("key", "value");
+        writeBehindState.set("key", "value");
+        try {
+            writeBehindState.flush();
+            fail("Expected write failure to be reported");
+        } catch (IOException e) {
+            assertEquals("Test exception", e.getCause().getMessage());
+        }
+        final long deadline = System.currentTimeMillis() + 10 * WriteBehindState.RETRY_DELAY_MS;
+        while (state.get("key") == null && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals("value", state.get("key"));
+        writeBehindState.flush(); // The key has been written, so its failure is cleared
+    }
+
+    @Test
+    public void shouldNotRetryWriteReplacedByNewerValue() throws IOException, InterruptedException {
+        doThrow(new IOException("Test exception")).when(state).set("key", "value1");
+        writeBehindState.set("key", "value1");
+        try {
+            writeBehindState.flush();
+            fail("Expected write failure to be reported");
+        } catch (IOException e) {
+            assertEquals("Test exception", e.getCause().getMessage());
+        }
+        writeBehindState.set("key", "value2");
+        writeBehindState.flush();
+        assertEquals("value2", state.get("key"));
+        verify(state, times(1)).set("key", "value1");
+    }
+
+    @Test
+    public void shouldNotReportFailureOfWriteQueuedAfterFlush() throws Exception {
+        doThrow(new IOException("Test exception")).when(state).delete("later");
+        final CountDownLatch blocked = blockWriter();
+        writeBehindState.set("key", "value");
+        final ArrayList<Exception> flushErrors = new ArrayList<>();
+        final Thread flusher = new Thread(() -> {
+            try {
+                writeBehindState.flush();
+            } catch (IOException e) {
+                flushErrors.add(e);
+            }
+        });
+        flusher.start();
+        while (flusher.getState() != Thread.State.WAITING) {
+            Thread.sleep(1);
+        }
+        writeBehindState.delete("later"); // Queued after the flush started, and fails
+        blocked.countDown();
+        flusher.join();
+        assertTrue(flushErrors.isEmpty());
+        assertEquals("value", state.get("key"));
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void shouldWriteReplacedKeyAfterKeysQueuedBeforeIt() throws IOException, InterruptedException {
+        final CountDownLatch blocked = blockWriter();
+        writeBehindState.set("first", "value1");
+        writeBehindState.set("second", "value");
+        writeBehindState.set("first", "value2");
+        blocked.countDown();
+        writeBehindState.flush();
+        final ArgumentCaptor<Map> batches = ArgumentCaptor.forClass(Map.class);
+        verify(state, times(2)).setAll(batches.capture());
+        assertEquals(Arrays.asList("second", "first"), new ArrayList<String>(batches.getValue().keySet()));
+    }
+
+    @Test
+    public void shouldWriteQueueOnClose() throws IOException {
+        writeBehindState.set("key", "value");
+        writeBehindState.close();
+        assertEquals("value", state.get("key"));
+    }
+
+    @Test(expected = IOException.class)
+    public void shouldNotAcceptWritesAfterClose() throws IOException {
+        writeBehindState.close();
+        writeBehindState.set("key", "value");
+    }
+
+    /**
+     * Holds up the writer thread on a dummy write until the returned latch is released.
+     */
+    @SuppressWarnings("unchecked")
+    private CountDownLatch blockWriter() throws IOException, InterruptedException {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        doAnswer(invocation -> {
+            started.countDown();
+            release.await();
+            return invocation.callRealMethod();
+        }).doCallRealMethod().when(state).setAll(anyMapOf(String.class, Object.class));
+        writeBehindState.set("blocker", "value");
+        started.await();
+        return release;
+    }
+}